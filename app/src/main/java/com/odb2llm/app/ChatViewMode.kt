@@ -3,53 +3,86 @@ package com.odb2llm.app
 import android.app.Application
 import androidx.compose.runtime.toMutableStateList
 import androidx.lifecycle.AndroidViewModel
-import androidx.lifecycle.LiveData
-import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.viewModelScope
-import java.util.concurrent.Executor
 import java.util.concurrent.Executors
+import kotlin.coroutines.cancellation.CancellationException
 import kotlinx.coroutines.asCoroutineDispatcher
-import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 
+/** Receives the text generated since the previous call, on a background thread. */
+fun interface ResponseListener {
+    fun onResponse(delta: String, done: Boolean)
+}
+
 /** Instantiates the View Model for the chat view. */
 class ChatViewModel constructor(private val application: Application) :
     AndroidViewModel(application) {
     private val ragPipeline = RagPipeline(application)
     internal val messages = emptyList<MessageData>().toMutableStateList()
-    private val executorService = Executors.newSingleThreadExecutor()
-    private val backgroundExecutor: Executor = Executors.newSingleThreadExecutor()
+    private val dispatcher = Executors.newSingleThreadExecutor().asCoroutineDispatcher()
+    private val scheduler = LlmScheduler(viewModelScope, dispatcher) {
+        // shown when it's asked, a superseded question never appears
+        appendMessage(MessageOwner.User, it.prompt)
+        requestResponseFromModel(it.prompt)
+    }
 
-    private val _lastResponseText = MutableLiveData<String>()
-    val lastResponseText: LiveData<String> get() = _lastResponseText
+    @Volatile
+    var responseListener: ResponseListener? = null
 
-    @SuppressWarnings("FutureReturnValueIgnored")
-    fun requestResponse(prompt: String) {
-        appendMessage(MessageOwner.User, prompt)
-        executorService.submit { viewModelScope.launch { requestResponseFromModel(prompt) } }
+    /**
+     * Queues [prompt] on the scheduler. A question supersedes the questions before it, commentary waits
+     * for them. A prompt equal to a queued or running one is not asked twice. The prompt is added to
+     * [messages] when it starts.
+     */
+    @JvmOverloads
+    fun requestResponse(prompt: String, priority: LlmScheduler.Priority = LlmScheduler.Priority.USER) {
+        scheduler.submit(prompt, priority)
     }
 
     suspend fun requestResponseFromModel(prompt: String) =
-        withContext(backgroundExecutor.asCoroutineDispatcher()) {
-            ragPipeline.generateResponse(
-                prompt,
-            ) { response, done ->
-                updateLastMessage(MessageOwner.Model, response.text)
-                    _lastResponseText.postValue(response.text);
+        withContext(dispatcher) {
+            val deltas = TokenDeltas(TokenDeltas.MEDIAPIPE)
+            try {
+                ragPipeline.generateResponse(
+                    prompt,
+                ) { partial, done ->
+                    val delta = deltas.delta(partial)
+                    if (done)
+                        updateLastMessage(MessageOwner.Model, deltas.text())
+                    responseListener?.onResponse(delta, done)
+                }
+            } catch (e: CancellationException) {
+                // superseded, end the streamed part of the answer
+                if (deltas.text().isNotEmpty())
+                    responseListener?.onResponse(" ...", true)
+                throw e
             }
         }
 
-    suspend fun memorizeChunks(filename: String) {
-        withContext(backgroundExecutor.asCoroutineDispatcher()) {
-            ragPipeline.memorizeChunks(application.applicationContext, filename)
-        }
+    /** Queue depth, waits and counts of the LLM requests. */
+    fun schedulerMetrics(): LlmScheduler.Metrics = scheduler.metrics()
+
+    /** Starts a new conversation, the model forgets the previous questions. */
+    fun resetConversation() {
+        ragPipeline.resetConversation()
     }
 
-    fun memorizeChunksFromJava(filename: String, onComplete: Runnable) {
-        viewModelScope.launch {
-            memorizeChunks(filename)
-            onComplete.run()
-        }
+    /**
+     * Queues the RAG memory (chunks of [filename]), the Gecko and the LLM warm-up as background startup stages.
+     * Questions asked before they are done wait for them, OBD queries don't.
+     */
+    fun loadInBackground(filename: String) {
+        val context = application.applicationContext
+        val startup = StartupPipeline.get()
+        startup.submit("rag memory", StartupPipeline.PRIORITY_RAG) { ragPipeline.memorizeChunks(context, filename) }
+        startup.submit("gecko warm-up", StartupPipeline.PRIORITY_RAG) { ragPipeline.warmUpEmbedder() }
+        startup.submit("llm warm-up", StartupPipeline.PRIORITY_LLM) { ragPipeline.warmUp(context) }
+    }
+
+    override fun onCleared() {
+        scheduler.cancelAll()
+        ragPipeline.close()
+        dispatcher.close() // the cancelled request is resumed on Dispatchers.IO once the executor rejects it
     }
 
     private fun appendMessage(role: MessageOwner, message: String) {
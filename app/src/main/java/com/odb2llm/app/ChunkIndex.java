@@ -0,0 +1,221 @@
+package com.odb2llm.app;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * chunk texts of the RAG knowledge base with their embeddings, L2 normalized
+ *
+ * layout: header, size * dim little endian floats, size + 1 text offsets, UTF-8 texts.
+ * a saved index is memory mapped, loading only reads the header and texts are decoded when retrieved.
+ * the key covers knowledge base and embedding model, a change of either rebuilds the index.
+ */
+final class ChunkIndex {
+
+    private static final int MAGIC = 0x4F424443; // OBDC
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 4;
+
+    final long key;
+    final int size;
+    final int dim;
+    private final ByteBuffer buffer;
+    private final FloatBuffer vectors;
+    private final IntBuffer offsets;
+    private final int textsStart;
+
+    private ChunkIndex(ByteBuffer buffer) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(8);
+        this.key = buffer.getLong();
+        this.size = buffer.getInt();
+        this.dim = buffer.getInt();
+        buffer.position(HEADER_BYTES);
+        this.vectors = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        buffer.position(HEADER_BYTES + 4 * size * dim);
+        this.offsets = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        this.textsStart = HEADER_BYTES + 4 * size * dim + 4 * (size + 1);
+        buffer.position(0);
+    }
+
+    /**
+     * heap backed index, e.g. before it is saved
+     *
+     * @param vectors embedding of each text, normalized here
+     */
+    static ChunkIndex build(long key, List<String> texts, List<float[]> vectors) {
+        int size = texts.size();
+        int dim = size > 0 ? vectors.get(0).length : 1;
+        byte[][] encoded = new byte[size][];
+        int textBytes = 0;
+        for (int i = 0; i < size; i++) {
+            encoded[i] = texts.get(i).getBytes(StandardCharsets.UTF_8);
+            textBytes += encoded[i].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 4 * size * dim + 4 * (size + 1) + textBytes)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(key).putInt(size).putInt(dim);
+        for (float[] vector : vectors) {
+            if (vector.length != dim)
+                throw new IllegalArgumentException("embedding has " + vector.length + " dimensions, expected " + dim);
+            double norm = 0;
+            for (float v : vector)
+                norm += v * v;
+            float scale = norm == 0 ? 0 : (float) (1 / Math.sqrt(norm));
+            for (float v : vector)
+                buffer.putFloat(v * scale);
+        }
+        int offset = 0;
+        buffer.putInt(offset);
+        for (byte[] text : encoded)
+            buffer.putInt(offset += text.length);
+        for (byte[] text : encoded)
+            buffer.put(text);
+        buffer.flip();
+        return new ChunkIndex(buffer);
+    }
+
+    String text(int row) {
+        int start = offsets.get(row), end = offsets.get(row + 1);
+        byte[] bytes = new byte[end - start];
+        ByteBuffer view = buffer.duplicate();
+        view.position(textsStart + start);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * normalized embedding of a row
+     */
+    float[] vector(int row) {
+        float[] vector = new float[dim];
+        FloatBuffer view = vectors.duplicate();
+        view.position(row * dim);
+        view.get(vector);
+        return vector;
+    }
+
+    /**
+     * cosine similarity of query with every row into scores[0..size)
+     */
+    void scan(float[] query, float[] scores) {
+        if (query.length != dim)
+            throw new IllegalArgumentException("query has " + query.length + " dimensions, expected " + dim);
+        double norm = 0;
+        for (float v : query)
+            norm += v * v;
+        float scale = norm == 0 ? 0 : (float) (1 / Math.sqrt(norm));
+        for (int row = 0; row < size; row++)
+            scores[row] = dot(row, query) * scale;
+    }
+
+    /**
+     * dot product of a row with query, four accumulators like {@link PhraseIndex}
+     */
+    float dot(int row, float[] query) {
+        int off = row * dim;
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < dim; i += 4) {
+            s0 += vectors.get(off + i) * query[i];
+            s1 += vectors.get(off + i + 1) * query[i + 1];
+            s2 += vectors.get(off + i + 2) * query[i + 2];
+            s3 += vectors.get(off + i + 3) * query[i + 3];
+        }
+        for (; i < dim; i++)
+            s0 += vectors.get(off + i) * query[i];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * @return rows of the k highest scores, best first
+     */
+    static int[] top(float[] scores, int count, int k) {
+        k = Math.min(k, count);
+        int[] rows = new int[k];
+        int n = 0;
+        for (int row = 0; row < count; row++) {
+            if (n == k && scores[row] <= scores[rows[n - 1]])
+                continue;
+            int i = n < k ? n++ : n - 1;
+            while (i > 0 && scores[rows[i - 1]] < scores[row]) {
+                rows[i] = rows[i - 1];
+                i--;
+            }
+            rows[i] = row;
+        }
+        return rows;
+    }
+
+    /**
+     * CRC32 of the knowledge base in the upper half, of the embedding model version in the lower half
+     *
+     * @param modelVersion e.g. name, size and modification time of the model file
+     */
+    static long key(InputStream content, String modelVersion) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[64 * 1024];
+        int len;
+        while ((len = content.read(buf)) > 0)
+            crc.update(buf, 0, len);
+        long contentCrc = crc.getValue();
+        crc.reset();
+        byte[] version = modelVersion.getBytes(StandardCharsets.UTF_8);
+        crc.update(version, 0, version.length);
+        return (contentCrc << 32) | crc.getValue();
+    }
+
+    static String modelVersion(File model) {
+        return model.getName() + ':' + model.length() + ':' + model.lastModified();
+    }
+
+    /**
+     * written to a temporary file first, a crash never leaves a truncated index behind
+     */
+    void save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp); FileChannel channel = out.getChannel()) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(0);
+            while (view.hasRemaining())
+                channel.write(view);
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(file))
+            throw new IOException("rename " + tmp + " failed");
+    }
+
+    /**
+     * @return memory mapped index, null if there is no index for key
+     */
+    static ChunkIndex load(File file, long key) throws IOException {
+        if (!file.exists())
+            return null;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            long length = channel.size();
+            if (length < HEADER_BYTES)
+                return null;
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getLong(8) != key)
+                return null;
+            long size = buffer.getInt(16), dim = buffer.getInt(20);
+            long textsStart = HEADER_BYTES + 4 * size * dim + 4 * (size + 1);
+            if (size < 0 || dim <= 0 || textsStart > length)
+                return null;
+            if (textsStart + buffer.getInt((int) (textsStart - 4)) != length)
+                return null;
+            return new ChunkIndex(buffer); // the mapping stays valid after the channel is closed
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.odb2llm.app;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * embeds the chunks of the knowledge base in micro-batches on a bounded worker pool
+ *
+ * every finished batch is handed to the listener and appended to a journal, a run killed half way
+ * resumes with the chunks missing in the journal. the journal belongs to one key, like the index built from it.
+ *
+ * journal: header, then per batch: count, rows, dim, vectors, CRC32 of the batch. a torn last batch is ignored.
+ */
+final class ChunkIngest {
+
+    private static final int MAGIC = 0x4F42444A; // OBDJ
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4;
+
+    interface Embedder {
+        /**
+         * @return one embedding per text, same order
+         */
+        List<float[]> embed(List<String> texts) throws Exception;
+    }
+
+    interface Listener {
+        void onBatch(int[] rows, float[][] vectors);
+        void onProgress(int done, int total);
+    }
+
+    private final Embedder embedder;
+    private final int batchSize;
+    private final int workers;
+
+    ChunkIngest(Embedder embedder, int batchSize, int workers) {
+        this.embedder = embedder;
+        this.batchSize = Math.max(1, batchSize);
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * embed all texts that are not in the journal yet
+     *
+     * @return embedding of every text
+     * @throws IOException if the journal can't be written or a batch failed, the finished batches stay in the journal
+     */
+    float[][] run(long key, List<String> texts, File journal, Listener listener) throws IOException, InterruptedException {
+        int total = texts.size();
+        float[][] vectors = new float[total][];
+        int done = resume(journal, key, total, vectors, listener);
+        listener.onProgress(done, total);
+        if (done == total)
+            return vectors;
+
+        if (done == 0)
+            writeHeader(journal, key, total);
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        ExecutorCompletionService<Batch> completion = new ExecutorCompletionService<>(executor);
+        int batches = 0;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(journal, true))) {
+            List<Integer> rows = new ArrayList<>(batchSize);
+            for (int row = 0; row <= total; row++) {
+                if (row < total && vectors[row] == null)
+                    rows.add(row);
+                if (rows.size() == batchSize || (row == total && !rows.isEmpty())) {
+                    completion.submit(new Batch(rows, texts));
+                    rows = new ArrayList<>(batchSize);
+                    batches++;
+                }
+            }
+            for (int i = 0; i < batches; i++) {
+                Batch batch = completion.take().get();
+                append(out, batch);
+                out.flush();
+                for (int j = 0; j < batch.rows.length; j++)
+                    vectors[batch.rows[j]] = batch.vectors[j];
+                done += batch.rows.length;
+                listener.onBatch(batch.rows, batch.vectors);
+                listener.onProgress(done, total);
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("embedding failed after " + done + " of " + total + " chunks", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return vectors;
+    }
+
+    private final class Batch implements Callable<Batch> {
+        final int[] rows;
+        final List<String> texts = new ArrayList<>();
+        float[][] vectors;
+
+        Batch(List<Integer> rows, List<String> all) {
+            this.rows = new int[rows.size()];
+            for (int i = 0; i < this.rows.length; i++) {
+                this.rows[i] = rows.get(i);
+                texts.add(all.get(this.rows[i]));
+            }
+        }
+
+        @Override
+        public Batch call() throws Exception {
+            List<float[]> embedded = embedder.embed(texts);
+            if (embedded.size() != rows.length)
+                throw new IOException(embedded.size() + " embeddings for " + rows.length + " texts");
+            vectors = embedded.toArray(new float[0][]);
+            return this;
+        }
+    }
+
+    private static void writeHeader(File journal, long key, int total) throws IOException {
+        try (OutputStream out = new FileOutputStream(journal)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(key).putInt(total);
+            out.write(header.array());
+        }
+    }
+
+    private static void append(OutputStream out, Batch batch) throws IOException {
+        int dim = batch.vectors[0].length;
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 * batch.rows.length + 4 + 4 * batch.rows.length * dim + 4)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(batch.rows.length);
+        for (int row : batch.rows)
+            buffer.putInt(row);
+        buffer.putInt(dim);
+        for (float[] vector : batch.vectors) {
+            if (vector.length != dim)
+                throw new IOException("embedding has " + vector.length + " dimensions, expected " + dim);
+            for (float v : vector)
+                buffer.putFloat(v);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        out.write(buffer.array(), 0, buffer.position());
+    }
+
+    /**
+     * read the complete batches of a journal with the same key
+     *
+     * @return number of chunks already embedded
+     */
+    private static int resume(File journal, long key, int total, float[][] vectors, Listener listener) throws IOException {
+        if (!journal.exists())
+            return 0;
+        int done = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(journal, "rw"); FileChannel channel = raf.getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0);
+            buffer.flip();
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getLong() != key || buffer.getInt() != total)
+                return 0;
+            int valid = buffer.position();
+            CRC32 crc = new CRC32();
+            while (buffer.remaining() >= 8) {
+                int start = buffer.position();
+                int count = buffer.getInt();
+                if (count <= 0 || count > total || buffer.remaining() < 4L * count + 4)
+                    break;
+                int[] rows = new int[count];
+                for (int i = 0; i < count; i++)
+                    rows[i] = buffer.getInt();
+                int dim = buffer.getInt();
+                if (dim <= 0 || buffer.remaining() < 4L * count * dim + 4)
+                    break;
+                float[][] batch = new float[count][dim];
+                for (float[] vector : batch)
+                    for (int i = 0; i < dim; i++)
+                        vector[i] = buffer.getFloat();
+                int end = buffer.position();
+                byte[] bytes = new byte[end - start];
+                ByteBuffer view = buffer.duplicate();
+                view.position(start);
+                view.get(bytes);
+                crc.reset();
+                crc.update(bytes, 0, bytes.length);
+                if (buffer.getInt() != (int) crc.getValue())
+                    break;
+                boolean inRange = true;
+                for (int row : rows)
+                    inRange &= row >= 0 && row < total;
+                if (!inRange)
+                    break;
+                for (int i = 0; i < count; i++) {
+                    if (vectors[rows[i]] == null)
+                        done++;
+                    vectors[rows[i]] = batch[i];
+                }
+                listener.onBatch(rows, batch);
+                valid = buffer.position();
+            }
+            if (valid < buffer.limit())
+                channel.truncate(valid); // drop the torn batch, new batches are appended after the valid ones
+        }
+        return done;
+    }
+}
@@ -0,0 +1,111 @@
+package com.odb2llm.app;
+
+import com.google.ai.edge.localagents.rag.memory.VectorStore;
+import com.google.ai.edge.localagents.rag.memory.VectorStoreRecord;
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * vector store of DefaultSemanticTextMemory backed by a {@link ChunkIndex}
+ *
+ * records inserted by the memory or added by the ingest are collected until {@link #commit} turns them into an index,
+ * a saved index is attached directly without embedding anything. small indexes are scanned exactly,
+ * from {@link #IVF_MIN_SIZE} chunks on a {@link QuantizedIndex} is searched instead.
+ */
+final class ChunkVectorStore implements VectorStore<String> {
+
+    static final int IVF_MIN_SIZE = 2048;
+    static final int PROBES = 8;
+
+    private final SortedMap<Integer, String> pendingTexts = new TreeMap<>();
+    private final SortedMap<Integer, float[]> pendingVectors = new TreeMap<>();
+    private volatile ChunkIndex index;
+    private volatile QuantizedIndex quantized;
+
+    void attach(ChunkIndex index) {
+        this.quantized = null;
+        this.index = index;
+    }
+
+    /**
+     * @param quantized built over the attached index
+     */
+    void attach(QuantizedIndex quantized) {
+        ChunkIndex index = this.index;
+        if (index == null || quantized.key != index.key || quantized.size != index.size)
+            throw new IllegalArgumentException("quantized index doesn't match the chunk index");
+        this.quantized = quantized;
+    }
+
+    ChunkIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * pending record of a chunk, rows of the index follow the chunk order
+     */
+    synchronized void add(int row, String text, float[] vector) {
+        pendingTexts.put(row, text);
+        pendingVectors.put(row, vector);
+    }
+
+    /**
+     * @return index of the records added since the last commit
+     */
+    synchronized ChunkIndex commit(long key) {
+        ChunkIndex built = ChunkIndex.build(key, new ArrayList<>(pendingTexts.values()), new ArrayList<>(pendingVectors.values()));
+        pendingTexts.clear();
+        pendingVectors.clear();
+        attach(built);
+        return built;
+    }
+
+    @Override
+    public synchronized void insert(VectorStoreRecord<String> record) {
+        List<Float> embeddings = record.getEmbeddings();
+        float[] vector = new float[embeddings.size()];
+        for (int i = 0; i < vector.length; i++)
+            vector[i] = embeddings.get(i);
+        add(pendingTexts.isEmpty() ? 0 : pendingTexts.lastKey() + 1, record.getData(), vector);
+    }
+
+    @Override
+    public ImmutableList<VectorStoreRecord<String>> getNearestRecords(List<Float> queryEmbeddings, int topK, float minSimilarityScore) {
+        QuantizedIndex quantized = this.quantized;
+        ChunkIndex index = this.index;
+        if (index == null || index.size == 0)
+            return ImmutableList.of();
+        float[] query = new float[queryEmbeddings.size()];
+        for (int i = 0; i < query.length; i++)
+            query[i] = queryEmbeddings.get(i);
+        ImmutableList.Builder<VectorStoreRecord<String>> records = ImmutableList.builder();
+        if (quantized != null && quantized.key == index.key) {
+            int[] rows = new int[topK];
+            float[] scores = new float[topK];
+            int n = quantized.search(query, topK, PROBES, index, rows, scores);
+            for (int i = 0; i < n && scores[i] >= minSimilarityScore; i++)
+                records.add(record(index, rows[i]));
+            return records.build();
+        }
+        float[] scores = new float[index.size];
+        index.scan(query, scores);
+        for (int row : ChunkIndex.top(scores, index.size, topK)) {
+            if (scores[row] < minSimilarityScore)
+                break;
+            records.add(record(index, row));
+        }
+        return records.build();
+    }
+
+    private static VectorStoreRecord<String> record(ChunkIndex index, int row) {
+        float[] vector = index.vector(row);
+        ImmutableList.Builder<Float> embeddings = ImmutableList.builderWithExpectedSize(vector.length);
+        for (float v : vector)
+            embeddings.add(v);
+        return VectorStoreRecord.create(index.text(row), embeddings.build());
+    }
+}
@@ -78,6 +78,8 @@ public class DevicesFragment extends ListFragment {
         inflater.inflate(R.menu.menu_devices, menu);
         if(permissionMissing)
             menu.findItem(R.id.bt_refresh).setVisible(true);
+        menu.findItem(R.id.simulator).setVisible(BuildConfig.DEBUG);
+        menu.findItem(R.id.replay).setVisible(BuildConfig.DEBUG);
     }
 
     @Override
@@ -93,6 +95,12 @@ public class DevicesFragment extends ListFragment {
             if(BluetoothUtil.hasPermissions(this, requestBluetoothPermissionLauncherForRefresh))
                 refresh();
             return true;
+        } else if (id == R.id.simulator) {
+            open(Elm327Simulator.ADDRESS);
+            return true;
+        } else if (id == R.id.replay) {
+            open(TripReplay.ADDRESS);
+            return true;
         } else {
             return super.onOptionsItemSelected(item);
         }
@@ -128,8 +136,12 @@ public class DevicesFragment extends ListFragment {
     @Override
     public void onListItemClick(@NonNull ListView l, @NonNull View v, int position, long id) {
         BluetoothDevice device = listItems.get(position-1);
+        open(device.getAddress());
+    }
+
+    private void open(String address) {
         Bundle args = new Bundle();
-        args.putString("device", device.getAddress());
+        args.putString("device", address);
         Fragment fragment = new TerminalFragment();
         fragment.setArguments(args);
         getParentFragmentManager().beginTransaction().replace(R.id.fragment, fragment, "terminal").addToBackStack(null).commit();
@@ -0,0 +1,98 @@
+package com.odb2llm.app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * inverted index from DTC to the chunks of the knowledge base describing it
+ *
+ * the knowledge base has sections starting with "Code: P0010" or "Code(s): P0001, P0002", a section
+ * often continues over the next chunks. every chunk from a header up to the next header belongs to its codes,
+ * the chunk of the next header too unless it starts with it.
+ * questions naming a code get these chunks directly, without embedding the question.
+ */
+final class DtcIndex {
+
+    private static final Pattern CODE = Pattern.compile("\\b([PCBU][0-3][0-9A-F]{3})\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern HEADER = Pattern.compile("Code(?:\\(s\\))?:");
+    // a header ends where the section text starts
+    private static final Pattern HEADER_END = Pattern.compile("Symptom|Cause|Diagnosis|\\*");
+    private static final int MAX_HEADER = 120;
+
+    private final Map<String, int[]> chunksPerCode = new HashMap<>();
+
+    DtcIndex(List<String> chunks) {
+        Map<String, List<Integer>> map = new HashMap<>();
+        List<String> active = Collections.emptyList();
+        for (int i = 0; i < chunks.size(); i++) {
+            String chunk = chunks.get(i);
+            Matcher header = HEADER.matcher(chunk);
+            boolean found = header.find();
+            if (!found || !chunk.substring(0, header.start()).trim().isEmpty())
+                for (String code : active)
+                    add(map, code, i); // the previous section ends in this chunk
+            for (; found; found = header.find()) {
+                int end = Math.min(chunk.length(), header.end() + MAX_HEADER);
+                Matcher stop = HEADER_END.matcher(chunk).region(header.end(), end);
+                if (stop.find())
+                    end = stop.start();
+                List<String> codes = codes(chunk.substring(header.end(), end));
+                for (String code : codes)
+                    add(map, code, i);
+                if (!codes.isEmpty())
+                    active = codes;
+            }
+        }
+        for (Map.Entry<String, List<Integer>> e : map.entrySet()) {
+            int[] rows = new int[e.getValue().size()];
+            for (int j = 0; j < rows.length; j++)
+                rows[j] = e.getValue().get(j);
+            chunksPerCode.put(e.getKey(), rows);
+        }
+    }
+
+    private static void add(Map<String, List<Integer>> map, String code, int chunk) {
+        List<Integer> rows = map.get(code);
+        if (rows == null)
+            map.put(code, rows = new ArrayList<>());
+        if (rows.isEmpty() || rows.get(rows.size() - 1) != chunk)
+            rows.add(chunk);
+    }
+
+    /**
+     * DTCs in text, upper case, without duplicates
+     */
+    static List<String> codes(String text) {
+        Set<String> codes = new LinkedHashSet<>();
+        Matcher matcher = CODE.matcher(text);
+        while (matcher.find())
+            codes.add(matcher.group(1).toUpperCase(Locale.ROOT));
+        return new ArrayList<>(codes);
+    }
+
+    /**
+     * @return chunks of all known codes in query in order of the codes, empty if none is known
+     */
+    List<Integer> lookup(String query) {
+        Set<Integer> chunks = new LinkedHashSet<>();
+        for (String code : codes(query)) {
+            int[] rows = chunksPerCode.get(code);
+            if (rows != null)
+                for (int row : rows)
+                    chunks.add(row);
+        }
+        return new ArrayList<>(chunks);
+    }
+
+    int size() {
+        return chunksPerCode.size();
+    }
+}
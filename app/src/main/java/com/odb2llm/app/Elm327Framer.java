@@ -0,0 +1,167 @@
+package com.odb2llm.app;
+
+/**
+ * reassemble the ELM327 byte stream into complete responses
+ *
+ * bytes are collected in a ring buffer until the '>' prompt, then the response is emitted exactly once.
+ * ISO-TP multi-frame output ("014", "0: 49 02 01 31 47 31", "1: ...") is joined into a single line
+ * truncated to the announced length, empty lines are dropped and lines are terminated with '\r'.
+ * the emitted buffer is reused, listeners have to copy what they keep.
+ */
+final class Elm327Framer {
+
+    interface Listener {
+        void onFrame(byte[] buf, int off, int len);
+    }
+
+    private static final int CAPACITY = 4096; // power of 2
+
+    private final byte[] ring = new byte[CAPACITY];
+    private int head, size;
+    private byte[] frame = new byte[CAPACITY];
+    private int frameLength;
+    private final Listener listener;
+
+    // line state while converting the ring into the frame
+    private int pendingHeader = -1;   // byte count of an ISO-TP header line, -1 if none
+    private int headerStart;          // header line position in frame, removed if followed by "0:"
+    private boolean joining;
+    private int joinRemaining;
+    private int joinNibble;
+
+    Elm327Framer(Listener listener) {
+        this.listener = listener;
+    }
+
+    synchronized void feed(byte[] data, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            byte b = data[i];
+            if (b == '>') {
+                emit();
+                continue;
+            }
+            if (b == 0)
+                continue; // some clones send NUL padding
+            if (size == CAPACITY)
+                emit(); // no prompt for too long, e.g. monitor mode
+            ring[(head + size++) & (CAPACITY - 1)] = b;
+        }
+    }
+
+    synchronized void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    private void emit() {
+        if (size == 0)
+            return;
+        frameLength = 0;
+        pendingHeader = -1;
+        joining = false;
+        int lineStart = 0;
+        for (int i = 0; i <= size; i++) {
+            byte b = i < size ? ring[(head + i) & (CAPACITY - 1)] : (byte) '\r';
+            if (b == '\r' || b == '\n') {
+                line(lineStart, i);
+                lineStart = i + 1;
+            }
+        }
+        if (joining)
+            append((byte) '\r');
+        head = 0;
+        size = 0;
+        if (frameLength > 0)
+            listener.onFrame(frame, 0, frameLength);
+    }
+
+    private void line(int start, int end) {
+        while (start < end && at(start) == ' ')
+            start++;
+        while (end > start && at(end - 1) == ' ')
+            end--;
+        if (start == end)
+            return;
+        if (end - start >= 2 && isHex(at(start)) && at(start + 1) == ':') {
+            if (digit(at(start)) == 0) {
+                if (joining)
+                    append((byte) '\r');
+                if (pendingHeader >= 0) {
+                    frameLength = headerStart; // header is replaced by the joined line
+                    joinRemaining = pendingHeader;
+                } else {
+                    joinRemaining = Integer.MAX_VALUE;
+                }
+                joining = true;
+                joinNibble = 0;
+            } else if (!joining) {
+                copyLine(start, end);
+                return;
+            }
+            pendingHeader = -1;
+            for (int i = start + 2; i < end && joinRemaining > 0; i++) {
+                byte b = at(i);
+                if (b == ' ')
+                    continue;
+                if (joinNibble == 0 && frameLength > 0 && frame[frameLength - 1] != '\r' && frame[frameLength - 1] != ' ')
+                    append((byte) ' ');
+                append(b);
+                if (++joinNibble == 2) {
+                    joinNibble = 0;
+                    joinRemaining--;
+                }
+            }
+            return;
+        }
+        if (joining) {
+            append((byte) '\r');
+            joining = false;
+        }
+        headerStart = frameLength;
+        pendingHeader = end - start == 3 && isHex(at(start)) && isHex(at(start + 1)) && isHex(at(start + 2))
+                ? (digit(at(start)) << 8) | (digit(at(start + 1)) << 4) | digit(at(start + 2))
+                : -1;
+        copyLine(start, end);
+    }
+
+    private void copyLine(int start, int end) {
+        for (int i = start; i < end; i++)
+            append(at(i));
+        append((byte) '\r');
+    }
+
+    private byte at(int i) {
+        return ring[(head + i) & (CAPACITY - 1)];
+    }
+
+    private void append(byte b) {
+        if (frameLength == frame.length) {
+            byte[] grown = new byte[frame.length * 2];
+            System.arraycopy(frame, 0, grown, 0, frameLength);
+            frame = grown;
+        }
+        frame[frameLength++] = b;
+    }
+
+    private static boolean isHex(byte b) {
+        return (b >= '0' && b <= '9') || (b >= 'A' && b <= 'F') || (b >= 'a' && b <= 'f');
+    }
+
+    private static int digit(byte b) {
+        return b <= '9' ? b - '0' : (b | 0x20) - 'a' + 10;
+    }
+
+    /**
+     * @return position of pattern in buf, -1 if not found
+     */
+    static int indexOf(byte[] buf, int off, int len, byte[] pattern) {
+        outer:
+        for (int i = off; i <= off + len - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++)
+                if (buf[i + j] != pattern[j])
+                    continue outer;
+            return i;
+        }
+        return -1;
+    }
+}
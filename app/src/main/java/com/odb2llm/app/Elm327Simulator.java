@@ -0,0 +1,336 @@
+package com.odb2llm.app;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * pure java ELM327 answering AT commands and Mode 01/03/09 requests from a scripted {@link Vehicle}
+ * responses are delayed by latency +- jitter and delivered in random fragments, like a bluetooth adapter does.
+ * used for offline testing and benchmarking of everything below the UI.
+ */
+class Elm327Simulator implements SerialTransport {
+
+    static final String ADDRESS = "simulator";
+
+    interface Vehicle {
+        /**
+         * value of a Mode 01 PID in the unit of {@link PidRegistry}, NaN if not supported
+         */
+        double value(int pid, double seconds);
+        /**
+         * stored DTCs as 2 byte codes, e.g. 0x0420 for P0420
+         */
+        int[] dtcs();
+        String vin();
+    }
+
+    /**
+     * idle, then a slow speed wave. faults can be injected while running
+     */
+    static class ScriptedVehicle implements Vehicle {
+        private final double[] overrides = new double[256];
+        private volatile int[] dtcs = new int[0];
+
+        ScriptedVehicle() {
+            java.util.Arrays.fill(overrides, Double.NaN);
+        }
+
+        void set(int pid, double value) { overrides[pid & 0xff] = value; }
+        void setDtcs(int... dtcs) { this.dtcs = dtcs.clone(); }
+
+        @Override
+        public double value(int pid, double t) {
+            if (!Double.isNaN(overrides[pid]))
+                return overrides[pid];
+            double speed = t < 10 ? 0 : 50 + 30 * Math.sin((t - 10) / 20);
+            switch (pid) {
+                case 0x04: return 20 + 10 * Math.sin(t / 5) + speed / 5;
+                case 0x05: return Math.min(90, 20 + t);
+                case 0x0B: return 35 + speed / 3;
+                case 0x0C: return 800 + speed * 30 + 25 * Math.sin(t * 7);
+                case 0x0D: return speed;
+                case 0x0E: return 10 + speed / 10;
+                case 0x0F: return 25;
+                case 0x10: return 3 + speed / 8;
+                case 0x11: return 15 + speed / 2;
+                case 0x1F: return t;
+                case 0x2F: return 62;
+                case 0x33: return 101;
+                case 0x42: return 14.1;
+                case 0x46: return 21;
+                case 0x5C: return Math.min(95, 20 + t * 0.8);
+                default:   return Double.NaN;
+            }
+        }
+
+        @Override
+        public int[] dtcs() { return dtcs; }
+
+        @Override
+        public String vin() { return "1G1JC5444R7252367"; }
+    }
+
+    private final Vehicle vehicle;
+    private final long latencyMicros;
+    private final long jitterMicros;
+    private final int maxFragment;
+    private final Random random;
+    private final long startNanos = System.nanoTime();
+    private final StringBuilder command = new StringBuilder();
+    private final int[] data = new int[ObdReading.MAX_BYTES];
+
+    private ScheduledExecutorService executor;
+    private volatile SerialListener listener;
+    private long busyUntilNanos;
+    private boolean echo = true, spaces = true, linefeeds = false;
+
+    /**
+     * @param maxFragment responses are split into chunks of 1..maxFragment bytes
+     */
+    Elm327Simulator(Vehicle vehicle, long latencyMicros, long jitterMicros, int maxFragment, long seed) {
+        this.vehicle = vehicle;
+        this.latencyMicros = latencyMicros;
+        this.jitterMicros = jitterMicros;
+        this.maxFragment = Math.max(1, maxFragment);
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public String getName() {
+        return "ELM327 simulator";
+    }
+
+    @Override
+    public void connect(SerialListener listener) {
+        this.listener = listener;
+        executor = Executors.newSingleThreadScheduledExecutor();
+        executor.schedule(() -> {
+            SerialListener l = this.listener;
+            if (l != null)
+                l.onSerialConnect();
+        }, latencyMicros, TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public void disconnect() {
+        listener = null;
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] bytes) throws IOException {
+        if (executor == null)
+            throw new IOException("not connected");
+        for (byte b : bytes) {
+            if (b == '\r') {
+                String cmd = command.toString();
+                command.setLength(0);
+                respond(cmd, answer(cmd.replace(" ", "").toUpperCase(Locale.US)));
+            } else if (b != '\n') {
+                command.append((char) b);
+            }
+        }
+    }
+
+    private void respond(String cmd, String answer) {
+        StringBuilder sb = new StringBuilder();
+        if (echo)
+            sb.append(cmd).append(eol());
+        sb.append(answer).append(eol()).append(eol()).append('>');
+        byte[] response = sb.toString().getBytes();
+
+        // responses are serialized like on the real adapter
+        long now = System.nanoTime();
+        long delay = latencyMicros * 1000 + (jitterMicros > 0 ? (long) ((random.nextDouble() * 2 - 1) * jitterMicros * 1000) : 0);
+        long at = Math.max(now + Math.max(0, delay), busyUntilNanos);
+        busyUntilNanos = at;
+        int pos = 0;
+        while (pos < response.length) {
+            int len = Math.min(response.length - pos, 1 + random.nextInt(maxFragment));
+            byte[] fragment = new byte[len];
+            System.arraycopy(response, pos, fragment, 0, len);
+            pos += len;
+            executor.schedule(() -> {
+                SerialListener l = listener;
+                if (l != null)
+                    l.onSerialRead(fragment);
+            }, at - now, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private String eol() {
+        return linefeeds ? "\r\n" : "\r";
+    }
+
+    private String answer(String cmd) {
+        if (cmd.startsWith("AT"))
+            return at(cmd.substring(2));
+        if (cmd.length() < 2 || cmd.length() % 2 != 0)
+            return "?";
+        for (int i = 0; i < cmd.length(); i++)
+            if (Character.digit(cmd.charAt(i), 16) < 0)
+                return "?";
+        int mode = Integer.parseInt(cmd.substring(0, 2), 16);
+        switch (mode) {
+            case 0x01: return mode01(cmd);
+            case 0x03: return mode03();
+            case 0x09: return cmd.equals("0902") ? mode09Vin() : "NO DATA";
+            default:   return "NO DATA";
+        }
+    }
+
+    private String at(String cmd) {
+        switch (cmd) {
+            case "Z":   echo = true; spaces = true; linefeeds = false; return "ELM327 v1.5";
+            case "I":   return "ELM327 v1.5";
+            case "E0":  echo = false; return "OK";
+            case "E1":  echo = true; return "OK";
+            case "S0":  spaces = false; return "OK";
+            case "S1":  spaces = true; return "OK";
+            case "L0":  linefeeds = false; return "OK";
+            case "L1":  linefeeds = true; return "OK";
+            case "DP":  return "AUTO, ISO 15765-4 (CAN 11/500)";
+            case "RV":  return String.format(Locale.US, "%.1fV", vehicle.value(0x42, seconds()));
+            default:    return cmd.startsWith("SP") || cmd.startsWith("H") || cmd.startsWith("AT") || cmd.startsWith("ST") ? "OK" : "?";
+        }
+    }
+
+    private double seconds() {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+
+    private String mode01(String cmd) {
+        int pids = cmd.length() / 2 - 1;
+        if (pids < 1 || pids > ObdRequestBatcher.MAX_PIDS)
+            return "?";
+        double t = seconds();
+        int n = 0;
+        data[n++] = 0x41;
+        for (int i = 0; i < pids; i++) {
+            int pid = Integer.parseInt(cmd.substring(2 + 2 * i, 4 + 2 * i), 16);
+            int len = encode(pid, t, data, n + 1);
+            if (len < 0)
+                continue;
+            data[n] = pid;
+            n += 1 + len;
+        }
+        return n == 1 ? "NO DATA" : can(data, n);
+    }
+
+    /**
+     * write the data bytes of pid at out[pos], inverse of {@link PidRegistry.Pid#evaluate(ObdReading)}
+     *
+     * @return number of data bytes, -1 if not supported
+     */
+    private int encode(int pid, double t, int[] out, int pos) {
+        if (pid % 0x20 == 0) { // supported PIDs bitmask
+            long mask = 0;
+            for (int i = 1; i <= 0x20; i++)
+                if (supported(pid + i, t))
+                    mask |= 1L << (32 - i);
+            for (int i = 0; i < 4; i++)
+                out[pos + i] = (int) (mask >> (24 - 8 * i)) & 0xff;
+            return 4;
+        }
+        if (pid == 0x01) {
+            int dtcs = Math.min(0x7F, vehicle.dtcs().length);
+            out[pos] = (dtcs > 0 ? 0x80 : 0) | dtcs;
+            out[pos + 1] = 0x07;
+            out[pos + 2] = 0x65;
+            out[pos + 3] = 0x00;
+            return 4;
+        }
+        PidRegistry.Pid def = PidRegistry.mode01(pid);
+        double value = vehicle.value(pid, t);
+        if (def == null || Double.isNaN(value) || def.kind != PidRegistry.KIND_VALUE)
+            return -1;
+        long raw = Math.round((value - def.offset) / def.scale);
+        java.util.Arrays.fill(out, pos, pos + def.length, 0);
+        switch (def.raw) {
+            case PidRegistry.RAW_A:
+                out[pos] = (int) Math.max(0, Math.min(0xff, raw));
+                break;
+            case PidRegistry.RAW_AB:
+            case PidRegistry.RAW_AB_SIGNED:
+                raw = def.raw == PidRegistry.RAW_AB ? Math.max(0, Math.min(0xffff, raw)) : raw & 0xffff;
+                out[pos] = (int) (raw >> 8) & 0xff;
+                out[pos + 1] = (int) raw & 0xff;
+                break;
+            default:
+                return -1;
+        }
+        return def.length;
+    }
+
+    private boolean supported(int pid, double t) {
+        if (pid % 0x20 == 0 || pid == 0x01)
+            return true;
+        PidRegistry.Pid def = PidRegistry.mode01(pid);
+        return def != null && def.kind == PidRegistry.KIND_VALUE && !Double.isNaN(vehicle.value(pid, t));
+    }
+
+    private String mode03() {
+        int[] dtcs = vehicle.dtcs();
+        int n = 0;
+        data[n++] = 0x43;
+        data[n++] = dtcs.length;
+        for (int i = 0; i < dtcs.length && n + 2 <= data.length; i++) {
+            data[n++] = (dtcs[i] >> 8) & 0xff;
+            data[n++] = dtcs[i] & 0xff;
+        }
+        return can(data, n);
+    }
+
+    private String mode09Vin() {
+        String vin = vehicle.vin();
+        int n = 0;
+        data[n++] = 0x49;
+        data[n++] = 0x02;
+        data[n++] = 0x01;
+        for (int i = 0; i < vin.length(); i++)
+            data[n++] = vin.charAt(i);
+        return can(data, n);
+    }
+
+    /**
+     * ISO 15765-4 as printed by the ELM327 with headers off: single frame up to 7 bytes,
+     * otherwise byte count, then numbered first and consecutive frames padded with 0xAA
+     */
+    private String can(int[] bytes, int len) {
+        StringBuilder sb = new StringBuilder();
+        if (len <= 7) {
+            hex(sb, bytes, 0, len);
+            return sb.toString();
+        }
+        sb.append(String.format(Locale.US, "%03X", len));
+        int pos = 0;
+        for (int frame = 0; pos < len; frame++) {
+            int count = frame == 0 ? 6 : 7;
+            sb.append(eol()).append(Integer.toHexString(frame & 0x0F).toUpperCase(Locale.US)).append(':');
+            if (spaces)
+                sb.append(' ');
+            for (int i = 0; i < count; i++) {
+                if (i > 0 && spaces)
+                    sb.append(' ');
+                sb.append(String.format(Locale.US, "%02X", pos < len ? bytes[pos] : 0xAA));
+                pos++;
+            }
+        }
+        return sb.toString();
+    }
+
+    private void hex(StringBuilder sb, int[] bytes, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            if (i > off && spaces)
+                sb.append(' ');
+            sb.append(String.format(Locale.US, "%02X", bytes[i]));
+        }
+    }
+}
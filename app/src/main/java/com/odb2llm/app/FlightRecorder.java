@@ -0,0 +1,226 @@
+package com.odb2llm.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * last seconds of every decoded value, frozen into a snapshot when something goes wrong
+ *
+ * one ring of primitive timestamps and values per Mode 01 PID plus one for the stored DTC count, allocated
+ * when a PID is first seen and never grown. a snapshot copies the window before the trigger, at most
+ * {@link #MAX_SNAPSHOTS} are kept, so memory is bounded however long the service runs.
+ *
+ * triggers: MIL turning on (PID 0x01 bit A7), the DTC count rising (PID 0x01 or Mode 03) or {@link #trigger}.
+ * {@link #save} writes a snapshot as a trip log, so it outlives the process.
+ */
+final class FlightRecorder {
+
+    static final int MAX_SNAPSHOTS = 4;
+    private static final int DTC_CHANNEL = 256;    // Mode 03 DTC count
+    private static final int CHANNELS = 257;
+
+    interface Listener {
+        /**
+         * called on the recording thread
+         */
+        void onSnapshot(Snapshot snapshot);
+    }
+
+    static final class Series {
+        final int channel;      // Mode 01 PID, 256 for the Mode 03 DTC count
+        final long[] nanos;
+        final float[] values;
+
+        Series(int channel, long[] nanos, float[] values) {
+            this.channel = channel;
+            this.nanos = nanos;
+            this.values = values;
+        }
+    }
+
+    static final class Snapshot {
+        final String reason;
+        final long triggerNanos;
+        final List<Series> series;
+
+        Snapshot(String reason, long triggerNanos, List<Series> series) {
+            this.reason = reason;
+            this.triggerNanos = triggerNanos;
+            this.series = series;
+        }
+    }
+
+    private static final class Ring {
+        final long[] nanos;
+        final float[] values;
+        int head;   // next write position
+        int count;
+
+        Ring(int capacity) {
+            nanos = new long[capacity];
+            values = new float[capacity];
+        }
+
+        void add(long t, float v) {
+            nanos[head] = t;
+            values[head] = v;
+            head = head + 1 == nanos.length ? 0 : head + 1;
+            if (count < nanos.length)
+                count++;
+        }
+    }
+
+    private final long windowNanos;
+    private final int capacity;
+    private final Ring[] rings = new Ring[CHANNELS];
+    private final ArrayDeque<Snapshot> snapshots = new ArrayDeque<>();
+    private volatile Listener listener;
+
+    private boolean milOn;
+    private int dtcCount = -1;
+
+    /**
+     * @param capacity samples kept per PID, should cover the window at the highest poll rate
+     */
+    FlightRecorder(long windowNanos, int capacity) {
+        this.windowNanos = windowNanos;
+        this.capacity = capacity;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * record a reading of {@link OBDUtils#decodeAll}, fires the triggers
+     */
+    void record(long nanos, ObdReading r) {
+        Snapshot snapshot = null;
+        synchronized (this) {
+            if (r.mode == 0x41) {
+                ring(r.pid).add(nanos, (float) r.value);
+                if (r.pid == 0x01 && r.length > 2) {
+                    boolean mil = (r.a() & 0x80) != 0;
+                    if (mil && !milOn)
+                        snapshot = freeze("MIL on", nanos);
+                    milOn = mil;
+                    snapshot = dtcCount(r.a() & 0x7F, nanos, snapshot);
+                }
+            } else if (r.mode == 0x43) {
+                ring(DTC_CHANNEL).add(nanos, (float) r.value);
+                snapshot = dtcCount((int) r.value, nanos, snapshot);
+            }
+        }
+        Listener l = listener;
+        if (snapshot != null && l != null)
+            l.onSnapshot(snapshot);
+    }
+
+    private Snapshot dtcCount(int count, long nanos, Snapshot snapshot) {
+        if (dtcCount >= 0 && count > dtcCount && snapshot == null)
+            snapshot = freeze("new DTC, " + count + " stored", nanos);
+        dtcCount = count;
+        return snapshot;
+    }
+
+    /**
+     * freeze a snapshot now, e.g. when the driver reports a stall
+     */
+    Snapshot trigger(String reason, long nanos) {
+        Snapshot snapshot;
+        synchronized (this) {
+            snapshot = freeze(reason, nanos);
+        }
+        Listener l = listener;
+        if (l != null)
+            l.onSnapshot(snapshot);
+        return snapshot;
+    }
+
+    private Ring ring(int channel) {
+        Ring ring = rings[channel];
+        if (ring == null)
+            rings[channel] = ring = new Ring(capacity);
+        return ring;
+    }
+
+    private Snapshot freeze(String reason, long nanos) {
+        List<Series> series = new ArrayList<>();
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            Ring ring = rings[channel];
+            if (ring == null || ring.count == 0)
+                continue;
+            int n = 0;
+            int pos = ring.head;
+            // newest first until the window start
+            for (int i = 0; i < ring.count; i++) {
+                pos = pos == 0 ? capacity - 1 : pos - 1;
+                if (nanos - ring.nanos[pos] > windowNanos)
+                    break;
+                n++;
+            }
+            if (n == 0)
+                continue;
+            pos = ring.head - n < 0 ? ring.head - n + capacity : ring.head - n;
+            long[] t = new long[n];
+            float[] v = new float[n];
+            for (int i = 0; i < n; i++, pos = pos + 1 == capacity ? 0 : pos + 1) {
+                t[i] = ring.nanos[pos];
+                v[i] = ring.values[pos];
+            }
+            series.add(new Series(channel, t, v));
+        }
+        Snapshot snapshot = new Snapshot(reason, nanos, series);
+        if (snapshots.size() == MAX_SNAPSHOTS)
+            snapshots.removeFirst();
+        snapshots.addLast(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * write snapshot as a trip log: a NOTE with the reason at the trigger, then the readings of every series
+     * in time order. startMillis is the wall clock of the trigger
+     */
+    static void save(Snapshot snapshot, File file, long startMillis) throws IOException {
+        TripLog log = new TripLog(file, startMillis, true);
+        log.note(snapshot.triggerNanos, snapshot.reason);
+        ObdReading r = new ObdReading();
+        int[] next = new int[snapshot.series.size()];
+        while (true) {
+            int oldest = -1;
+            for (int s = 0; s < next.length; s++) {
+                Series series = snapshot.series.get(s);
+                if (next[s] < series.nanos.length && (oldest < 0
+                        || series.nanos[next[s]] < snapshot.series.get(oldest).nanos[next[oldest]]))
+                    oldest = s;
+            }
+            if (oldest < 0)
+                break;
+            Series series = snapshot.series.get(oldest);
+            r.mode = series.channel == DTC_CHANNEL ? 0x43 : 0x41;
+            r.pid = series.channel == DTC_CHANNEL ? 0 : series.channel;
+            r.value = series.values[next[oldest]];
+            log.reading(series.nanos[next[oldest]++], r);
+        }
+        log.close();
+    }
+
+    /**
+     * @return frozen snapshots, oldest first
+     */
+    synchronized List<Snapshot> getSnapshots() {
+        return new ArrayList<>(snapshots);
+    }
+
+    synchronized void clear() {
+        for (Ring ring : rings)
+            if (ring != null)
+                ring.count = ring.head = 0;
+        snapshots.clear();
+        milOn = false;
+        dtcCount = -1;
+    }
+}
@@ -0,0 +1,90 @@
+package com.odb2llm.app;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.ArrayDeque;
+
+/**
+ * text appended from any thread is collected and handed to the view at most once per display frame,
+ * so a fast token stream costs one append and one layout per frame instead of one per token.
+ * {@link #end()} closes the current message, text appended after it belongs to the next one
+ */
+final class FrameAppender implements Choreographer.FrameCallback {
+
+    interface Sink {
+        void append(CharSequence text, boolean end);
+    }
+
+    private final Sink sink;
+    private final Handler mainLooper = new Handler(Looper.getMainLooper());
+    private final StringBuilder pending = new StringBuilder();
+    private final ArrayDeque<String> ended = new ArrayDeque<>();
+    private final Runnable schedule = () -> Choreographer.getInstance().postFrameCallback(this);
+    private boolean scheduled;
+
+    FrameAppender(Sink sink) {
+        this.sink = sink;
+    }
+
+    void append(CharSequence text) {
+        synchronized (this) {
+            pending.append(text);
+            if (scheduled)
+                return;
+            scheduled = true;
+        }
+        schedule();
+    }
+
+    void end() {
+        synchronized (this) {
+            ended.add(pending.toString());
+            pending.setLength(0);
+            if (scheduled)
+                return;
+            scheduled = true;
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        // Choreographer instances are per looper, frame callbacks have to be posted from the main thread
+        if (Looper.myLooper() == Looper.getMainLooper())
+            schedule.run();
+        else
+            mainLooper.post(schedule);
+    }
+
+    /**
+     * drop pending text, e.g. when the view is destroyed
+     */
+    void cancel() {
+        mainLooper.removeCallbacks(schedule);
+        Choreographer.getInstance().removeFrameCallback(this);
+        synchronized (this) {
+            pending.setLength(0);
+            ended.clear();
+            scheduled = false;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        String[] messages;
+        String text;
+        synchronized (this) {
+            messages = ended.isEmpty() ? null : ended.toArray(new String[0]);
+            ended.clear();
+            text = pending.toString();
+            pending.setLength(0);
+            scheduled = false;
+        }
+        if (messages != null)
+            for (String message : messages)
+                sink.append(message, true);
+        if (!text.isEmpty())
+            sink.append(text, false);
+    }
+}
@@ -0,0 +1,260 @@
+package com.odb2llm.app;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * values of one PID within one hour of a {@link HistoryStore}, Gorilla compressed
+ *
+ * timestamps are stored as delta-of-delta, values as XOR with the previous value, regular polling costs
+ * a few bits per point. count, min, max and sum of the block and of every minute are kept next to the
+ * bits, aggregates over whole minutes or blocks never decode a point.
+ */
+final class HistoryBlock {
+
+    static final long MINUTE = 60_000;
+    static final int MINUTES = 60;                  // a block spans at most one hour
+    static final int SUMMARY_BYTES = 4 + 4 + 8 + 8 + 4 + 4 + 8;
+    private static final int TIER_BYTES = MINUTES * (4 + 4 + 4 + 8);
+
+    interface Visitor {
+        void point(long millis, float value);
+    }
+
+    final int pid;
+    final long partition;   // start of the hour
+    int count;
+    long first, last;
+    float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+    double sum;
+
+    // minute tier, null in a summary read from the segment directory
+    int[] tierCount;
+    float[] tierMin, tierMax;
+    double[] tierSum;
+
+    private byte[] bits;
+    private long bitLength;
+
+    // encoder state
+    private long prevTime, prevDelta;
+    private int prevValue;
+    private int prevLeading = -1, prevTrailing;
+
+    HistoryBlock(int pid, long partition) {
+        this(pid, partition, true);
+        Arrays.fill(tierMin, Float.POSITIVE_INFINITY);
+        Arrays.fill(tierMax, Float.NEGATIVE_INFINITY);
+        bits = new byte[64];
+    }
+
+    private HistoryBlock(int pid, long partition, boolean tiers) {
+        this.pid = pid;
+        this.partition = partition;
+        if (tiers) {
+            tierCount = new int[MINUTES];
+            tierMin = new float[MINUTES];
+            tierMax = new float[MINUTES];
+            tierSum = new double[MINUTES];
+        }
+    }
+
+    /**
+     * @param millis not before the last point and within the hour of the block
+     */
+    void add(long millis, float value) {
+        int raw = Float.floatToRawIntBits(value);
+        if (count == 0) {
+            first = millis;
+            write(millis - partition, 32);
+            write(raw, 32);
+        } else {
+            long delta = millis - prevTime;
+            long dd = delta - prevDelta;
+            if (dd == 0) {
+                write(0, 1);
+            } else if (dd >= -63 && dd <= 64) {
+                write(0b10, 2);
+                write(dd + 63, 7);
+            } else if (dd >= -255 && dd <= 256) {
+                write(0b110, 3);
+                write(dd + 255, 9);
+            } else if (dd >= -2047 && dd <= 2048) {
+                write(0b1110, 4);
+                write(dd + 2047, 12);
+            } else {
+                write(0b1111, 4);
+                write(dd, 32);
+            }
+            prevDelta = delta;
+
+            int xor = raw ^ prevValue;
+            if (xor == 0) {
+                write(0, 1);
+            } else {
+                int leading = Integer.numberOfLeadingZeros(xor);
+                int trailing = Integer.numberOfTrailingZeros(xor);
+                if (prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing) {
+                    write(0b10, 2); // same window as the previous value
+                    write(xor >>> prevTrailing, 32 - prevLeading - prevTrailing);
+                } else {
+                    int length = 32 - leading - trailing;
+                    write(0b11, 2);
+                    write(leading, 5);
+                    write(length - 1, 5);
+                    write(xor >>> trailing, length);
+                    prevLeading = leading;
+                    prevTrailing = trailing;
+                }
+            }
+        }
+        prevTime = millis;
+        prevValue = raw;
+        last = millis;
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        sum += value;
+        int minute = minute(millis);
+        tierCount[minute]++;
+        tierMin[minute] = Math.min(tierMin[minute], value);
+        tierMax[minute] = Math.max(tierMax[minute], value);
+        tierSum[minute] += value;
+    }
+
+    int minute(long millis) {
+        return (int) Math.max(0, Math.min(MINUTES - 1, (millis - partition) / MINUTE));
+    }
+
+    private void write(long value, int n) {
+        if (bitLength + n > 8L * bits.length)
+            bits = Arrays.copyOf(bits, Math.max(2 * bits.length, (int) ((bitLength + n + 7) / 8)));
+        for (int i = n - 1; i >= 0; i--) {
+            if ((value >>> i & 1) != 0)
+                bits[(int) (bitLength >>> 3)] |= (byte) (0x80 >>> (bitLength & 7));
+            bitLength++;
+        }
+    }
+
+    /**
+     * decode the block, points in [from, to) go to visitor
+     */
+    void scan(long from, long to, Visitor visitor) {
+        if (count == 0 || last < from || first >= to)
+            return;
+        long[] pos = {0};
+        long time = partition + read(pos, 32);
+        int value = (int) read(pos, 32);
+        long delta = 0;
+        int leading = 0, trailing = 0;
+        for (int i = 0; ; ) {
+            if (time >= to)
+                return;
+            if (time >= from)
+                visitor.point(time, Float.intBitsToFloat(value));
+            if (++i == count)
+                return;
+            long dd;
+            if (read(pos, 1) == 0)
+                dd = 0;
+            else if (read(pos, 1) == 0)
+                dd = read(pos, 7) - 63;
+            else if (read(pos, 1) == 0)
+                dd = read(pos, 9) - 255;
+            else if (read(pos, 1) == 0)
+                dd = read(pos, 12) - 2047;
+            else
+                dd = (int) read(pos, 32);
+            delta += dd;
+            time += delta;
+            if (read(pos, 1) != 0) {
+                if (read(pos, 1) != 0) {
+                    leading = (int) read(pos, 5);
+                    trailing = 32 - leading - ((int) read(pos, 5) + 1);
+                }
+                value ^= (int) read(pos, 32 - leading - trailing) << trailing;
+            }
+        }
+    }
+
+    private long read(long[] pos, int n) {
+        long value = 0;
+        long p = pos[0];
+        for (int i = 0; i < n; i++, p++)
+            value = value << 1 | (bits[(int) (p >>> 3)] >>> (7 - (p & 7)) & 1);
+        pos[0] = p;
+        return value;
+    }
+
+    /**
+     * copy of the points so far, queries run on it while this block keeps growing
+     */
+    HistoryBlock copy() {
+        HistoryBlock copy = new HistoryBlock(pid, partition, false);
+        copy.count = count;
+        copy.first = first;
+        copy.last = last;
+        copy.min = min;
+        copy.max = max;
+        copy.sum = sum;
+        copy.tierCount = tierCount.clone();
+        copy.tierMin = tierMin.clone();
+        copy.tierMax = tierMax.clone();
+        copy.tierSum = tierSum.clone();
+        copy.bits = Arrays.copyOf(bits, (int) ((bitLength + 7) / 8));
+        copy.bitLength = bitLength;
+        return copy;
+    }
+
+    void writeSummary(ByteBuffer out) {
+        out.putInt(pid).putInt(count).putLong(first).putLong(last).putFloat(min).putFloat(max).putDouble(sum);
+    }
+
+    static HistoryBlock readSummary(ByteBuffer in, long partition) {
+        HistoryBlock block = new HistoryBlock(in.getInt(), partition, false);
+        block.count = in.getInt();
+        block.first = in.getLong();
+        block.last = in.getLong();
+        block.min = in.getFloat();
+        block.max = in.getFloat();
+        block.sum = in.getDouble();
+        return block;
+    }
+
+    /**
+     * minute tier and bits
+     */
+    int bodyBytes() {
+        return TIER_BYTES + 8 + (int) ((bitLength + 7) / 8);
+    }
+
+    void writeBody(ByteBuffer out) {
+        for (int m = 0; m < MINUTES; m++)
+            out.putInt(tierCount[m]).putFloat(tierMin[m]).putFloat(tierMax[m]).putDouble(tierSum[m]);
+        out.putLong(bitLength);
+        out.put(bits, 0, (int) ((bitLength + 7) / 8));
+    }
+
+    /**
+     * @return full block of a summary, body as written by {@link #writeBody}
+     */
+    HistoryBlock withBody(ByteBuffer in) {
+        HistoryBlock block = new HistoryBlock(pid, partition, true);
+        block.count = count;
+        block.first = first;
+        block.last = last;
+        block.min = min;
+        block.max = max;
+        block.sum = sum;
+        for (int m = 0; m < MINUTES; m++) {
+            block.tierCount[m] = in.getInt();
+            block.tierMin[m] = in.getFloat();
+            block.tierMax[m] = in.getFloat();
+            block.tierSum[m] = in.getDouble();
+        }
+        block.bitLength = in.getLong();
+        block.bits = new byte[(int) ((block.bitLength + 7) / 8)];
+        in.get(block.bits);
+        return block;
+    }
+}
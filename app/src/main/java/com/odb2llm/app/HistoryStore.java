@@ -0,0 +1,404 @@
+package com.odb2llm.app;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * weeks of decoded Mode 01 values of one vehicle, columnar per PID in hourly segments
+ *
+ * readings are appended to one {@link HistoryBlock} per PID. the blocks of an hour are sealed into a
+ * segment file at the end of the hour and on close, every {@link #CHECKPOINT_MILLIS} the file of the
+ * running hour is rewritten so a killed process loses little.
+ * the segment directory (count, min, max, sum per PID) is kept in memory, it is the hour tier.
+ * the minute tier and the compressed points are read from the file when a query needs them:
+ * only minutes cut by the query range are decoded.
+ *
+ * segment layout: header, directory of summaries with body offsets, bodies of {@link HistoryBlock#writeBody}
+ */
+final class HistoryStore {
+
+    static final long HOUR = 60 * HistoryBlock.MINUTE;
+    static final long CHECKPOINT_MILLIS = 10 * HistoryBlock.MINUTE;  // at most this much is lost when killed
+    static final long RETENTION_MILLIS = 42 * 24 * HOUR;
+    private static final int MAGIC = 0x4F424448; // OBDH
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4;
+    private static final int ENTRY_BYTES = HistoryBlock.SUMMARY_BYTES + 4 + 4;
+    private static final String SUFFIX = ".seg";
+    private static final int CACHED_BLOCKS = 32;
+
+    /**
+     * count, min, max and sum of the values in [start, start + length)
+     */
+    static final class Aggregate {
+        final long start;
+        int count;
+        float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+        double sum;
+
+        Aggregate(long start) {
+            this.start = start;
+        }
+
+        double avg() {
+            return count == 0 ? Double.NaN : sum / count;
+        }
+
+        void add(float value) {
+            count++;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+        }
+
+        void add(int count, float min, float max, double sum) {
+            if (count == 0)
+                return;
+            this.count += count;
+            this.min = Math.min(this.min, min);
+            this.max = Math.max(this.max, max);
+            this.sum += sum;
+        }
+    }
+
+    private static final class Segment {
+        final File file;
+        final long partition;
+        final Map<Integer, HistoryBlock> summaries = new LinkedHashMap<>();
+        final Map<Integer, int[]> bodies = new LinkedHashMap<>();  // offset, length
+        volatile Map<Integer, HistoryBlock> unwritten;              // full blocks until the file is written
+
+        Segment(File file, long partition) {
+            this.file = file;
+            this.partition = partition;
+        }
+    }
+
+    private final File dir;
+    private final List<Segment> segments = new ArrayList<>();   // oldest first
+    private final HistoryBlock[] active = new HistoryBlock[256];
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> new Thread(r, "history"));
+    private final Map<String, HistoryBlock> cache = new LinkedHashMap<String, HistoryBlock>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, HistoryBlock> eldest) {
+            return size() > CACHED_BLOCKS;
+        }
+    };
+    private long partition = -1;
+    private long activeSince;
+    private long checkpoint;
+    private long lastMillis;
+    private boolean closed;     // readings still arriving from the socket thread are dropped
+
+    /**
+     * open the store in dir, segments past the retention are deleted
+     */
+    HistoryStore(File dir, long now) throws IOException {
+        this.dir = dir;
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("can't create " + dir);
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                Segment segment = readDirectory(file);
+                if (segment == null || segment.partition + HOUR < now - RETENTION_MILLIS) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                    continue;
+                }
+                segments.add(segment);
+                for (HistoryBlock summary : segment.summaries.values())
+                    lastMillis = Math.max(lastMillis, summary.last);
+            }
+        }
+        segments.sort((a, b) -> Long.compare(first(a), first(b)));
+    }
+
+    private static long first(Segment segment) {
+        long first = Long.MAX_VALUE;
+        for (HistoryBlock summary : segment.summaries.values())
+            first = Math.min(first, summary.first);
+        return first;
+    }
+
+    /**
+     * append a reading of {@link OBDUtils#decodeAll}, only Mode 01 values are kept
+     */
+    synchronized void add(long millis, ObdReading r) {
+        if (closed || r.mode != 0x41 || Double.isNaN(r.value))
+            return;
+        millis = Math.max(millis, lastMillis); // wall clock set back, keep each series ordered
+        if (partition >= 0 && millis >= partition + HOUR)
+            seal();
+        if (partition < 0) {
+            partition = millis - millis % HOUR;
+            activeSince = checkpoint = millis;
+        } else if (millis - checkpoint >= CHECKPOINT_MILLIS) {
+            checkpoint = millis;
+            Map<Integer, HistoryBlock> copies = new LinkedHashMap<>();
+            for (HistoryBlock block : active)
+                if (block != null)
+                    copies.put(block.pid, block.copy());
+            submit(new Segment(file(), partition), copies);
+        }
+        HistoryBlock block = active[r.pid];
+        if (block == null)
+            active[r.pid] = block = new HistoryBlock(r.pid, partition);
+        block.add(millis, (float) r.value);
+        lastMillis = millis;
+    }
+
+    /**
+     * turn the active blocks into a segment, the file is written in the background
+     */
+    synchronized void seal() {
+        if (partition < 0)
+            return;
+        Segment segment = new Segment(file(), partition);
+        Map<Integer, HistoryBlock> blocks = new LinkedHashMap<>();
+        for (int pid = 0; pid < active.length; pid++) {
+            if (active[pid] == null)
+                continue;
+            blocks.put(pid, active[pid]);
+            segment.summaries.put(pid, active[pid]);
+            active[pid] = null;
+        }
+        partition = -1;
+        segment.unwritten = blocks;
+        segments.add(segment);
+        submit(segment, blocks);
+    }
+
+    /**
+     * one file per hour and process, checkpoints replace it
+     */
+    private File file() {
+        return new File(dir, String.format(Locale.US, "%d-%d%s", partition, activeSince, SUFFIX));
+    }
+
+    private void submit(Segment segment, Map<Integer, HistoryBlock> blocks) {
+        writer.execute(() -> {
+            try {
+                write(segment, blocks);
+                segment.unwritten = null;
+            } catch (IOException e) {
+                Log.w(OBDUtils.TAG, "history: " + segment.file + " not written", e);
+            }
+        });
+    }
+
+    /**
+     * seal and wait for the pending segment files, later readings are ignored
+     */
+    void close() {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            seal();
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void write(Segment segment, Map<Integer, HistoryBlock> blocks) throws IOException {
+        int size = HEADER_BYTES + ENTRY_BYTES * blocks.size();
+        for (HistoryBlock block : blocks.values())
+            size += block.bodyBytes();
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(segment.partition).putInt(blocks.size());
+        int offset = HEADER_BYTES + ENTRY_BYTES * blocks.size();
+        for (HistoryBlock block : blocks.values()) {
+            block.writeSummary(buffer);
+            buffer.putInt(offset).putInt(block.bodyBytes());
+            segment.bodies.put(block.pid, new int[]{offset, block.bodyBytes()});
+            offset += block.bodyBytes();
+        }
+        for (HistoryBlock block : blocks.values())
+            block.writeBody(buffer);
+
+        File tmp = new File(segment.file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(buffer.array());
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(segment.file))
+            throw new IOException("rename " + tmp + " failed");
+    }
+
+    /**
+     * @return segment with summaries only, null if file is no segment
+     */
+    private static Segment readDirectory(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            ByteBuffer header = read(channel, 0, HEADER_BYTES);
+            if (header == null || header.getInt() != MAGIC || header.getInt() != VERSION)
+                return null;
+            Segment segment = new Segment(file, header.getLong());
+            int blocks = header.getInt();
+            ByteBuffer entries = read(channel, HEADER_BYTES, ENTRY_BYTES * blocks);
+            if (entries == null)
+                return null;
+            for (int i = 0; i < blocks; i++) {
+                HistoryBlock summary = HistoryBlock.readSummary(entries, segment.partition);
+                segment.summaries.put(summary.pid, summary);
+                segment.bodies.put(summary.pid, new int[]{entries.getInt(), entries.getInt()});
+            }
+            return segment;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        if (position + length > channel.size())
+            return null;
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                return null;
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * block of pid with minute tier and points
+     */
+    private HistoryBlock full(Segment segment, HistoryBlock summary) throws IOException {
+        Map<Integer, HistoryBlock> unwritten = segment.unwritten;
+        if (unwritten != null)
+            return unwritten.get(summary.pid);
+        String key = segment.file.getName() + ':' + summary.pid;
+        synchronized (cache) {
+            HistoryBlock block = cache.get(key);
+            if (block != null)
+                return block;
+        }
+        int[] body = segment.bodies.get(summary.pid);
+        ByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(segment.file, "r"); FileChannel channel = raf.getChannel()) {
+            buffer = read(channel, body[0], body[1]);
+        }
+        if (buffer == null)
+            throw new IOException(segment.file + " is truncated");
+        HistoryBlock block = summary.withBody(buffer);
+        synchronized (cache) {
+            cache.put(key, block);
+        }
+        return block;
+    }
+
+    private static final class Part {
+        final Segment segment;      // null for an active block
+        final HistoryBlock block;   // summary, or full copy of an active block
+
+        Part(Segment segment, HistoryBlock block) {
+            this.segment = segment;
+            this.block = block;
+        }
+    }
+
+    /**
+     * blocks of pid overlapping [from, to), active ones are copied
+     */
+    private synchronized List<Part> parts(int pid, long from, long to) {
+        List<Part> parts = new ArrayList<>();
+        for (Segment segment : segments) {
+            HistoryBlock summary = segment.summaries.get(pid);
+            if (summary != null && summary.count > 0 && summary.last >= from && summary.first < to)
+                parts.add(new Part(segment, summary));
+        }
+        HistoryBlock block = active[pid];
+        if (block != null && block.count > 0 && block.last >= from && block.first < to)
+            parts.add(new Part(null, block.copy()));
+        return parts;
+    }
+
+    /**
+     * values of pid in [from, to), e.g. max coolant temperature of the week
+     */
+    Aggregate aggregate(int pid, long from, long to) throws IOException {
+        Aggregate aggregate = new Aggregate(from);
+        for (Part part : parts(pid, from, to))
+            aggregate(part, from, to, aggregate);
+        return aggregate;
+    }
+
+    /**
+     * whole blocks from the directory, whole minutes from the minute tier, only the cut minutes are decoded
+     */
+    private void aggregate(Part part, long from, long to, Aggregate out) throws IOException {
+        HistoryBlock block = part.block;
+        if (from <= block.first && block.last < to) {
+            out.add(block.count, block.min, block.max, block.sum);
+            return;
+        }
+        if (part.segment != null)
+            block = full(part.segment, block);
+        boolean cut = false;
+        for (int m = 0; m < HistoryBlock.MINUTES; m++) {
+            long start = block.partition + m * HistoryBlock.MINUTE;
+            if (block.tierCount[m] == 0 || start + HistoryBlock.MINUTE <= from || start >= to)
+                continue;
+            if (from <= start && start + HistoryBlock.MINUTE <= to)
+                out.add(block.tierCount[m], block.tierMin[m], block.tierMax[m], block.tierSum[m]);
+            else
+                cut = true;
+        }
+        if (!cut)
+            return;
+        HistoryBlock decoded = block;
+        block.scan(from, to, (millis, value) -> {
+            long start = decoded.partition + decoded.minute(millis) * HistoryBlock.MINUTE;
+            if (start < from || start + HistoryBlock.MINUTE > to)
+                out.add(value);
+        });
+    }
+
+    /**
+     * aggregates of consecutive buckets from from to to. buckets of whole minutes on minute boundaries
+     * are answered from the tiers
+     */
+    List<Aggregate> downsample(int pid, long from, long to, long bucketMillis) throws IOException {
+        List<Part> parts = parts(pid, from, to);
+        List<Aggregate> buckets = new ArrayList<>();
+        for (long start = from; start < to; start += bucketMillis) {
+            long end = Math.min(to, start + bucketMillis);
+            Aggregate bucket = new Aggregate(start);
+            for (Part part : parts)
+                if (part.block.last >= start && part.block.first < end)
+                    aggregate(part, start, end, bucket);
+            buckets.add(bucket);
+        }
+        return buckets;
+    }
+
+    /**
+     * every value of pid in [from, to), oldest first
+     */
+    void scan(int pid, long from, long to, HistoryBlock.Visitor visitor) throws IOException {
+        for (Part part : parts(pid, from, to)) {
+            HistoryBlock block = part.segment != null ? full(part.segment, part.block) : part.block;
+            block.scan(from, to, visitor);
+        }
+    }
+}
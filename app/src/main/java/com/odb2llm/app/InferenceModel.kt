@@ -1,40 +1,31 @@
 package com.odb2llm.app
 
 import android.content.Context
-import com.google.mediapipe.tasks.genai.llminference.LlmInference
+import com.google.mediapipe.tasks.genai.llminference.LlmInferenceSession
 import kotlinx.coroutines.channels.BufferOverflow
 import kotlinx.coroutines.flow.MutableSharedFlow
-import java.io.File
 
+/** One-shot inference on the shared [LlmEngine], every prompt gets a session of its own. */
 class InferenceModel private constructor(context: Context) {
-    private var llmInference: LlmInference
-    private val modelPath: String = context.filesDir.absolutePath + "/llm/model.bin"
-    //private val modelPath: String = "/data/local/tmp/llm/model.task"
-
-    private val modelExists: Boolean
-        get() = File(modelPath).exists()
+    private val context: Context = context.applicationContext
+    private val sessionOptions = LlmInferenceSession.LlmInferenceSessionOptions.builder().build()
 
     private val _partialResults = MutableSharedFlow<Pair<String, Boolean>>(
         extraBufferCapacity = 1,
         onBufferOverflow = BufferOverflow.DROP_OLDEST
     )
 
-    init {
-        if (!modelExists) {
-            throw IllegalArgumentException("Model not found at path: $modelPath")
-        }
-
-        val options = LlmInference.LlmInferenceOptions.builder()
-            .setModelPath(modelPath)
-            .setMaxTokens(1024)
-            .build()
-
-            llmInference = LlmInference.createFromOptions(context, options)
-    }
-
     fun generateResponse(prompt: String): String {
         val gemmaPrompt = "$prompt<start_of_turn>model\n"
-        return llmInference.generateResponse(gemmaPrompt)
+        val session = LlmEngine.openSession(context, sessionOptions)
+        try {
+            return LlmEngine.exclusiveBlocking {
+                session.addQueryChunk(gemmaPrompt)
+                session.generateResponse()
+            }
+        } finally {
+            LlmEngine.closeSession(session)
+        }
     }
 
     companion object {
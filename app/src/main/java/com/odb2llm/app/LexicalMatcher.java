@@ -0,0 +1,156 @@
+package com.odb2llm.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * keyword matcher in front of the embeddings, resolves queries like "engine rpm" or "read fault codes"
+ *
+ * tokens of the intent phrases are indexed per code and weighted by rarity (idf), synonyms are folded
+ * onto one token. a query is only resolved if every content token is known, no question word asks
+ * for an explanation and one code clearly wins; everything else is escalated to the embeddings.
+ */
+final class LexicalMatcher {
+
+    static final double MIN_CONFIDENCE = 0.8;   // share of the query weight covered by the best code
+    static final double MIN_MARGIN = 0.1;       // confidence lead over the second best code
+
+    private static final Set<String> STOPWORDS = new HashSet<>(Arrays.asList(
+            "a", "an", "the", "is", "are", "my", "me", "of", "for", "in", "on", "to", "s", "what", "whats",
+            "read", "get", "show", "tell", "give", "check", "current", "currently", "now", "please", "value", "much", "many"));
+
+    // queries asking for more than a value go to the embeddings and the LLM
+    private static final Set<String> ESCALATE = new HashSet<>(Arrays.asList(
+            "why", "how", "explain", "should", "mean", "means", "meaning", "cause", "causes", "fix", "important",
+            "normal", "safe", "bad", "good", "wrong", "too"));
+
+    // context words, a code without them still gets most of their weight ("car rpm", "engine speed")
+    private static final Set<String> OPTIONAL = new HashSet<>(Arrays.asList("vehicle", "engine"));
+    private static final double OPTIONAL_CREDIT = 0.7;
+
+    private static final Map<String, String> SYNONYMS = new HashMap<>();
+
+    static {
+        synonyms("rpm", "rpms", "revs", "revolutions", "tach", "tachometer");
+        synonyms("speed", "velocity", "speedometer", "mph", "kmh");
+        synonyms("vehicle", "car", "automobile");
+        synonyms("temperature", "temp", "temps", "temperatures", "hot");
+        synonyms("dtc", "dtcs", "code", "codes", "fault", "faults", "error", "errors", "trouble");
+        synonyms("mil", "malfunction", "warning");
+        synonyms("o2", "oxygen", "lambda");
+        synonyms("maf", "mass");
+        synonyms("throttle", "accelerator", "pedal");
+        synonyms("1", "one", "first");
+        synonyms("2", "two", "second");
+    }
+
+    private static void synonyms(String canonical, String... words) {
+        for (String word : words)
+            SYNONYMS.put(word, canonical);
+    }
+
+    private final String[] codes;                                   // distinct codes
+    private final List<Set<String>> tokensPerCode = new ArrayList<>();
+    private final Map<String, Double> idf = new HashMap<>();
+
+    /**
+     * @param codes   code of each phrase, e.g. "010C"
+     * @param phrases intent phrases, same order as codes
+     */
+    LexicalMatcher(List<String> codes, List<String> phrases) {
+        Map<String, Integer> codeIndex = new HashMap<>();
+        List<String> distinct = new ArrayList<>();
+        for (int i = 0; i < phrases.size(); i++) {
+            Integer index = codeIndex.get(codes.get(i));
+            if (index == null) {
+                index = distinct.size();
+                codeIndex.put(codes.get(i), index);
+                distinct.add(codes.get(i));
+                tokensPerCode.add(new HashSet<>());
+            }
+            tokensPerCode.get(index).addAll(tokens(phrases.get(i)));
+        }
+        this.codes = distinct.toArray(new String[0]);
+        Map<String, Integer> df = new HashMap<>();
+        for (Set<String> tokens : tokensPerCode)
+            for (String token : tokens)
+                df.put(token, df.getOrDefault(token, 0) + 1);
+        for (Map.Entry<String, Integer> e : df.entrySet())
+            idf.put(e.getKey(), Math.log(1 + (double) this.codes.length / e.getValue()));
+    }
+
+    /**
+     * content tokens, lower case, synonyms folded, stop words removed, without duplicates
+     */
+    static Set<String> tokens(String text) {
+        Set<String> tokens = new HashSet<>();
+        String s = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= s.length(); i++) {
+            boolean word = i < s.length() && Character.isLetterOrDigit(s.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                String token = s.substring(start, i);
+                String canonical = SYNONYMS.get(token);
+                if (canonical != null)
+                    token = canonical;
+                if (!STOPWORDS.contains(token))
+                    tokens.add(token);
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * @return code, null if the query has to be escalated
+     */
+    String match(String query) {
+        Set<String> tokens = tokens(query);
+        if (tokens.isEmpty())
+            return null;
+        double total = 0;
+        for (String token : tokens) {
+            if (ESCALATE.contains(token))
+                return null;
+            Double weight = idf.get(token);
+            if (weight == null)
+                return null; // unknown word, the phrases don't cover this query
+            total += weight;
+        }
+        int best = -1;
+        double bestConfidence = 0, secondConfidence = 0;
+        for (int c = 0; c < codes.length; c++) {
+            Set<String> codeTokens = tokensPerCode.get(c);
+            double score = 0, context = 0;
+            for (String token : tokens) {
+                if (codeTokens.contains(token)) {
+                    if (!OPTIONAL.contains(token))
+                        score += idf.get(token);
+                    else
+                        context += idf.get(token);
+                } else if (OPTIONAL.contains(token)) {
+                    context += OPTIONAL_CREDIT * idf.get(token);
+                }
+            }
+            double confidence = score > 0 ? (score + context) / total : 0;
+            if (confidence > bestConfidence) {
+                secondConfidence = bestConfidence;
+                bestConfidence = confidence;
+                best = c;
+            } else if (confidence > secondConfidence) {
+                secondConfidence = confidence;
+            }
+        }
+        if (best < 0 || bestConfidence < MIN_CONFIDENCE || bestConfidence - secondConfidence < MIN_MARGIN)
+            return null;
+        return codes[best];
+    }
+}
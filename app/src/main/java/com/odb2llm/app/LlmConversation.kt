@@ -0,0 +1,194 @@
+package com.odb2llm.app
+
+import android.content.Context
+import android.util.Log
+import com.google.common.util.concurrent.MoreExecutors
+import com.google.mediapipe.tasks.genai.llminference.LlmInferenceSession
+import java.util.concurrent.ExecutionException
+import kotlin.coroutines.cancellation.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
+
+/**
+ * One conversation on a long-lived [LlmInferenceSession]. The preamble is added once per session and every
+ * turn only appends its own tokens, so the KV cache of the preamble and of earlier turns is reused and a
+ * follow-up question only prefills the new turn.
+ *
+ * The session holds at most [maxTokens] (prompt and answers together, the limit the engine was created
+ * with). A turn that would not leave [responseReserve] tokens for its answer starts a fresh session.
+ * Context chunks already added by an earlier turn of the session are not added again.
+ * When [LlmEngine] wants to unload, an idle session is closed and the next turn starts over.
+ *
+ * Cancelling the calling coroutine stops the generation mid-stream. The partial answer stays in the
+ * session, the next turn closes it like a finished one.
+ */
+class LlmConversation(
+    private val context: Context,
+    private val sessionOptions: LlmInferenceSession.LlmInferenceSessionOptions,
+    private val preamble: String,
+    private val maxTokens: Int = LlmEngine.MAX_TOKENS,
+    private val responseReserve: Int = DEFAULT_RESPONSE_RESERVE,
+) : AutoCloseable, LlmEngine.Holder {
+
+    companion object {
+        const val DEFAULT_RESPONSE_RESERVE = 256
+        private const val END_OF_TURN = "<end_of_turn>\n"
+        private const val CANCEL_TIMEOUT_MILLIS = 5_000L
+    }
+
+    private val mutex = Mutex()
+    private var session: LlmInferenceSession? = null
+    @Volatile private var resetRequested = false
+    @Volatile private var closed = false
+
+    /** Tokens in the current session, preamble included. */
+    @Volatile var usedTokens = 0
+        private set
+    @Volatile var turns = 0
+        private set
+
+    // context chunks in the current session, and how many of the chunks asked for were in it already
+    private val chunksInSession = HashSet<String>()
+    private var chunksAsked = 0
+    private var chunksReused = 0
+
+    init {
+        LlmEngine.addHolder(this)
+    }
+
+    /**
+     * Generate the answer to [userText]. [listener] gets the partial results, turns are serialized.
+     *
+     * @throws IllegalArgumentException if the turn doesn't fit even into a fresh session
+     * @throws CancellationException if the caller was cancelled, after the engine stopped generating
+     */
+    suspend fun generate(userText: String, listener: (String, Boolean) -> Unit): String =
+        generate(emptyList(), listener) { userText }
+
+    /**
+     * Generate the answer to the text [userText] makes of the [chunks] that are not in the session yet.
+     * The chunks are remembered with the session, a follow-up question on the same topic only adds its
+     * question.
+     */
+    suspend fun generate(
+        chunks: List<String>,
+        listener: (String, Boolean) -> Unit,
+        userText: (List<String>) -> String,
+    ): String = mutex.withLock { LlmEngine.exclusive { generateLocked(chunks, listener, userText) } }
+
+    private suspend fun generateLocked(
+        chunks: List<String>,
+        listener: (String, Boolean) -> Unit,
+        userText: (List<String>) -> String,
+    ): String {
+        var current = session
+        if (current == null || resetRequested)
+            current = newSession()
+        var newChunks = chunks.filter { it !in chunksInSession }
+        var turn = turnText(userText(newChunks))
+        var turnTokens = current.sizeInTokens(turn)
+        if (usedTokens + turnTokens + responseReserve > maxTokens && turns > 0) {
+            Log.d(OBDUtils.TAG, "conversation: $usedTokens of $maxTokens tokens used, starting a new session")
+            current = newSession()
+            newChunks = chunks
+            turn = turnText(userText(newChunks))
+            turnTokens = current.sizeInTokens(turn)
+        }
+        require(usedTokens + turnTokens + responseReserve <= maxTokens) {
+            "turn of $turnTokens tokens doesn't fit into $maxTokens"
+        }
+        current.addQueryChunk(turn)
+        if (chunks.isNotEmpty()) {
+            chunksInSession.addAll(newChunks)
+            chunksAsked += chunks.size
+            chunksReused += chunks.size - newChunks.size
+            Log.d(OBDUtils.TAG, "conversation: ${chunks.size - newChunks.size} of ${chunks.size} chunks already " +
+                    "in the session, ${chunksReused * 100 / chunksAsked}% reused overall")
+        }
+        LlmEngine.touch()
+        val deltas = TokenDeltas(TokenDeltas.MEDIAPIPE)
+        val finished = CompletableDeferred<Unit>()
+        val future = current.generateResponseAsync { partial, done ->
+            deltas.delta(partial)
+            listener(partial, done)
+        }
+        // not future.await(), cancelling the future wouldn't stop the engine
+        future.addListener({ finished.complete(Unit) }, MoreExecutors.directExecutor())
+        return try {
+            try {
+                finished.await()
+            } catch (e: CancellationException) {
+                current.cancelGenerateResponseAsync()
+                withContext(NonCancellable) {
+                    // the session takes no new chunk before the engine stopped
+                    if (withTimeoutOrNull(CANCEL_TIMEOUT_MILLIS) { finished.await() } == null)
+                        resetRequested = true
+                }
+                usedTokens += turnTokens + current.sizeInTokens(deltas.text())
+                turns++
+                throw e
+            }
+            val response = try {
+                future.get()
+            } catch (e: ExecutionException) {
+                throw e.cause ?: e
+            }
+            usedTokens += turnTokens + current.sizeInTokens(response)
+            turns++
+            response
+        } finally {
+            if (closed)
+                closeSession()
+        }
+    }
+
+    /** Start over with only the preamble, takes effect with the next turn. */
+    fun reset() {
+        resetRequested = true
+    }
+
+    override fun releaseSession() {
+        if (!mutex.tryLock())
+            return // generating, not idle
+        try {
+            closeSession()
+        } finally {
+            mutex.unlock()
+        }
+    }
+
+    /** The session is closed now or, if a turn is running, when it is done. */
+    override fun close() {
+        closed = true
+        LlmEngine.removeHolder(this)
+        releaseSession()
+    }
+
+    private fun closeSession() {
+        session?.let { LlmEngine.closeSession(it) }
+        session = null
+        chunksInSession.clear()
+    }
+
+    private fun turnText(userText: String): String {
+        // the previous answer is still open in the session
+        val close = if (turns > 0) END_OF_TURN else ""
+        return "$close<start_of_turn>user\n$userText<end_of_turn>\n<start_of_turn>model\n"
+    }
+
+    private fun newSession(): LlmInferenceSession {
+        closeSession()
+        val created = LlmEngine.openSession(context, sessionOptions)
+        created.addQueryChunk(preamble)
+        session = created
+        usedTokens = created.sizeInTokens(preamble)
+        turns = 0
+        chunksInSession.clear()
+        resetRequested = false
+        return created
+    }
+}
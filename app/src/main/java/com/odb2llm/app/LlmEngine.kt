@@ -0,0 +1,188 @@
+package com.odb2llm.app
+
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.content.res.Configuration
+import android.util.Log
+import com.google.mediapipe.tasks.genai.llminference.LlmInference
+import com.google.mediapipe.tasks.genai.llminference.LlmInferenceSession
+import java.io.File
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+
+/**
+ * The one Gemma model of the process, shared by the RAG conversation and direct inference callers.
+ *
+ * Sessions are reference counted. The model is loaded with the first session and unloaded once no session is
+ * open and it was idle for [IDLE_MILLIS] or the system runs low on memory. Long-lived session owners register
+ * a [Holder] and are asked to close their sessions in both cases. The session of [warmUp] is kept open until
+ * the first real session is opened, the warmed up model is not unloaded as idle before anyone used it.
+ * Sessions generate one at a time, see [exclusive].
+ */
+object LlmEngine : ComponentCallbacks2 {
+
+    const val MODEL_FILENAME = "model.task"
+    // limit for prompt and answers together, per session
+    const val MAX_TOKENS = 4096
+    private const val IDLE_MILLIS = 120_000L
+    private const val WARM_UP_PROMPT = "<start_of_turn>user\nReply with OK.<end_of_turn>\n<start_of_turn>model\n"
+
+    /** Owner of a session kept open between requests. */
+    fun interface Holder {
+        /** Close the session if it's not in use, it is opened again on demand. */
+        fun releaseSession()
+    }
+
+    private val holders = CopyOnWriteArrayList<Holder>()
+    private val scheduler = Executors.newSingleThreadScheduledExecutor()
+    private var llmInference: LlmInference? = null
+    private var warmSession: LlmInferenceSession? = null
+    // one generation at a time on the shared engine, the warm-up included
+    private val generation = Mutex()
+    private var sessions = 0
+    private var lastUse = 0L
+    private var idleCheck: ScheduledFuture<*>? = null
+    private var callbacksRegistered = false
+
+    val isLoaded: Boolean
+        @Synchronized get() = llmInference != null
+
+    /**
+     * Load the model and run a tiny inference, so the first real question doesn't pay for shader compilation
+     * and buffer allocation. Its session holds the model until the first chat opens a session.
+     */
+    fun warmUp(context: Context) {
+        val session = openSession(context, LlmInferenceSession.LlmInferenceSessionOptions.builder().setTopK(1).build())
+        try {
+            exclusiveBlocking {
+                session.addQueryChunk(WARM_UP_PROMPT)
+                session.generateResponse()
+            }
+        } catch (e: Exception) {
+            closeSession(session)
+            throw e
+        }
+        synchronized(this) {
+            if (warmSession == null && sessions == 1)
+                warmSession = session
+            else
+                closeSession(session) // a chat opened its session meanwhile
+        }
+    }
+
+    /** Run [block], which prefills and generates on a session, while no other session generates. */
+    suspend fun <T> exclusive(block: suspend () -> T): T = generation.withLock { block() }
+
+    /** [exclusive] for callers on a thread of their own. */
+    fun <T> exclusiveBlocking(block: () -> T): T = runBlocking { generation.withLock { block() } }
+
+    @Synchronized
+    fun openSession(context: Context, options: LlmInferenceSession.LlmInferenceSessionOptions): LlmInferenceSession {
+        val session = LlmInferenceSession.createFromOptions(engine(context), options)
+        sessions++
+        releaseWarmSession() // the first chat holds the model now
+        touch()
+        return session
+    }
+
+    @Synchronized
+    private fun releaseWarmSession() {
+        warmSession?.let {
+            warmSession = null
+            closeSession(it)
+        }
+    }
+
+    @Synchronized
+    fun closeSession(session: LlmInferenceSession) {
+        session.close()
+        sessions--
+        touch()
+    }
+
+    /** Mark the model as used, postpones the idle unload. */
+    @Synchronized
+    fun touch() {
+        lastUse = System.currentTimeMillis()
+        idleCheck?.cancel(false)
+        idleCheck = scheduler.schedule({ onIdle() }, IDLE_MILLIS, TimeUnit.MILLISECONDS)
+    }
+
+    fun addHolder(holder: Holder) {
+        holders.add(holder)
+    }
+
+    fun removeHolder(holder: Holder) {
+        holders.remove(holder)
+    }
+
+    private fun engine(context: Context): LlmInference {
+        llmInference?.let { return it }
+        val modelPath = File(context.filesDir, MODEL_FILENAME)
+        require(modelPath.exists()) { "Model not found at path: $modelPath" }
+        val options = LlmInference.LlmInferenceOptions.builder()
+            .setModelPath(modelPath.absolutePath)
+            .setPreferredBackend(LlmInference.Backend.GPU)
+            .setMaxTokens(MAX_TOKENS)
+            .build()
+        val start = System.nanoTime()
+        val created = LlmInference.createFromOptions(context.applicationContext, options)
+        Log.d(OBDUtils.TAG, "llm engine: loaded in ${(System.nanoTime() - start) / 1_000_000} ms")
+        if (!callbacksRegistered) {
+            context.applicationContext.registerComponentCallbacks(this)
+            callbacksRegistered = true
+        }
+        llmInference = created
+        return created
+    }
+
+    private fun onIdle() {
+        synchronized(this) {
+            if (llmInference == null || System.currentTimeMillis() - lastUse < IDLE_MILLIS)
+                return
+            if (warmSession != null)
+                return // warmed up for the first chat, not used yet
+        }
+        unload("idle")
+    }
+
+    /** Ask the holders to let go of their sessions, then unload if none is left open. */
+    private fun unload(reason: String) {
+        for (holder in holders)
+            holder.releaseSession()
+        synchronized(this) {
+            releaseWarmSession()
+            val engine = llmInference ?: return
+            if (sessions > 0) {
+                Log.d(OBDUtils.TAG, "llm engine: $reason, $sessions sessions still open")
+                return
+            }
+            engine.close()
+            llmInference = null
+            idleCheck?.cancel(false)
+            idleCheck = null
+            Log.d(OBDUtils.TAG, "llm engine: unloaded, $reason")
+        }
+    }
+
+    @Suppress("DEPRECATION")
+    override fun onTrimMemory(level: Int) {
+        if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW ||
+            level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL ||
+            level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND)
+            unload("trim memory level $level")
+    }
+
+    @Deprecated("Deprecated in Java")
+    override fun onLowMemory() {
+        unload("low memory")
+    }
+
+    override fun onConfigurationChanged(newConfig: Configuration) {
+    }
+}
@@ -0,0 +1,137 @@
+package com.odb2llm.app
+
+import android.os.SystemClock
+import android.util.Log
+import java.util.Locale
+import java.util.PriorityQueue
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
+
+/**
+ * Runs LLM requests one at a time, user questions before background commentary.
+ *
+ * A new question supersedes the questions still queued and cancels the running one mid-stream, its answer
+ * is obsolete. A question also preempts running commentary. A prompt equal to a queued or running one is
+ * coalesced into it. At most [MAX_QUEUED_COMMENTARY] commentaries wait, the oldest is dropped.
+ */
+class LlmScheduler(
+    private val scope: CoroutineScope,
+    private val dispatcher: CoroutineDispatcher,
+    private val run: suspend (Request) -> Unit,
+) {
+
+    enum class Priority { USER, COMMENTARY }    // ordinal order is run order
+
+    class Request internal constructor(val prompt: String, val priority: Priority, internal val seq: Long) {
+        internal val key = prompt.trim().lowercase(Locale.ROOT)
+        internal val enqueuedAt = SystemClock.elapsedRealtime()
+        internal var job: Job? = null
+    }
+
+    /** Snapshot of the queue and counters since start, wait is from submit to start. */
+    data class Metrics(
+        val queueDepth: Int,
+        val running: Boolean,
+        val started: Long,
+        val completed: Long,
+        val cancelled: Long,
+        val coalesced: Long,
+        val avgWaitMillis: Long,
+        val maxWaitMillis: Long,
+    )
+
+    companion object {
+        const val MAX_QUEUED_COMMENTARY = 2
+    }
+
+    private val queue = PriorityQueue<Request>(compareBy<Request>({ it.priority.ordinal }, { it.seq }))
+    private var running: Request? = null
+    private var seq = 0L
+    private var started = 0L
+    private var completed = 0L
+    private var cancelled = 0L
+    private var coalesced = 0L
+    private var totalWaitMillis = 0L
+    private var maxWaitMillis = 0L
+
+    /** @return the queued request, null if the prompt was coalesced into a queued or running one */
+    @Synchronized
+    fun submit(prompt: String, priority: Priority): Request? {
+        val request = Request(prompt, priority, seq++)
+        val current = running
+        if (current != null && current.key == request.key) {
+            coalesced++
+            return null
+        }
+        val same = queue.firstOrNull { it.key == request.key }
+        if (same != null) {
+            coalesced++
+            if (same.priority <= priority)
+                return null
+            queue.remove(same) // asked again with a higher priority
+        }
+        if (priority == Priority.USER) {
+            val superseded = queue.filter { it.priority == Priority.USER }
+            queue.removeAll(superseded)
+            cancelled += superseded.size
+            current?.job?.cancel() // obsolete question or commentary, stops mid-stream
+        } else {
+            val waiting = queue.filter { it.priority == Priority.COMMENTARY }
+            if (waiting.size >= MAX_QUEUED_COMMENTARY) {
+                queue.remove(waiting.minBy { it.seq })
+                cancelled++
+            }
+        }
+        queue.add(request)
+        startNext()
+        return request
+    }
+
+    /** Drops the queued requests and cancels the running one. */
+    @Synchronized
+    fun cancelAll() {
+        cancelled += queue.size
+        queue.clear()
+        running?.job?.cancel()
+    }
+
+    @Synchronized
+    fun metrics(): Metrics = Metrics(
+        queueDepth = queue.size,
+        running = running != null,
+        started = started,
+        completed = completed,
+        cancelled = cancelled,
+        coalesced = coalesced,
+        avgWaitMillis = if (started == 0L) 0 else totalWaitMillis / started,
+        maxWaitMillis = maxWaitMillis,
+    )
+
+    private fun startNext() {
+        if (running != null)
+            return
+        val next = queue.poll() ?: return
+        running = next
+        val wait = SystemClock.elapsedRealtime() - next.enqueuedAt
+        started++
+        totalWaitMillis += wait
+        maxWaitMillis = maxOf(maxWaitMillis, wait)
+        Log.d(OBDUtils.TAG, "llm: ${next.priority} started after $wait ms, ${queue.size} queued")
+        // started after the job is set, finished() must see it even if run() completes right away
+        val job = scope.launch(dispatcher, start = CoroutineStart.LAZY) { run(next) }
+        next.job = job
+        job.invokeOnCompletion { finished(next) } // also when cancelled before it started
+        job.start()
+    }
+
+    @Synchronized
+    private fun finished(request: Request) {
+        if (request.job?.isCancelled == true) cancelled++ else completed++
+        if (running === request)
+            running = null
+        startNext()
+    }
+}
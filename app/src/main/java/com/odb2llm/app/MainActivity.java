@@ -17,6 +17,7 @@ import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity implements LifecycleObserver, FragmentManager.OnBackStackChangedListener {
     private ChatViewModel chatViewModel;
+    private TextEmbeddingsViewModel textEmbeddingsViewModel;
     private View fragmentContainer;
     private ProgressBar progressBar;
     private TextView progressText;
@@ -42,6 +43,10 @@ public class MainActivity extends AppCompatActivity implements LifecycleObserver
         progressText.setVisibility(View.VISIBLE);
         fragmentContainer.setVisibility(View.GONE);
 
+        // first startup stage, the intent model ships with the app and doesn't wait for the download
+        textEmbeddingsViewModel = new ViewModelProvider(this).get(TextEmbeddingsViewModel.class);
+        textEmbeddingsViewModel.setUpMLModel(getApplicationContext());
+
         // Start downloading models
         new ModelDownloader(this, executor, this::onModelDownloadStatus).downloadModels();
     }
@@ -66,20 +71,19 @@ public class MainActivity extends AppCompatActivity implements LifecycleObserver
             if ("Download complete".equals(status)) {
                 progressText.setText("Loading chatOBD2..Almost there.. ");
 
+                // RAG memory and LLM load in the background, OBD queries work before they are done
                 chatViewModel = new ViewModelProvider(this).get(ChatViewModel.class);
-                chatViewModel.memorizeChunksFromJava("sample_context.txt", () -> {
-                    runOnUiThread(() -> {
-                        progressBar.setVisibility(View.GONE);
-                        progressText.setVisibility(View.GONE);
-                        fragmentContainer.setVisibility(View.VISIBLE);
-
-                        if (getSupportFragmentManager().findFragmentByTag("devices") == null) {
-                            getSupportFragmentManager().beginTransaction()
-                                    .add(R.id.fragment, new DevicesFragment(), "devices")
-                                    .commit();
-                        }
-                    });
-                });
+                chatViewModel.loadInBackground("sample_context.txt");
+
+                progressBar.setVisibility(View.GONE);
+                progressText.setVisibility(View.GONE);
+                fragmentContainer.setVisibility(View.VISIBLE);
+
+                if (getSupportFragmentManager().findFragmentByTag("devices") == null) {
+                    getSupportFragmentManager().beginTransaction()
+                            .add(R.id.fragment, new DevicesFragment(), "devices")
+                            .commit();
+                }
             }
         });
     }
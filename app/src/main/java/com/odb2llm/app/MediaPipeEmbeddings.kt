@@ -1,19 +1,18 @@
 package com.odb2llm.app
 
 import android.content.Context
+import android.os.SystemClock
+import android.util.Log
 import com.google.mediapipe.tasks.core.BaseOptions
 import com.google.mediapipe.tasks.core.Delegate
 import com.google.mediapipe.tasks.text.textembedder.TextEmbedder
-import kotlin.coroutines.resume
-import kotlin.coroutines.resumeWithException
-import kotlinx.coroutines.suspendCancellableCoroutine
+import java.io.File
+import java.io.IOException
 import java.util.Locale
 
 data class SentenceSimilarity(
     val mainSentence: String,
     val sentence: String,
-    val mainSentenceEmbeddings: String,
-    val sentenceEmbeddings: String,
     val resultSimilarity: Double,
 )
 
@@ -22,69 +21,93 @@ class MediaPipeEmbeddings {
     companion object {
         const val MODEL_NAME = "universal_sentence_encoder.tflite"
         const val MIN_SIMILARITY_VALUE = 0.95
+        private const val INDEX_FILE = "phrase_index.bin"
+        private const val WARM_UP_SENTENCE = "read engine rpm"
     }
 
     private lateinit var textEmbedder: TextEmbedder
+    @Volatile private var phraseIndex: PhraseIndex? = null
+    private var phrases: List<String> = emptyList()
+    private var scores = FloatArray(0)
 
-    suspend fun setUpMLModel(context: Context) {
-        suspendCancellableCoroutine { continuation ->
+    val isIndexReady: Boolean
+        get() = phraseIndex != null
+
+    /**
+     * blocking, run as a startup stage
+     */
+    fun setUpMLModel(context: Context) {
+        val baseOptions = BaseOptions
+            .builder()
+            .setModelAssetPath(MODEL_NAME)
+            .setDelegate(Delegate.CPU)
+            .build()
+        val optionsBuilder =
+            TextEmbedder.TextEmbedderOptions.builder().setBaseOptions(baseOptions)
+        val options = optionsBuilder.build()
+        textEmbedder = TextEmbedder.createFromOptions(context, options)
+        getEmbeddings(WARM_UP_SENTENCE) // first inference allocates the interpreter buffers
+    }
+
+    /**
+     * embed the phrases once, or load them from the cache if neither model nor phrases changed
+     */
+    fun buildIndex(context: Context, sentences: List<String>) {
+        val normalized = sentences.map { it.lowercase(Locale.getDefault()) }
+        val file = File(context.cacheDir, INDEX_FILE)
+        val key = context.assets.open(MODEL_NAME).use { PhraseIndex.key(it, normalized) }
+        var index = try {
+            PhraseIndex.load(file, key)
+        } catch (e: IOException) {
+            Log.w(OBDUtils.TAG, "phrase index unreadable, rebuilding", e)
+            null
+        }
+        if (index == null) {
+            val start = SystemClock.elapsedRealtime()
+            var built: PhraseIndex? = null
+            normalized.forEachIndexed { i, sentence ->
+                val embedding = getEmbeddings(sentence).floatEmbedding()
+                val target = built ?: PhraseIndex(key, normalized.size, embedding.size).also { built = it }
+                target.set(i, embedding)
+            }
+            index = built ?: PhraseIndex(key, 0, 1)
+            Log.d(OBDUtils.TAG, "embedded ${normalized.size} phrases in ${SystemClock.elapsedRealtime() - start} ms")
             try {
-                val baseOptions = BaseOptions
-                    .builder()
-                    .setModelAssetPath(MODEL_NAME)
-                    .setDelegate(Delegate.CPU)
-                    .build()
-                val optionsBuilder =
-                    TextEmbedder.TextEmbedderOptions.builder().setBaseOptions(baseOptions)
-                val options = optionsBuilder.build()
-                textEmbedder = TextEmbedder.createFromOptions(context, options)
-                continuation.resume(true)
-            } catch (e: Exception) {
-                continuation.resumeWithException(e)
+                index.save(file)
+            } catch (e: IOException) {
+                Log.w(OBDUtils.TAG, "phrase index not saved", e)
             }
         }
+        phrases = sentences
+        scores = FloatArray(sentences.size)
+        phraseIndex = index // publish last, getSimilarities reads it first
     }
 
-    suspend fun getSimilarities(
-        mainSentence: String,
-        sentences: List<String>
-    ): List<SentenceSimilarity> {
-        return suspendCancellableCoroutine { continuation ->
-            try {
-                textEmbedder.let {
-                    val normalizedMainSentence = mainSentence.lowercase(Locale.getDefault())
-                    val mainSentenceEmbed = getEmbeddings(normalizedMainSentence)
-
-                    val similaritySentences: MutableList<SentenceSimilarity> =
-                        ArrayList<SentenceSimilarity>().apply {
-                            sentences.forEach {
-                                val normalizedSentence = it.lowercase(Locale.getDefault()) // Normalize each sentence
-                                val sentenceEmbed = getEmbeddings(normalizedSentence) // Use the normalized version
-
-                                val similarity =
-                                    TextEmbedder.cosineSimilarity(mainSentenceEmbed, sentenceEmbed)
+    /**
+     * one embedding of mainSentence and a dot product scan over the phrase index
+     */
+    @Synchronized
+    fun getSimilarities(mainSentence: String): List<SentenceSimilarity> {
+        val index = phraseIndex ?: return emptyList()
+        val normalizedMainSentence = mainSentence.lowercase(Locale.getDefault())
+        val mainSentenceEmbed = getEmbeddings(normalizedMainSentence).floatEmbedding()
+        index.scan(mainSentenceEmbed, scores)
 
-                                if (similarity > MIN_SIMILARITY_VALUE) {
-                                    this.add(
-                                        SentenceSimilarity(
-                                            mainSentence = mainSentence,
-                                            sentence = it,
-                                            mainSentenceEmbeddings = mainSentenceEmbed.toString(),
-                                            sentenceEmbeddings = sentenceEmbed.toString(),
-                                            resultSimilarity = similarity
-                                        )
-                                    )
-                                }
-                            }
-                        }
-
-                    similaritySentences.sortByDescending { it.resultSimilarity }
-                    continuation.resume(similaritySentences)
-                }
-            } catch (e: Exception) {
-                continuation.resumeWithException(e)
+        val similaritySentences: MutableList<SentenceSimilarity> = ArrayList()
+        for (i in phrases.indices) {
+            if (scores[i] > MIN_SIMILARITY_VALUE) {
+                similaritySentences.add(
+                    SentenceSimilarity(
+                        mainSentence = mainSentence,
+                        sentence = phrases[i],
+                        resultSimilarity = scores[i].toDouble()
+                    )
+                )
             }
         }
+
+        similaritySentences.sortByDescending { it.resultSimilarity }
+        return similaritySentences
     }
 
     private fun getEmbeddings(sentence: String) = textEmbedder
@@ -1,27 +1,246 @@
 package com.odb2llm.app;
 
-import android.annotation.SuppressLint;
-import android.util.Log;
-
 public class OBDUtils {
 
     public static final String TAG = "OBD2llm";
 
+    private static final int VIN_LENGTH = 17;
+    private static final byte[] PROMPT = {'>'};
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        for (int i = 0; i < HEX_VALUES.length; i++)
+            HEX_VALUES[i] = (byte) Character.digit(i, 16);
+    }
+
+    /**
+     * text api, allocates per call. the raw adapter output is framed first, use
+     * {@link #decode(byte[], int, int, ObdReading)} on the frames of {@link Elm327Framer} on the reader path
+     */
     public static String decodeOBDResponse(String response) {
-        response = response.replaceAll("[^0-9A-Fa-f]", "");
+        ObdReading reading = new ObdReading();
+        String[] text = {null};
+        Elm327Framer framer = new Elm327Framer((buf, off, len) -> {
+            if (text[0] == null && decode(buf, off, len, reading))
+                text[0] = format(reading);
+        });
+        byte[] data = response.getBytes();
+        framer.feed(data, 0, data.length);
+        framer.feed(PROMPT, 0, PROMPT.length); // the response may lack the prompt
+        return text[0] != null ? text[0] : "no match";
+    }
 
-        if (response.length() % 2 != 0) {
-            return "Invalid response";
+    /**
+     * parse ASCII hex of a response framed by {@link Elm327Framer} directly into reading, without intermediate
+     * strings or arrays. lines that are not a response (echo, SEARCHING..., NO DATA, ...) are skipped
+     * supported are Mode 01 PIDs from {@link PidRegistry}, Mode 03 DTC lists and the Mode 09 VIN
+     *
+     * @return true if a supported response was found, reading is undefined otherwise
+     */
+    static boolean decode(byte[] buf, int off, int len, ObdReading reading) {
+        int end = off + len;
+        int pos = off;
+        while ((pos = nextMessage(buf, pos, end, reading)) >= 0)
+            if (evaluate(reading))
+                return true;
+        reading.length = 0;
+        return false;
+    }
+
+    /**
+     * like {@link #decode(byte[], int, int, ObdReading)}, but splits multi-PID responses (e.g. to 010C0D05)
+     * and responses from several ECUs into one reading per value
+     *
+     * @return number of readings filled, starting at readings[0]
+     */
+    static int decodeAll(byte[] buf, int off, int len, ObdReading[] readings) {
+        int end = off + len;
+        int pos = off;
+        int n = 0;
+        while (n < readings.length && (pos = nextMessage(buf, pos, end, readings[n])) >= 0)
+            n += split(readings, n);
+        return n;
+    }
+
+    /**
+     * collect the next response line (first byte has the 0x40 response bit) into r.bytes
+     * ISO-TP multi-frame responses are expected joined into one line, as {@link Elm327Framer} emits them
+     *
+     * @return position to continue scanning from, -1 if there is no further message
+     */
+    private static int nextMessage(byte[] buf, int pos, int end, ObdReading r) {
+        int[] bytes = r.bytes;
+        int count = 0;
+        int nibble = -1;
+        boolean valid = true;
+        for (int i = pos; i <= end; i++) {
+            int c = i < end ? buf[i] & 0xff : '\r';
+            if (c == '\r' || c == '\n' || c == '>') {
+                if (valid && nibble < 0 && count >= 2 && (bytes[0] & 0x40) != 0) {
+                    r.length = count;
+                    return i;
+                }
+                count = 0;
+                nibble = -1;
+                valid = true;
+            } else if (c == ' ' || !valid) {
+                // ELM327 separates bytes with spaces (ATS1)
+            } else {
+                int digit = c < 128 ? HEX_VALUES[c] : -1;
+                if (digit < 0) {
+                    valid = false;
+                } else if (nibble < 0) {
+                    nibble = digit;
+                } else if (count == ObdReading.MAX_BYTES) {
+                    valid = false;
+                } else {
+                    bytes[count++] = (nibble << 4) | digit;
+                    nibble = -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * split Mode 01 message in readings[n] into one reading per PID, using the PID lengths from the registry
+     * an unregistered PID has no known length, the rest of the message is resynchronized at the first
+     * position from which the registered PIDs exactly fill it
+     *
+     * @return number of readings filled, starting at readings[n]
+     */
+    private static int split(ObdReading[] readings, int n) {
+        ObdReading message = readings[n];
+        int[] src = message.bytes;
+        int length = message.length;
+        if (src[0] != 0x41)
+            return evaluate(message) ? 1 : 0;
+        int produced = 0;
+        int pos = 1;
+        while (pos < length && n + produced < readings.length) {
+            PidRegistry.Pid pid = PidRegistry.mode01(src[pos]);
+            if (pid == null) {
+                pos = resync(src, pos + 1, length);
+                if (pos < 0)
+                    break;
+                continue;
+            }
+            if (pos + 1 + pid.length > length)
+                break; // truncated
+            ObdReading r = readings[n + produced];
+            if (pos != 1) { // first value is already in place
+                r.bytes[0] = src[0];
+                System.arraycopy(src, pos, r.bytes, 1, 1 + pid.length);
+            }
+            r.length = 2 + pid.length;
+            evaluate(r);
+            produced++;
+            pos += 1 + pid.length;
         }
+        return produced;
+    }
 
-        byte[] dataBytes = hexStringToByteArray(response);
-        if (dataBytes.length < 2) {
-            return "no pid";
+    /**
+     * @return first position at or after from where registered PIDs end exactly at length, -1 if there is none
+     */
+    private static int resync(int[] src, int from, int length) {
+        for (int start = from; start + 1 < length; start++) {
+            int pos = start;
+            PidRegistry.Pid pid;
+            while (pos < length && (pid = PidRegistry.mode01(src[pos])) != null)
+                pos += 1 + pid.length;
+            if (pos == length)
+                return start;
         }
-        int mode = dataBytes[0]; // Mode is the first byte
-        int pid = dataBytes[1];  // PID is the second byte
+        return -1;
+    }
 
-        return parseOBDResponse(mode, pid, dataBytes);
+    private static boolean evaluate(ObdReading r) {
+        r.mode = r.bytes[0];
+        r.pid = r.bytes[1];
+        switch (r.mode) {
+            case 0x41: {
+                PidRegistry.Pid pid = PidRegistry.mode01(r.pid);
+                if (pid == null || r.length < 2 + pid.length)
+                    return false; // PID not recognized or response truncated
+                r.value = pid.evaluate(r);
+                r.unit = pid.unit;
+                return true;
+            }
+            case 0x43: // Mode 03 stored DTCs, no PID byte
+                r.pid = 0;
+                r.value = (r.length - dtcStart(r)) / 2;
+                for (int i = dtcStart(r); i + 1 < r.length; i += 2)
+                    if (r.bytes[i] == 0 && r.bytes[i + 1] == 0)
+                        r.value--; // 0x0000 pads unused slots
+                r.unit = ObdUnit.COUNT;
+                return true;
+            case 0x49: // Mode 09 vehicle information, only the VIN (CAN: 49 02 01 + 17 characters)
+                if (r.pid != 0x02 || r.length < 3 + VIN_LENGTH)
+                    return false;
+                r.value = VIN_LENGTH;
+                r.unit = ObdUnit.NONE;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * CAN responses carry the number of DTCs in the first byte, older protocols send 3 DTCs per line
+     */
+    private static int dtcStart(ObdReading r) {
+        return r.length % 2 == 0 && r.bytes[1] == (r.length - 2) / 2 ? 2 : 1;
+    }
+
+    /**
+     * lazy text rendering of a decoded reading, only call when the UI or LLM needs it
+     */
+    static String format(ObdReading r) {
+        StringBuilder sb = new StringBuilder();
+        format(r, sb);
+        return sb.toString();
+    }
+
+    static void format(ObdReading r, StringBuilder sb) {
+        if (r.mode == 0x43) {
+            sb.append("Stored DTCs: ");
+            int n = 0;
+            for (int i = dtcStart(r); i + 1 < r.length; i += 2) {
+                if (r.bytes[i] == 0 && r.bytes[i + 1] == 0)
+                    continue;
+                if (n++ > 0)
+                    sb.append(", ");
+                appendDtc(sb, r.bytes[i], r.bytes[i + 1]);
+            }
+            if (n == 0)
+                sb.append("None");
+            return;
+        }
+        if (r.mode == 0x49) {
+            sb.append("VIN: ");
+            for (int i = r.length - VIN_LENGTH; i < r.length; i++)
+                sb.append((char) r.bytes[i]);
+            return;
+        }
+        PidRegistry.Pid pid = PidRegistry.mode01(r.pid);
+        if (pid == null)
+            sb.append("no match");
+        else
+            pid.format(r, sb);
+    }
+
+    /**
+     * append SAE J2012 code, e.g. 0x04 0x20 -> P0420
+     */
+    static void appendDtc(StringBuilder sb, int b0, int b1) {
+        sb.append(decodeDtcCategory(b0))
+                .append((char) ('0' + ((b0 >> 4) & 0x03)))
+                .append(HEX_DIGITS[b0 & 0x0F])
+                .append(HEX_DIGITS[(b1 >> 4) & 0x0F])
+                .append(HEX_DIGITS[b1 & 0x0F]);
     }
 
     public static byte[] hexStringToByteArray(String s) {
@@ -34,127 +253,6 @@ public class OBDUtils {
         return data;
     }
 
-    public static String parseOBDResponse(int mode, int pid, byte[] dataBytes) {
-        if (mode != 0x41) {
-            String errorMessage = "Only Mode 01 (Show current data) is supported.";
-            Log.d(OBDUtils.TAG, errorMessage);
-            return "no message";
-        }
-
-        switch (pid) {
-            case 0x01: // Monitor Status (since DTCs cleared)
-                // Byte 2 represents the MIL status and the number of stored DTCs
-                boolean milOn = (dataBytes[2] & 0x80) != 0; // Check if the MIL (bit 7) is ON
-                int numDTCs = dataBytes[2] & 0x7F;          // Extract bits 6–0 for number of DTCs
-
-                // Byte 3 indicates the availability of tests
-                int testAvailability = dataBytes[3];        // Bit mask for available tests
-
-                // Byte 4 shows the completion status of the tests
-                int testCompletionStatus = dataBytes[4];    // Bit mask for completed tests
-
-                // Format the output
-                String milStatusStr = milOn ? "ON" : "OFF";
-                @SuppressLint("DefaultLocale") String monitorStatusStr = String.format(
-                        "MIL status: %s, Stored DTCs: %d, Test availability: 0x%02X, Test completion: 0x%02X",
-                        milStatusStr, numDTCs, testAvailability, testCompletionStatus);
-
-                // Log the result
-                Log.d(OBDUtils.TAG, monitorStatusStr);
-                return monitorStatusStr;
-
-            case 0x03: // Diagnostic Trouble Codes (DTCs)
-                StringBuilder dtcBuilder = new StringBuilder();
-                dtcBuilder.append("Stored DTCs: ");
-
-                // Each DTC is represented by two bytes (5 characters after decoding)
-                for (int i = 2; i < dataBytes.length; i += 2) {
-                    if (dataBytes[i] == 0 && dataBytes[i + 1] == 0) {
-                        // No more DTCs (0x0000 indicates no further trouble codes)
-                        break;
-                    }
-
-                    // Decode the DTC
-                    char category = decodeDtcCategory(dataBytes[i]); // Get category (P, C, B, or U)
-                    int code = ((dataBytes[i] & 0x0F) << 8) | dataBytes[i + 1]; // Combine nibbles
-                    @SuppressLint("DefaultLocale") String dtc = String.format("%c%04d", category, code);
-
-                    // Append to the result
-                    dtcBuilder.append(dtc).append(", ");
-                }
-
-                // Remove trailing comma and space, if any
-                if (dtcBuilder.length() > 13) {
-                    dtcBuilder.setLength(dtcBuilder.length() - 2);
-                } else {
-                    dtcBuilder.append("None");
-                }
-
-                String dtcResult = dtcBuilder.toString();
-                Log.d(OBDUtils.TAG, dtcResult);
-                return dtcResult;
-
-            case 0x04: // Calculated Engine Load
-                double engineLoad = (dataBytes[2] / 2.0);
-                @SuppressLint("DefaultLocale") String engineLoadStr = String.format("Engine load is %.1f%%.", engineLoad);
-                Log.d(OBDUtils.TAG, engineLoadStr);
-                return engineLoadStr;
-
-            case 0x05: // Engine Coolant Temperature
-                int coolantTemp = dataBytes[2] - 40;
-                @SuppressLint("DefaultLocale") String coolantTempStr = String.format("Engine coolant temperature is %d°C.", coolantTemp);
-                Log.d(OBDUtils.TAG, coolantTempStr);
-                return coolantTempStr;
-
-            case 0x06: // Short Term Fuel Trim (Bank 1)
-                double shortTermFuelTrim = ((dataBytes[2] - 128) * 100.0) / 128;
-                @SuppressLint("DefaultLocale") String shortTermFuelTrimStr = String.format("Short term fuel trim (Bank 1) is %.1f%%.", shortTermFuelTrim);
-                Log.d(OBDUtils.TAG, shortTermFuelTrimStr);
-                return shortTermFuelTrimStr;
-
-            case 0x07: // Long Term Fuel Trim (Bank 1)
-                double longTermFuelTrim = ((dataBytes[2] - 128) * 100.0) / 128;
-                @SuppressLint("DefaultLocale") String longTermFuelTrimStr = String.format("Long term fuel trim (Bank 1) is %.1f%%.", longTermFuelTrim);
-                Log.d(OBDUtils.TAG, longTermFuelTrimStr);
-                return longTermFuelTrimStr;
-
-            case 0x0A: // Fuel Pressure
-                int fuelPressure = dataBytes[2] * 3;
-                @SuppressLint("DefaultLocale") String fuelPressureStr = String.format("Fuel pressure is %d kPa.", fuelPressure);
-                Log.d(OBDUtils.TAG, fuelPressureStr);
-                return fuelPressureStr;
-
-            case 0x0B: // Intake Manifold Absolute Pressure
-                int manifoldPressure = dataBytes[2];
-                @SuppressLint("DefaultLocale") String manifoldPressureStr = String.format("Intake manifold absolute pressure is %d kPa.", manifoldPressure);
-                Log.d(OBDUtils.TAG, manifoldPressureStr);
-                return manifoldPressureStr;
-
-            case 0x0C: // Engine RPM
-                int byte3 = (dataBytes.length > 3) ? dataBytes[3] : 0;
-                int rpm = ((dataBytes[2] * 256) + byte3) / 4;
-                @SuppressLint("DefaultLocale") String rpmStr = String.format("Engine RPM is %d ", rpm);
-                Log.d(OBDUtils.TAG, rpmStr);
-                return rpmStr;
-
-            case 0x0D: // Vehicle Speed
-                int vehicleSpeed = dataBytes[2];
-                @SuppressLint("DefaultLocale") String vehicleSpeedStr = String.format("Vehicle speed is %d km/h.", vehicleSpeed);
-                Log.d(OBDUtils.TAG, vehicleSpeedStr);
-                return vehicleSpeedStr;
-
-            case 0x0E: // Timing Advance
-                double timingAdvance = (dataBytes[2] / 2.0) - 64;
-                @SuppressLint("DefaultLocale") String timingAdvanceStr = String.format("Timing advance is %.1f°.", timingAdvance);
-                Log.d(OBDUtils.TAG, timingAdvanceStr);
-                return timingAdvanceStr;
-
-            default:
-                String defaultMessage = "PID not recognized or not supported.";
-                Log.d(OBDUtils.TAG, defaultMessage);
-                return "no match";
-        }
-    }
     private static char decodeDtcCategory(int byteValue) {
         int categoryCode = (byteValue & 0xC0) >> 6; // Extract the first 2 bits
         switch (categoryCode) {
@@ -0,0 +1,42 @@
+package com.odb2llm.app;
+
+/**
+ * mutable, reusable result of {@link OBDUtils#decode(byte[], int, int, ObdReading)}
+ * decode into the same instance for every frame to keep the reader path allocation free,
+ * text is only created on demand with {@link OBDUtils#format(ObdReading)}
+ */
+final class ObdReading {
+
+    static final int MAX_BYTES = 64;
+
+    int mode;       // response mode, e.g. 0x41
+    int pid;
+    double value;   // primary value in unit
+    ObdUnit unit = ObdUnit.NONE;
+
+    // unsigned frame bytes, same layout as sent by the ECU: [0]=mode, [1]=pid, [2..]=A,B,C,...
+    final int[] bytes = new int[MAX_BYTES];
+    int length;
+
+    int a() { return length > 2 ? bytes[2] : 0; }
+    int b() { return length > 3 ? bytes[3] : 0; }
+    int c() { return length > 4 ? bytes[4] : 0; }
+    int d() { return length > 5 ? bytes[5] : 0; }
+
+    void reset() {
+        mode = 0;
+        pid = 0;
+        value = 0;
+        unit = ObdUnit.NONE;
+        length = 0;
+    }
+
+    void copyFrom(ObdReading other) {
+        mode = other.mode;
+        pid = other.pid;
+        value = other.value;
+        unit = other.unit;
+        length = other.length;
+        System.arraycopy(other.bytes, 0, bytes, 0, other.length);
+    }
+}
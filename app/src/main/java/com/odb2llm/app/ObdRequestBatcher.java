@@ -0,0 +1,84 @@
+package com.odb2llm.app;
+
+/**
+ * queue of Mode 01 PIDs, packed into requests of up to six PIDs, e.g. 010C0D05
+ * the combined response is split again by {@link OBDUtils#decodeAll(byte[], int, int, ObdReading[])}
+ */
+final class ObdRequestBatcher {
+
+    static final int MAX_PIDS = 6; // limit of a single CAN request
+
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes();
+
+    private final int[] queue = new int[256];
+    private final boolean[] queued = new boolean[256];
+    private int head, size;
+
+    /**
+     * @return false if pid is already waiting for the next request
+     */
+    boolean add(int pid) {
+        pid &= 0xff;
+        if (queued[pid])
+            return false;
+        queued[pid] = true;
+        queue[(head + size++) & 0xff] = pid;
+        return true;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        while (size > 0)
+            poll();
+    }
+
+    /**
+     * remove up to {@link #MAX_PIDS} pending PIDs and build the request for them
+     */
+    byte[] next() {
+        int count = Math.min(size, MAX_PIDS);
+        byte[] data = new byte[2 + 2 * count + 2];
+        data[0] = '0';
+        data[1] = '1';
+        for (int i = 0; i < count; i++)
+            putHex(data, 2 + 2 * i, poll());
+        terminate(data);
+        return data;
+    }
+
+    /**
+     * request for up to {@link #MAX_PIDS} PIDs without queueing
+     */
+    static byte[] request(int[] pids, int off, int count) {
+        if (count < 1 || count > MAX_PIDS)
+            throw new IllegalArgumentException("1 to " + MAX_PIDS + " PIDs per request");
+        byte[] data = new byte[2 + 2 * count + 2];
+        data[0] = '0';
+        data[1] = '1';
+        for (int i = 0; i < count; i++)
+            putHex(data, 2 + 2 * i, pids[off + i]);
+        terminate(data);
+        return data;
+    }
+
+    private int poll() {
+        int pid = queue[head];
+        head = (head + 1) & 0xff;
+        size--;
+        queued[pid] = false;
+        return pid;
+    }
+
+    private static void putHex(byte[] data, int pos, int value) {
+        data[pos] = HEX_DIGITS[(value >> 4) & 0x0F];
+        data[pos + 1] = HEX_DIGITS[value & 0x0F];
+    }
+
+    private static void terminate(byte[] data) {
+        data[data.length - 2] = '\r';
+        data[data.length - 1] = '\n';
+    }
+}
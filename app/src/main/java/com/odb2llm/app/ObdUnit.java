@@ -0,0 +1,32 @@
+package com.odb2llm.app;
+
+/**
+ * unit of the primitive value carried by {@link ObdReading}
+ */
+enum ObdUnit {
+    NONE(""),
+    COUNT(""),
+    RATIO(""),
+    PERCENT("%"),
+    CELSIUS("°C"),
+    KPA("kPa"),
+    PA("Pa"),
+    RPM("rpm"),
+    KMH("km/h"),
+    KM("km"),
+    DEGREES("°"),
+    VOLTS("V"),
+    MILLIAMPS("mA"),
+    GRAMS_PER_SEC("g/s"),
+    KG_PER_HOUR("kg/h"),
+    LITERS_PER_HOUR("L/h"),
+    MG_PER_STROKE("mg/stroke"),
+    SECONDS("s"),
+    MINUTES("min"),
+    NEWTON_METERS("Nm"),
+    PPM("ppm");
+
+    final String symbol;
+
+    ObdUnit(String symbol) { this.symbol = symbol; }
+}
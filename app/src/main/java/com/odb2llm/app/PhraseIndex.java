@@ -0,0 +1,140 @@
+package com.odb2llm.app;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * embeddings of the intent phrases, L2 normalized, in one row-major float[]
+ * cosine similarity of a query with every phrase is then a single dot product scan.
+ * persisted with a key over model and phrases, so cold starts don't embed the phrases again
+ */
+final class PhraseIndex {
+
+    private static final int MAGIC = 0x4F424450; // OBDP
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 4;
+
+    final long key;
+    final int size;
+    final int dim;
+    private final float[] matrix;
+
+    PhraseIndex(long key, int size, int dim) {
+        this.key = key;
+        this.size = size;
+        this.dim = dim;
+        this.matrix = new float[size * dim];
+    }
+
+    void set(int row, float[] embedding) {
+        if (embedding.length != dim)
+            throw new IllegalArgumentException("embedding has " + embedding.length + " dimensions, expected " + dim);
+        double norm = Math.sqrt(dot(embedding, 0, embedding, 0, dim));
+        float scale = norm == 0 ? 0 : (float) (1 / norm);
+        int off = row * dim;
+        for (int i = 0; i < dim; i++)
+            matrix[off + i] = embedding[i] * scale;
+    }
+
+    /**
+     * cosine similarity of query with every phrase into scores[0..size)
+     *
+     * @return row with the highest similarity, -1 if the index is empty
+     */
+    int scan(float[] query, float[] scores) {
+        if (query.length != dim)
+            throw new IllegalArgumentException("query has " + query.length + " dimensions, expected " + dim);
+        double norm = Math.sqrt(dot(query, 0, query, 0, dim));
+        float scale = norm == 0 ? 0 : (float) (1 / norm);
+        int best = -1;
+        for (int row = 0, off = 0; row < size; row++, off += dim) {
+            scores[row] = dot(matrix, off, query, 0, dim) * scale;
+            if (best < 0 || scores[row] > scores[best])
+                best = row;
+        }
+        return best;
+    }
+
+    /**
+     * four independent accumulators, so the JIT can keep several multiply-adds in flight
+     */
+    private static float dot(float[] a, int aOff, float[] b, int bOff, int len) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < len; i += 4) {
+            s0 += a[aOff + i] * b[bOff + i];
+            s1 += a[aOff + i + 1] * b[bOff + i + 1];
+            s2 += a[aOff + i + 2] * b[bOff + i + 2];
+            s3 += a[aOff + i + 3] * b[bOff + i + 3];
+        }
+        for (; i < len; i++)
+            s0 += a[aOff + i] * b[bOff + i];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * CRC32 of the model in the upper and of the phrases in the lower half
+     */
+    static long key(InputStream model, List<String> phrases) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[64 * 1024];
+        int len;
+        while ((len = model.read(buf)) > 0)
+            crc.update(buf, 0, len);
+        long modelCrc = crc.getValue();
+        crc.reset();
+        for (String phrase : phrases) {
+            byte[] bytes = phrase.getBytes(StandardCharsets.UTF_8);
+            crc.update(bytes, 0, bytes.length);
+            crc.update('\n');
+        }
+        return (modelCrc << 32) | crc.getValue();
+    }
+
+    /**
+     * written to a temporary file first, a crash never leaves a truncated index behind
+     */
+    void save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 4 * matrix.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(key).putInt(size).putInt(dim);
+        buffer.asFloatBuffer().put(matrix);
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(buffer.array());
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(file))
+            throw new IOException("rename " + tmp + " failed");
+    }
+
+    /**
+     * @return null if there is no index for key
+     */
+    static PhraseIndex load(File file, long key) throws IOException {
+        if (!file.exists())
+            return null;
+        try (FileInputStream in = new FileInputStream(file); FileChannel channel = in.getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0);
+            buffer.flip();
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != key)
+                return null;
+            int size = buffer.getInt();
+            int dim = buffer.getInt();
+            if (size < 0 || dim <= 0 || buffer.remaining() != 4L * size * dim)
+                return null;
+            PhraseIndex index = new PhraseIndex(key, size, dim);
+            buffer.asFloatBuffer().get(index.matrix);
+            return index;
+        }
+    }
+}
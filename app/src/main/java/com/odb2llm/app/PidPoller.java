@@ -0,0 +1,291 @@
+package com.odb2llm.app;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * background polling of Mode 01 PIDs at individual rates, owned by {@link SerialService}
+ *
+ * earliest-deadline-first: due PIDs are sent in deadline order, packed into requests of up to
+ * {@link ObdRequestBatcher#MAX_PIDS}. exactly one request is in flight, the next one is sent when the
+ * ELM327 '>' prompt arrives or the adaptive timeout expires. if the adapter is slower than the requested
+ * rates, all PIDs degrade evenly instead of starving the slow ones.
+ *
+ * a PID missing in the answer to a batch is retried alone. if it answers alone, the ECU takes fewer PIDs per
+ * request and the batch shrinks, after {@link #PROBE_CYCLES} complete answers a larger batch is tried again.
+ * if it doesn't answer alone either, it is backed off and after {@link #UNSUPPORTED_MISSES} no longer polled.
+ * a timed out request counts as unanswered. the late answer to it is not taken for the answer to the next
+ * request: Mode 01 data without any PID of the request is dropped, as is the first answer without Mode 01
+ * data ("NO DATA") after a timeout.
+ */
+class PidPoller {
+
+    interface Writer {
+        void write(byte[] data) throws IOException;
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final int pid;
+        long periodNanos;
+        long due;
+        boolean solo;       // missed in a batch, next request is this PID alone
+        int batchAnswered;  // PIDs answered in that batch
+        int misses;         // unanswered requests of this PID alone
+
+        Entry(int pid, long periodNanos, long due) {
+            this.pid = pid;
+            this.periodNanos = periodNanos;
+            this.due = due;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            return Long.compare(due, o.due);
+        }
+    }
+
+    private static final long MIN_TIMEOUT_NANOS = 200_000_000L;
+    private static final long MAX_TIMEOUT_NANOS = 5_000_000_000L;
+    static final int UNSUPPORTED_MISSES = 4;
+    private static final int MAX_BACKOFF_SHIFT = 5;     // back off to 32 periods
+    static final int PROBE_CYCLES = 100;
+
+    private final Writer writer;
+    private final Entry[] entries = new Entry[256];
+    private final PriorityQueue<Entry> schedule = new PriorityQueue<>();
+    private final ArrayDeque<byte[]> commands = new ArrayDeque<>(); // foreign commands, e.g. from the terminal
+    private final int[] batch = new int[ObdRequestBatcher.MAX_PIDS];
+
+    private HandlerThread thread;
+    private Handler handler;
+    private final Runnable tick = this::tick;
+
+    private boolean inFlight;
+    private int inFlightPids;       // 0 for foreign commands
+    private boolean lateAnswer;     // a request timed out, its answer may still arrive
+    private long sentAt;
+    private long latencyNanos = 100_000_000L; // EWMA of request round trip
+    private int maxBatch = ObdRequestBatcher.MAX_PIDS;
+    private int cleanCycles;        // complete answers to full batches since the last change of maxBatch
+
+    PidPoller(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * poll pid at hz, hz <= 0 removes it
+     */
+    synchronized void setRate(int pid, double hz) {
+        pid &= 0xff;
+        Entry entry = entries[pid];
+        if (hz <= 0) {
+            if (entry != null) {
+                schedule.remove(entry);
+                entries[pid] = null;
+            }
+            return;
+        }
+        long period = (long) (1_000_000_000L / hz);
+        if (entry == null) {
+            entry = new Entry(pid, period, SystemClock.elapsedRealtimeNanos());
+            entries[pid] = entry;
+            schedule.add(entry);
+        } else {
+            entry.periodNanos = period;
+        }
+        wakeup();
+    }
+
+    synchronized void start() {
+        if (thread != null)
+            return;
+        thread = new HandlerThread("PidPoller");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        wakeup();
+    }
+
+    synchronized void stop() {
+        if (thread == null)
+            return;
+        handler.removeCallbacks(tick);
+        thread.quitSafely();
+        thread = null;
+        handler = null;
+        inFlight = false;
+        lateAnswer = false;
+        commands.clear();
+    }
+
+    synchronized boolean isRunning() {
+        return thread != null;
+    }
+
+    /**
+     * send a foreign command without breaking the single request in flight rule
+     */
+    synchronized void command(byte[] data) {
+        commands.add(data);
+        wakeup();
+    }
+
+    synchronized long getLatencyMillis() {
+        return latencyNanos / 1_000_000;
+    }
+
+    /**
+     * called from the socket thread with the n readings decoded from every complete response
+     */
+    synchronized void onFrame(ObdReading[] readings, int n) {
+        if (!inFlight)
+            return;
+        if (inFlightPids > 0) {
+            boolean mode01 = false;
+            boolean matched = false;
+            for (int i = 0; i < n; i++) {
+                if (readings[i].mode != 0x41)
+                    continue;
+                mode01 = true;
+                for (int j = 0; j < inFlightPids; j++)
+                    if (readings[i].pid == batch[j])
+                        matched = true;
+            }
+            if (mode01 && !matched)
+                return; // answer to a request that timed out
+            if (!matched && lateAnswer) {
+                lateAnswer = false;
+                return; // most likely "NO DATA" to a request that timed out
+            }
+            lateAnswer = false;
+            answered(readings, n);
+        }
+        complete(false);
+    }
+
+    synchronized int getMaxBatch() {
+        return maxBatch;
+    }
+
+    private void answered(ObdReading[] readings, int n) {
+        int answered = 0;
+        for (int i = 0; i < inFlightPids; i++)
+            if (contains(readings, n, batch[i]))
+                answered++;
+        boolean batched = inFlightPids > 1;
+        for (int i = 0; i < inFlightPids; i++) {
+            Entry entry = entries[batch[i]];
+            if (entry == null)
+                continue; // removed meanwhile
+            if (contains(readings, n, entry.pid)) {
+                if (entry.solo && entry.batchAnswered > 0 && entry.batchAnswered < maxBatch) {
+                    // ECUs with limited multi-PID support only answer the first PIDs of a request
+                    maxBatch = entry.batchAnswered;
+                    cleanCycles = 0;
+                    Log.d(OBDUtils.TAG, "poller: reduced batch size to " + maxBatch);
+                }
+                entry.solo = false;
+                entry.misses = 0;
+            } else if (batched) {
+                entry.solo = true;
+                entry.batchAnswered = answered;
+            } else if (++entry.misses >= UNSUPPORTED_MISSES) {
+                schedule.remove(entry);
+                entries[entry.pid] = null;
+                Log.d(OBDUtils.TAG, String.format(Locale.US, "poller: pid %02X not supported, stopped polling it", entry.pid));
+            } else {
+                schedule.remove(entry);
+                entry.due = SystemClock.elapsedRealtimeNanos() + (entry.periodNanos << Math.min(entry.misses, MAX_BACKOFF_SHIFT));
+                schedule.add(entry);
+            }
+        }
+        if (batched && answered == inFlightPids && inFlightPids == maxBatch && maxBatch < ObdRequestBatcher.MAX_PIDS
+                && ++cleanCycles >= PROBE_CYCLES) {
+            maxBatch++;
+            cleanCycles = 0;
+            Log.d(OBDUtils.TAG, "poller: trying batch size " + maxBatch);
+        }
+    }
+
+    private static boolean contains(ObdReading[] readings, int n, int pid) {
+        for (int i = 0; i < n; i++)
+            if (readings[i].mode == 0x41 && readings[i].pid == pid)
+                return true;
+        return false;
+    }
+
+    private void complete(boolean timeout) {
+        long elapsed = SystemClock.elapsedRealtimeNanos() - sentAt;
+        if (!timeout)
+            latencyNanos += (elapsed - latencyNanos) / 8;
+        inFlight = false;
+        wakeup();
+    }
+
+    private long timeoutNanos() {
+        return Math.min(MAX_TIMEOUT_NANOS, Math.max(MIN_TIMEOUT_NANOS, 4 * latencyNanos));
+    }
+
+    private void wakeup() {
+        if (handler != null) {
+            handler.removeCallbacks(tick);
+            handler.post(tick);
+        }
+    }
+
+    private synchronized void tick() {
+        if (handler == null)
+            return;
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (inFlight) {
+            long timeout = timeoutNanos();
+            if (now - sentAt < timeout) {
+                handler.postDelayed(tick, (timeout - (now - sentAt)) / 1_000_000 + 1);
+                return;
+            }
+            if (inFlightPids > 0) {
+                answered(null, 0); // none of the PIDs answered in time
+                lateAnswer = true;
+            }
+            complete(true);
+        }
+        byte[] data = commands.poll();
+        int count = 0;
+        if (data == null) {
+            while (count < maxBatch && !schedule.isEmpty() && schedule.peek().due <= now) {
+                if (schedule.peek().solo && count > 0)
+                    break; // goes alone with the next request
+                Entry entry = schedule.poll();
+                batch[count++] = entry.pid;
+                // no catch up bursts if the adapter falls behind
+                entry.due = Math.max(entry.due + entry.periodNanos, now);
+                if (entry.solo)
+                    break;
+            }
+            for (int i = 0; i < count; i++)
+                schedule.add(entries[batch[i]]);
+            if (count == 0) {
+                if (!schedule.isEmpty())
+                    handler.postDelayed(tick, (schedule.peek().due - now) / 1_000_000 + 1);
+                return;
+            }
+            data = ObdRequestBatcher.request(batch, 0, count);
+        }
+        try {
+            writer.write(data);
+            inFlight = true;
+            inFlightPids = count;
+            sentAt = now;
+            handler.postDelayed(tick, timeoutNanos() / 1_000_000 + 1);
+        } catch (IOException e) {
+            Log.w(OBDUtils.TAG, "poller: write failed", e);
+            stop();
+        }
+    }
+}
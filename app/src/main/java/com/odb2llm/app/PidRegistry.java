@@ -0,0 +1,430 @@
+package com.odb2llm.app;
+
+import java.util.Locale;
+
+/**
+ * SAE J1979 Mode 01 PID table, built once into a dense array indexed by PID
+ * every entry describes byte length, raw value layout, linear formula (raw * scale + offset) and unit,
+ * bit-field PIDs additionally describe their fields. multi-sensor PIDs decode their first sensor, PIDs
+ * without a single meaningful value (WWH-OBD, inducement and AECD blocks) are registered with their length
+ * and show their first byte, so multi-PID responses containing them still split
+ */
+final class PidRegistry {
+
+    // how the raw integer is assembled from the data bytes A,B,C,D
+    static final int RAW_A = 0;
+    static final int RAW_B = 1;           // multi-sensor PIDs, A holds the 'sensors supported' mask
+    static final int RAW_AB = 2;
+    static final int RAW_BC = 3;
+    static final int RAW_AB_SIGNED = 4;
+    static final int RAW_ABCD = 5;
+    static final int RAW_CD = 6;
+
+    // how the reading is rendered as text
+    static final int KIND_VALUE = 0;
+    static final int KIND_BITS = 1;
+    static final int KIND_DTC = 2;
+    static final int KIND_ENUM = 3;
+    static final int KIND_SUPPORTED = 4;
+
+    // field styles for KIND_BITS
+    static final int STYLE_FLAG = 0;
+    static final int STYLE_NUMBER = 1;
+    static final int STYLE_HEX = 2;
+
+    static final class Field {
+        final String name;
+        final int index;    // 0 = A, 1 = B, ...
+        final int mask;
+        final int shift;
+        final int style;
+
+        Field(String name, int index, int mask, int style) {
+            this.name = name;
+            this.index = index;
+            this.mask = mask;
+            this.shift = Integer.numberOfTrailingZeros(mask);
+            this.style = style;
+        }
+
+        int extract(ObdReading r) {
+            return (r.bytes[2 + index] & mask) >>> shift;
+        }
+    }
+
+    static final class Pid {
+        final int pid;
+        final int length;   // data bytes after mode and PID
+        final String name;
+        final int kind;
+        final int raw;
+        final double scale;
+        final double offset;
+        final ObdUnit unit;
+        final int decimals;
+        final Field[] fields;
+        final String[] labels;
+
+        Pid(int pid, int length, String name, int kind, int raw, double scale, double offset,
+            ObdUnit unit, int decimals, Field[] fields, String[] labels) {
+            this.pid = pid;
+            this.length = length;
+            this.name = name;
+            this.kind = kind;
+            this.raw = raw;
+            this.scale = scale;
+            this.offset = offset;
+            this.unit = unit;
+            this.decimals = decimals;
+            this.fields = fields;
+            this.labels = labels;
+        }
+
+        double evaluate(ObdReading r) {
+            if (fields != null)
+                return fields[0].extract(r);
+            int[] b = r.bytes;
+            int raw;
+            switch (this.raw) {
+                case RAW_A:         raw = b[2]; break;
+                case RAW_B:         raw = b[3]; break;
+                case RAW_AB:        raw = (b[2] << 8) | b[3]; break;
+                case RAW_BC:        raw = (b[3] << 8) | b[4]; break;
+                case RAW_AB_SIGNED: raw = (short) ((b[2] << 8) | b[3]); break;
+                case RAW_CD:        raw = (b[4] << 8) | b[5]; break;
+                default:            return (((long) b[2] << 24) | (b[3] << 16) | (b[4] << 8) | b[5]) * scale + offset;
+            }
+            return raw * scale + offset;
+        }
+
+        void format(ObdReading r, StringBuilder sb) {
+            switch (kind) {
+                case KIND_VALUE:
+                    sb.append(name).append(" is ");
+                    if (decimals == 0)
+                        sb.append(Math.round(r.value));
+                    else
+                        sb.append(String.format(Locale.US, "%." + decimals + "f", r.value));
+                    if (!unit.symbol.isEmpty())
+                        sb.append(unit == ObdUnit.PERCENT || unit == ObdUnit.DEGREES || unit == ObdUnit.CELSIUS ? "" : " ").append(unit.symbol);
+                    sb.append('.');
+                    break;
+                case KIND_BITS:
+                    sb.append(name).append(": ");
+                    for (int i = 0; i < fields.length; i++) {
+                        Field f = fields[i];
+                        int v = f.extract(r);
+                        if (i > 0)
+                            sb.append(", ");
+                        sb.append(f.name).append(": ");
+                        if (f.style == STYLE_FLAG)
+                            sb.append(v != 0 ? "ON" : "OFF");
+                        else if (f.style == STYLE_HEX)
+                            sb.append(String.format(Locale.US, "0x%02X", v));
+                        else
+                            sb.append(v);
+                    }
+                    break;
+                case KIND_DTC:
+                    sb.append(name).append(": ");
+                    if (r.a() == 0 && r.b() == 0)
+                        sb.append("None");
+                    else
+                        OBDUtils.appendDtc(sb, r.a(), r.b());
+                    break;
+                case KIND_ENUM: {
+                    int v = (int) r.value;
+                    sb.append(name).append(": ");
+                    sb.append(v < labels.length && labels[v] != null ? labels[v] : "unknown (" + v + ")");
+                    break;
+                }
+                case KIND_SUPPORTED:
+                    sb.append(name).append(':');
+                    for (int i = 0; i < 32; i++)
+                        if ((r.bytes[2 + i / 8] & (0x80 >> (i % 8))) != 0)
+                            sb.append(' ').append(String.format(Locale.US, "%02X", pid + i + 1));
+                    break;
+            }
+        }
+    }
+
+    private static final Pid[] MODE01 = new Pid[256];
+
+    static Pid mode01(int pid) {
+        return MODE01[pid & 0xff];
+    }
+
+    private PidRegistry() {}
+
+    private static void value(int pid, int length, String name, int raw, double scale, double offset, ObdUnit unit, int decimals) {
+        MODE01[pid] = new Pid(pid, length, name, KIND_VALUE, raw, scale, offset, unit, decimals, null, null);
+    }
+
+    private static void bits(int pid, int length, String name, Field... fields) {
+        // primary value is the first field, so it can be tracked like any other value
+        MODE01[pid] = new Pid(pid, length, name, KIND_BITS, RAW_A, 1, 0, ObdUnit.NONE, 0, fields, null);
+    }
+
+    private static void enumerated(int pid, int length, String name, String... labels) {
+        MODE01[pid] = new Pid(pid, length, name, KIND_ENUM, RAW_A, 1, 0, ObdUnit.NONE, 0, null, labels);
+    }
+
+    private static void dtc(int pid, String name) {
+        MODE01[pid] = new Pid(pid, 2, name, KIND_DTC, RAW_AB, 1, 0, ObdUnit.NONE, 0, null, null);
+    }
+
+    private static void supported(int pid) {
+        String name = String.format(Locale.US, "Supported PIDs %02X-%02X", pid + 1, pid + 0x20);
+        MODE01[pid] = new Pid(pid, 4, name, KIND_SUPPORTED, RAW_ABCD, 1, 0, ObdUnit.NONE, 0, null, null);
+    }
+
+    private static Field field(String name, int index, int mask, int style) {
+        return new Field(name, index, mask, style);
+    }
+
+    static {
+        final double PCT = 100.0 / 255;
+        final double TRIM = 100.0 / 128;
+        final double LAMBDA = 2.0 / 65536;
+
+        for (int pid = 0x00; pid <= 0xC0; pid += 0x20)
+            supported(pid);
+
+        bits(0x01, 4, "Monitor status",
+                field("Stored DTCs", 0, 0x7F, STYLE_NUMBER),
+                field("MIL status", 0, 0x80, STYLE_FLAG),
+                field("Compression ignition", 1, 0x08, STYLE_FLAG),
+                field("Test availability", 2, 0xFF, STYLE_HEX),
+                field("Test completion", 3, 0xFF, STYLE_HEX));
+        dtc(0x02, "DTC that caused freeze frame");
+        String[] fuelStatus = new String[17];
+        fuelStatus[0] = "not present";
+        fuelStatus[1] = "open loop, insufficient engine temperature";
+        fuelStatus[2] = "closed loop";
+        fuelStatus[4] = "open loop, engine load or deceleration";
+        fuelStatus[8] = "open loop, system failure";
+        fuelStatus[16] = "closed loop, feedback fault";
+        enumerated(0x03, 2, "Fuel system status", fuelStatus);
+        value(0x04, 1, "Engine load", RAW_A, PCT, 0, ObdUnit.PERCENT, 1);
+        value(0x05, 1, "Engine coolant temperature", RAW_A, 1, -40, ObdUnit.CELSIUS, 0);
+        value(0x06, 1, "Short term fuel trim (Bank 1)", RAW_A, TRIM, -100, ObdUnit.PERCENT, 1);
+        value(0x07, 1, "Long term fuel trim (Bank 1)", RAW_A, TRIM, -100, ObdUnit.PERCENT, 1);
+        value(0x08, 1, "Short term fuel trim (Bank 2)", RAW_A, TRIM, -100, ObdUnit.PERCENT, 1);
+        value(0x09, 1, "Long term fuel trim (Bank 2)", RAW_A, TRIM, -100, ObdUnit.PERCENT, 1);
+        value(0x0A, 1, "Fuel pressure", RAW_A, 3, 0, ObdUnit.KPA, 0);
+        value(0x0B, 1, "Intake manifold absolute pressure", RAW_A, 1, 0, ObdUnit.KPA, 0);
+        value(0x0C, 2, "Engine RPM", RAW_AB, 0.25, 0, ObdUnit.RPM, 0);
+        value(0x0D, 1, "Vehicle speed", RAW_A, 1, 0, ObdUnit.KMH, 0);
+        value(0x0E, 1, "Timing advance", RAW_A, 0.5, -64, ObdUnit.DEGREES, 1);
+        value(0x0F, 1, "Intake air temperature", RAW_A, 1, -40, ObdUnit.CELSIUS, 0);
+        value(0x10, 2, "Mass air flow rate", RAW_AB, 0.01, 0, ObdUnit.GRAMS_PER_SEC, 2);
+        value(0x11, 1, "Throttle position", RAW_A, PCT, 0, ObdUnit.PERCENT, 1);
+        enumerated(0x12, 1, "Commanded secondary air status",
+                null, "upstream", "downstream of catalytic converter", null, "from outside atmosphere or off",
+                null, null, null, "pump commanded on for diagnostics");
+        bits(0x13, 1, "Oxygen sensors present",
+                field("Bank 1", 0, 0x0F, STYLE_HEX),
+                field("Bank 2", 0, 0xF0, STYLE_HEX));
+        for (int i = 0; i < 8; i++)
+            value(0x14 + i, 2, "Oxygen sensor " + (i + 1) + " voltage", RAW_A, 0.005, 0, ObdUnit.VOLTS, 3);
+        String[] standards = new String[34];
+        standards[1] = "OBD-II as defined by the CARB";
+        standards[2] = "OBD as defined by the EPA";
+        standards[3] = "OBD and OBD-II";
+        standards[4] = "OBD-I";
+        standards[5] = "Not OBD compliant";
+        standards[6] = "EOBD (Europe)";
+        standards[7] = "EOBD and OBD-II";
+        standards[8] = "EOBD and OBD";
+        standards[9] = "EOBD, OBD and OBD II";
+        standards[10] = "JOBD (Japan)";
+        standards[11] = "JOBD and OBD II";
+        standards[12] = "JOBD and EOBD";
+        standards[13] = "JOBD, EOBD, and OBD II";
+        standards[17] = "Engine Manufacturer Diagnostics (EMD)";
+        standards[18] = "Engine Manufacturer Diagnostics Enhanced (EMD+)";
+        standards[19] = "Heavy Duty On-Board Diagnostics (Child/Partial) (HD OBD-C)";
+        standards[20] = "Heavy Duty On-Board Diagnostics (HD OBD)";
+        standards[21] = "World Wide Harmonized OBD (WWH OBD)";
+        standards[23] = "Heavy Duty Euro OBD Stage I without NOx control (HD EOBD-I)";
+        standards[24] = "Heavy Duty Euro OBD Stage I with NOx control (HD EOBD-I N)";
+        standards[25] = "Heavy Duty Euro OBD Stage II without NOx control (HD EOBD-II)";
+        standards[26] = "Heavy Duty Euro OBD Stage II with NOx control (HD EOBD-II N)";
+        standards[28] = "Brazil OBD Phase 1 (OBDBr-1)";
+        standards[29] = "Brazil OBD Phase 2 (OBDBr-2)";
+        standards[30] = "Korean OBD (KOBD)";
+        standards[31] = "India OBD I (IOBD I)";
+        standards[32] = "India OBD II (IOBD II)";
+        standards[33] = "Heavy Duty Euro OBD Stage VI (HD EOBD-IV)";
+        enumerated(0x1C, 1, "OBD standard", standards);
+        bits(0x1D, 1, "Oxygen sensors present (4 banks)",
+                field("Bank 1", 0, 0x03, STYLE_HEX),
+                field("Bank 2", 0, 0x0C, STYLE_HEX),
+                field("Bank 3", 0, 0x30, STYLE_HEX),
+                field("Bank 4", 0, 0xC0, STYLE_HEX));
+        bits(0x1E, 1, "Auxiliary input status",
+                field("Power take off", 0, 0x01, STYLE_FLAG));
+        value(0x1F, 2, "Run time since engine start", RAW_AB, 1, 0, ObdUnit.SECONDS, 0);
+
+        value(0x21, 2, "Distance traveled with MIL on", RAW_AB, 1, 0, ObdUnit.KM, 0);
+        value(0x22, 2, "Fuel rail pressure (relative to manifold vacuum)", RAW_AB, 0.079, 0, ObdUnit.KPA, 1);
+        value(0x23, 2, "Fuel rail gauge pressure", RAW_AB, 10, 0, ObdUnit.KPA, 0);
+        for (int i = 0; i < 8; i++)
+            value(0x24 + i, 4, "Oxygen sensor " + (i + 1) + " air-fuel equivalence ratio", RAW_AB, LAMBDA, 0, ObdUnit.RATIO, 3);
+        value(0x2C, 1, "Commanded EGR", RAW_A, PCT, 0, ObdUnit.PERCENT, 1);
+        value(0x2D, 1, "EGR error", RAW_A, TRIM, -100, ObdUnit.PERCENT, 1);
+        value(0x2E, 1, "Commanded evaporative purge", RAW_A, PCT, 0, ObdUnit.PERCENT, 1);
+        value(0x2F, 1, "Fuel tank level input", RAW_A, PCT, 0, ObdUnit.PERCENT, 1);
+        value(0x30, 1, "Warm-ups since codes cleared", RAW_A, 1, 0, ObdUnit.COUNT, 0);
+        value(0x31, 2, "Distance traveled since codes cleared", RAW_AB, 1, 0, ObdUnit.KM, 0);
+        value(0x32, 2, "Evap. system vapor pressure", RAW_AB_SIGNED, 0.25, 0, ObdUnit.PA, 2);
+        value(0x33, 1, "Absolute barometric pressure", RAW_A, 1, 0, ObdUnit.KPA, 0);
+        for (int i = 0; i < 8; i++)
+            value(0x34 + i, 4, "Oxygen sensor " + (i + 1) + " air-fuel equivalence ratio", RAW_AB, LAMBDA, 0, ObdUnit.RATIO, 3);
+        value(0x3C, 2, "Catalyst temperature (Bank 1, Sensor 1)", RAW_AB, 0.1, -40, ObdUnit.CELSIUS, 1);
+        value(0x3D, 2, "Catalyst temperature (Bank 2, Sensor 1)", RAW_AB, 0.1, -40, ObdUnit.CELSIUS, 1);
+        value(0x3E, 2, "Catalyst temperature (Bank 1, Sensor 2)", RAW_AB, 0.1, -40, ObdUnit.CELSIUS, 1);
+        value(0x3F, 2, "Catalyst temperature (Bank 2, Sensor 2)", RAW_AB, 0.1, -40, ObdUnit.CELSIUS, 1);
+
+        bits(0x41, 4, "Monitor status this drive cycle",
+                field("Compression ignition", 1, 0x08, STYLE_FLAG),
+                field("Test availability", 2, 0xFF, STYLE_HEX),
+                field("Test completion", 3, 0xFF, STYLE_HEX));
+        value(0x42, 2, "Control module voltage", RAW_AB, 0.001, 0, ObdUnit.VOLTS, 2);
+        value(0x43, 2, "Absolute load value", RAW_AB, PCT, 0, ObdUnit.PERCENT, 1);
+        value(0x44, 2, "Commanded air-fuel equivalence ratio", RAW_AB, LAMBDA, 0, ObdUnit.RATIO, 3);
+        value(0x45, 1, "Relative throttle position", RAW_A, PCT, 0, ObdUnit.PERCENT, 1);
+        value(0x46, 1, "Ambient air temperature", RAW_A, 1, -40, ObdUnit.CELSIUS, 0);
+        value(0x47, 1, "Absolute throttle position B", RAW_A, PCT, 0, ObdUnit.PERCENT, 1);
+        value(0x48, 1, "Absolute throttle position C", RAW_A, PCT, 0, ObdUnit.PERCENT, 1);
+        value(0x49, 1, "Accelerator pedal position D", RAW_A, PCT, 0, ObdUnit.PERCENT, 1);
+        value(0x4A, 1, "Accelerator pedal position E", RAW_A, PCT, 0, ObdUnit.PERCENT, 1);
+        value(0x4B, 1, "Accelerator pedal position F", RAW_A, PCT, 0, ObdUnit.PERCENT, 1);
+        value(0x4C, 1, "Commanded throttle actuator", RAW_A, PCT, 0, ObdUnit.PERCENT, 1);
+        value(0x4D, 2, "Time run with MIL on", RAW_AB, 1, 0, ObdUnit.MINUTES, 0);
+        value(0x4E, 2, "Time since trouble codes cleared", RAW_AB, 1, 0, ObdUnit.MINUTES, 0);
+        value(0x4F, 4, "Maximum air-fuel equivalence ratio", RAW_A, 1, 0, ObdUnit.RATIO, 0);
+        value(0x50, 4, "Maximum mass air flow rate", RAW_A, 10, 0, ObdUnit.GRAMS_PER_SEC, 0);
+        enumerated(0x51, 1, "Fuel type",
+                "Not available", "Gasoline", "Methanol", "Ethanol", "Diesel", "LPG", "CNG", "Propane",
+                "Electric", "Bifuel running Gasoline", "Bifuel running Methanol", "Bifuel running Ethanol",
+                "Bifuel running LPG", "Bifuel running CNG", "Bifuel running Propane", "Bifuel running Electricity",
+                "Bifuel running electric and combustion engine", "Hybrid gasoline", "Hybrid Ethanol", "Hybrid Diesel",
+                "Hybrid Electric", "Hybrid running electric and combustion engine", "Hybrid Regenerative",
+                "Bifuel running diesel");
+        value(0x52, 1, "Ethanol fuel", RAW_A, PCT, 0, ObdUnit.PERCENT, 1);
+        value(0x53, 2, "Absolute evap. system vapor pressure", RAW_AB, 0.005, 0, ObdUnit.KPA, 3);
+        value(0x54, 2, "Evap. system vapor pressure", RAW_AB_SIGNED, 1, 0, ObdUnit.PA, 0);
+        value(0x55, 2, "Short term secondary oxygen sensor trim (Bank 1)", RAW_A, TRIM, -100, ObdUnit.PERCENT, 1);
+        value(0x56, 2, "Long term secondary oxygen sensor trim (Bank 1)", RAW_A, TRIM, -100, ObdUnit.PERCENT, 1);
+        value(0x57, 2, "Short term secondary oxygen sensor trim (Bank 2)", RAW_A, TRIM, -100, ObdUnit.PERCENT, 1);
+        value(0x58, 2, "Long term secondary oxygen sensor trim (Bank 2)", RAW_A, TRIM, -100, ObdUnit.PERCENT, 1);
+        value(0x59, 2, "Fuel rail absolute pressure", RAW_AB, 10, 0, ObdUnit.KPA, 0);
+        value(0x5A, 1, "Relative accelerator pedal position", RAW_A, PCT, 0, ObdUnit.PERCENT, 1);
+        value(0x5B, 1, "Hybrid battery pack remaining life", RAW_A, PCT, 0, ObdUnit.PERCENT, 1);
+        value(0x5C, 1, "Engine oil temperature", RAW_A, 1, -40, ObdUnit.CELSIUS, 0);
+        value(0x5D, 2, "Fuel injection timing", RAW_AB, 1.0 / 128, -210, ObdUnit.DEGREES, 2);
+        value(0x5E, 2, "Engine fuel rate", RAW_AB, 0.05, 0, ObdUnit.LITERS_PER_HOUR, 2);
+        bits(0x5F, 1, "Emission requirements",
+                field("Requirements", 0, 0xFF, STYLE_HEX));
+
+        value(0x61, 1, "Driver's demand engine torque", RAW_A, 1, -125, ObdUnit.PERCENT, 0);
+        value(0x62, 1, "Actual engine torque", RAW_A, 1, -125, ObdUnit.PERCENT, 0);
+        value(0x63, 2, "Engine reference torque", RAW_AB, 1, 0, ObdUnit.NEWTON_METERS, 0);
+        value(0x64, 5, "Engine percent torque (idle)", RAW_A, 1, -125, ObdUnit.PERCENT, 0);
+        bits(0x65, 2, "Auxiliary input / output",
+                field("Supported", 0, 0xFF, STYLE_HEX),
+                field("Status", 1, 0xFF, STYLE_HEX));
+        value(0x66, 5, "Mass air flow sensor A", RAW_BC, 1.0 / 32, 0, ObdUnit.GRAMS_PER_SEC, 2);
+        value(0x67, 3, "Engine coolant temperature sensor 1", RAW_B, 1, -40, ObdUnit.CELSIUS, 0);
+        value(0x68, 7, "Intake air temperature sensor 1", RAW_B, 1, -40, ObdUnit.CELSIUS, 0);
+        value(0x69, 7, "Commanded EGR A duty cycle", RAW_B, PCT, 0, ObdUnit.PERCENT, 1);
+        value(0x6A, 5, "Commanded diesel intake air flow A", RAW_B, PCT, 0, ObdUnit.PERCENT, 1);
+        value(0x6B, 5, "Exhaust gas recirculation temperature 1", RAW_B, 1, -40, ObdUnit.CELSIUS, 0);
+        value(0x6C, 5, "Commanded throttle actuator A", RAW_B, PCT, 0, ObdUnit.PERCENT, 1);
+        value(0x6D, 11, "Fuel pressure control system", RAW_BC, 10, 0, ObdUnit.KPA, 0);
+        value(0x6E, 9, "Injection pressure control system", RAW_BC, 10, 0, ObdUnit.KPA, 0);
+        value(0x6F, 3, "Turbocharger compressor inlet pressure", RAW_B, 1, 0, ObdUnit.KPA, 0);
+        value(0x70, 10, "Boost pressure control", RAW_BC, 1.0 / 32, 0, ObdUnit.KPA, 1);
+        value(0x71, 6, "Variable geometry turbo control", RAW_B, PCT, 0, ObdUnit.PERCENT, 1);
+        value(0x72, 5, "Wastegate control", RAW_B, PCT, 0, ObdUnit.PERCENT, 1);
+        value(0x73, 5, "Exhaust pressure", RAW_BC, 0.01, 0, ObdUnit.KPA, 2);
+        value(0x74, 5, "Turbocharger RPM", RAW_BC, 10, 0, ObdUnit.RPM, 0);
+        value(0x75, 7, "Turbocharger A temperature", RAW_B, 1, -40, ObdUnit.CELSIUS, 0);
+        value(0x76, 7, "Turbocharger B temperature", RAW_B, 1, -40, ObdUnit.CELSIUS, 0);
+        value(0x77, 5, "Charge air cooler temperature", RAW_B, 1, -40, ObdUnit.CELSIUS, 0);
+        value(0x78, 9, "Exhaust gas temperature (Bank 1)", RAW_BC, 0.1, -40, ObdUnit.CELSIUS, 1);
+        value(0x79, 9, "Exhaust gas temperature (Bank 2)", RAW_BC, 0.1, -40, ObdUnit.CELSIUS, 1);
+        value(0x7A, 7, "Diesel particulate filter 1 differential pressure", RAW_BC, 0.01, 0, ObdUnit.KPA, 2);
+        value(0x7B, 7, "Diesel particulate filter 2 differential pressure", RAW_BC, 0.01, 0, ObdUnit.KPA, 2);
+        value(0x7C, 9, "Diesel particulate filter temperature", RAW_BC, 0.1, -40, ObdUnit.CELSIUS, 1);
+        bits(0x7D, 1, "NOx NTE control area status",
+                field("Status", 0, 0xFF, STYLE_HEX));
+        bits(0x7E, 1, "PM NTE control area status",
+                field("Status", 0, 0xFF, STYLE_HEX));
+        value(0x7F, 13, "Engine run time", RAW_B, 1, 0, ObdUnit.SECONDS, 0);
+
+        bits(0x81, 21, "Engine run time for AECD #1-#5",
+                field("Supported", 0, 0xFF, STYLE_HEX));
+        bits(0x82, 21, "Engine run time for AECD #6-#10",
+                field("Supported", 0, 0xFF, STYLE_HEX));
+        value(0x83, 9, "NOx sensor 1", RAW_BC, 1, 0, ObdUnit.PPM, 0);
+        value(0x84, 1, "Manifold surface temperature", RAW_A, 1, -40, ObdUnit.CELSIUS, 0);
+        value(0x85, 10, "Average reagent consumption", RAW_BC, 0.005, 0, ObdUnit.LITERS_PER_HOUR, 3);
+        bits(0x86, 5, "Particulate matter sensor",
+                field("Supported", 0, 0xFF, STYLE_HEX));
+        value(0x87, 5, "Intake manifold absolute pressure A", RAW_BC, 1.0 / 32, 0, ObdUnit.KPA, 1);
+        bits(0x88, 13, "SCR inducement system",
+                field("Status", 0, 0xFF, STYLE_HEX));
+        bits(0x89, 41, "Engine run time for AECD #11-#15",
+                field("Supported", 0, 0xFF, STYLE_HEX));
+        bits(0x8A, 41, "Engine run time for AECD #16-#20",
+                field("Supported", 0, 0xFF, STYLE_HEX));
+        bits(0x8B, 7, "Diesel aftertreatment",
+                field("Supported", 0, 0xFF, STYLE_HEX));
+        bits(0x8C, 17, "Oxygen sensor (wide range)",
+                field("Supported", 0, 0xFF, STYLE_HEX));
+        value(0x8D, 1, "Throttle position G", RAW_A, PCT, 0, ObdUnit.PERCENT, 1);
+        value(0x8E, 1, "Engine friction percent torque", RAW_A, 1, -125, ObdUnit.PERCENT, 0);
+        bits(0x8F, 7, "Particulate matter sensor output",
+                field("Supported", 0, 0xFF, STYLE_HEX));
+        bits(0x90, 3, "WWH-OBD vehicle OBD system information",
+                field("Status", 0, 0xFF, STYLE_HEX));
+        bits(0x91, 5, "WWH-OBD ECU OBD system information",
+                field("Status", 0, 0xFF, STYLE_HEX));
+        bits(0x92, 2, "Fuel system control",
+                field("Supported", 0, 0xFF, STYLE_HEX),
+                field("Status", 1, 0xFF, STYLE_HEX));
+        bits(0x93, 3, "WWH-OBD vehicle OBD counters support",
+                field("Supported", 0, 0xFF, STYLE_HEX));
+        bits(0x94, 12, "NOx warning and inducement system",
+                field("Supported", 0, 0xFF, STYLE_HEX));
+        value(0x98, 9, "Exhaust gas temperature sensor (Bank 1)", RAW_BC, 0.1, -40, ObdUnit.CELSIUS, 1);
+        value(0x99, 9, "Exhaust gas temperature sensor (Bank 2)", RAW_BC, 0.1, -40, ObdUnit.CELSIUS, 1);
+        bits(0x9A, 6, "Hybrid/EV system data",
+                field("Supported", 0, 0xFF, STYLE_HEX));
+        bits(0x9B, 4, "Diesel exhaust fluid sensor data",
+                field("Supported", 0, 0xFF, STYLE_HEX));
+        bits(0x9C, 17, "Oxygen sensor data",
+                field("Supported", 0, 0xFF, STYLE_HEX));
+        value(0x9D, 4, "Engine fuel rate", RAW_AB, 0.02, 0, ObdUnit.GRAMS_PER_SEC, 2);
+        value(0x9E, 2, "Engine exhaust flow rate", RAW_AB, 0.2, 0, ObdUnit.KG_PER_HOUR, 1);
+        bits(0x9F, 9, "Fuel system percentage use",
+                field("Supported", 0, 0xFF, STYLE_HEX));
+
+        value(0xA1, 9, "NOx sensor corrected 1", RAW_BC, 1, 0, ObdUnit.PPM, 0);
+        value(0xA2, 2, "Cylinder fuel rate", RAW_AB, 1.0 / 32, 0, ObdUnit.MG_PER_STROKE, 2);
+        bits(0xA3, 9, "Evap. system vapor pressure (wide range)",
+                field("Supported", 0, 0xFF, STYLE_HEX));
+        value(0xA4, 4, "Transmission actual gear ratio", RAW_CD, 0.001, 0, ObdUnit.RATIO, 3);
+        value(0xA5, 4, "Commanded diesel exhaust fluid dosing", RAW_B, 0.5, 0, ObdUnit.PERCENT, 1);
+        value(0xA6, 4, "Odometer", RAW_ABCD, 0.1, 0, ObdUnit.KM, 1);
+        bits(0xA7, 4, "NOx sensor concentration 3 and 4",
+                field("Supported", 0, 0xFF, STYLE_HEX));
+        bits(0xA8, 4, "NOx sensor corrected concentration 3 and 4",
+                field("Supported", 0, 0xFF, STYLE_HEX));
+        bits(0xA9, 4, "ABS disable switch state",
+                field("Supported", 0, 0x01, STYLE_FLAG),
+                field("Switch", 1, 0x01, STYLE_FLAG));
+    }
+}
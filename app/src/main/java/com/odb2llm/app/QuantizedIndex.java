@@ -0,0 +1,316 @@
+package com.odb2llm.app;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * approximate nearest neighbour index over a {@link ChunkIndex} for large knowledge bases
+ *
+ * IVF: the vectors are clustered with spherical k-means, a query only scans the lists of its closest
+ * centroids. vectors are stored as int8 with one scale per vector, 4x smaller than floats, in a direct
+ * or memory mapped buffer off the java heap. the best candidates are re-ranked with the exact float vectors.
+ *
+ * layout: header, centroids, list starts, row of each position, scales, int8 codes ordered by list
+ */
+final class QuantizedIndex {
+
+    private static final int MAGIC = 0x4F424451; // OBDQ
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 4 + 4;
+    private static final int TRAIN_PER_LIST = 32;   // k-means is trained on a sample of this many vectors per list
+    private static final int ITERATIONS = 6;
+    static final int RERANK = 4;                    // candidates re-ranked per result
+
+    final long key;
+    final int size;
+    final int dim;
+    final int lists;
+    private final ByteBuffer buffer;
+    private final FloatBuffer centroids;
+    private final IntBuffer listStart;
+    private final IntBuffer rows;
+    private final FloatBuffer scales;
+    private final ByteBuffer codes;
+    private final int maxList;
+
+    private QuantizedIndex(ByteBuffer buffer) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.key = buffer.getLong(8);
+        this.size = buffer.getInt(16);
+        this.dim = buffer.getInt(20);
+        this.lists = buffer.getInt(24);
+        int pos = HEADER_BYTES;
+        centroids = slice(pos).asFloatBuffer();
+        pos += 4 * lists * dim;
+        listStart = slice(pos).asIntBuffer();
+        pos += 4 * (lists + 1);
+        rows = slice(pos).asIntBuffer();
+        pos += 4 * size;
+        scales = slice(pos).asFloatBuffer();
+        pos += 4 * size;
+        codes = slice(pos);
+        int max = 0;
+        for (int list = 0; list < lists; list++)
+            max = Math.max(max, listStart.get(list + 1) - listStart.get(list));
+        maxList = max;
+    }
+
+    private ByteBuffer slice(int position) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int bytes(int size, int dim, int lists) {
+        return HEADER_BYTES + 4 * lists * dim + 4 * (lists + 1) + 4 * size + 4 * size + size * dim;
+    }
+
+    /**
+     * about sqrt(size) lists of sqrt(size) vectors each
+     */
+    static int defaultLists(int size) {
+        return Math.max(1, (int) Math.sqrt(size));
+    }
+
+    /**
+     * cluster and quantize the vectors of index into a direct buffer
+     */
+    static QuantizedIndex build(ChunkIndex index, int lists, long seed) {
+        int size = index.size, dim = index.dim;
+        lists = Math.max(1, Math.min(lists, size));
+        float[][] centroids = train(index, lists, new Random(seed));
+
+        int[] assignment = new int[size];
+        int[] counts = new int[lists];
+        for (int row = 0; row < size; row++) {
+            assignment[row] = nearest(centroids, index.vector(row));
+            counts[assignment[row]]++;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes(size, dim, lists)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(index.key).putInt(size).putInt(dim).putInt(lists);
+        for (float[] centroid : centroids)
+            for (float v : centroid)
+                buffer.putFloat(v);
+        int[] next = new int[lists];
+        int start = 0;
+        for (int list = 0; list < lists; list++) {
+            buffer.putInt(start);
+            next[list] = start;
+            start += counts[list];
+        }
+        buffer.putInt(start);
+
+        int rowsAt = buffer.position(), scalesAt = rowsAt + 4 * size, codesAt = scalesAt + 4 * size;
+        byte[] code = new byte[dim];
+        for (int row = 0; row < size; row++) {
+            int pos = next[assignment[row]]++;
+            float scale = quantize(index.vector(row), code);
+            buffer.putInt(rowsAt + 4 * pos, row);
+            buffer.putFloat(scalesAt + 4 * pos, scale);
+            ByteBuffer target = buffer.duplicate();
+            target.position(codesAt + pos * dim);
+            target.put(code);
+        }
+        buffer.position(0);
+        return new QuantizedIndex(buffer);
+    }
+
+    /**
+     * spherical k-means on a sample, centroids are normalized
+     */
+    private static float[][] train(ChunkIndex index, int lists, Random random) {
+        int samples = Math.min(index.size, lists * TRAIN_PER_LIST);
+        int[] order = new int[index.size];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        for (int i = 0; i < samples; i++) {
+            int j = i + random.nextInt(order.length - i);
+            int t = order[i]; order[i] = order[j]; order[j] = t;
+        }
+        float[][] sample = new float[samples][];
+        for (int i = 0; i < samples; i++)
+            sample[i] = index.vector(order[i]);
+
+        float[][] centroids = new float[lists][];
+        for (int list = 0; list < lists; list++)
+            centroids[list] = sample[list].clone();
+        float[][] sums = new float[lists][index.dim];
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            for (float[] sum : sums)
+                java.util.Arrays.fill(sum, 0);
+            for (float[] vector : sample) {
+                float[] sum = sums[nearest(centroids, vector)];
+                for (int i = 0; i < vector.length; i++)
+                    sum[i] += vector[i];
+            }
+            for (int list = 0; list < lists; list++) {
+                double norm = 0;
+                for (float v : sums[list])
+                    norm += v * v;
+                if (norm == 0)
+                    continue; // empty list keeps its centroid
+                float scale = (float) (1 / Math.sqrt(norm));
+                for (int i = 0; i < index.dim; i++)
+                    centroids[list][i] = sums[list][i] * scale;
+            }
+        }
+        return centroids;
+    }
+
+    private static int nearest(float[][] centroids, float[] vector) {
+        int best = 0;
+        float bestScore = Float.NEGATIVE_INFINITY;
+        for (int list = 0; list < centroids.length; list++) {
+            float score = dot(centroids[list], vector);
+            if (score > bestScore) {
+                bestScore = score;
+                best = list;
+            }
+        }
+        return best;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < a.length; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < a.length; i++)
+            s0 += a[i] * b[i];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * symmetric int8, code * scale restores the vector
+     *
+     * @return scale
+     */
+    private static float quantize(float[] vector, byte[] code) {
+        float max = 0;
+        for (float v : vector)
+            max = Math.max(max, Math.abs(v));
+        float scale = max == 0 ? 1 : max / 127;
+        for (int i = 0; i < vector.length; i++)
+            code[i] = (byte) Math.round(vector[i] / scale);
+        return scale;
+    }
+
+    /**
+     * approximate top k by cosine similarity, re-ranked with the exact vectors of index
+     *
+     * @param probes number of lists scanned
+     * @return number of results in rowsOut and scoresOut, best first
+     */
+    int search(float[] query, int k, int probes, ChunkIndex index, int[] rowsOut, float[] scoresOut) {
+        if (query.length != dim)
+            throw new IllegalArgumentException("query has " + query.length + " dimensions, expected " + dim);
+        probes = Math.max(1, Math.min(probes, lists));
+        double norm = 0;
+        for (float v : query)
+            norm += v * v;
+        float normScale = norm == 0 ? 0 : (float) (1 / Math.sqrt(norm));
+        float[] normalized = new float[dim];
+        for (int i = 0; i < dim; i++)
+            normalized[i] = query[i] * normScale;
+        query = normalized;
+
+        float[] listScores = new float[lists];
+        float[] centroid = new float[dim];
+        for (int list = 0; list < lists; list++) {
+            FloatBuffer view = centroids.duplicate();
+            view.position(list * dim);
+            view.get(centroid);
+            listScores[list] = dot(centroid, query);
+        }
+        int[] probed = ChunkIndex.top(listScores, lists, probes);
+
+        byte[] q = new byte[dim];
+        float queryScale = quantize(query, q);
+        int scanned = 0;
+        for (int list : probed)
+            scanned += listStart.get(list + 1) - listStart.get(list);
+        int[] positions = new int[scanned];
+        float[] approx = new float[scanned];
+        byte[] block = new byte[maxList * dim];
+        int n = 0;
+        for (int list : probed) {
+            int start = listStart.get(list), end = listStart.get(list + 1);
+            ByteBuffer view = codes.duplicate();
+            view.position(start * dim);
+            view.get(block, 0, (end - start) * dim);
+            for (int pos = start, off = 0; pos < end; pos++, off += dim) {
+                int acc0 = 0, acc1 = 0;
+                int i = 0;
+                for (; i + 1 < dim; i += 2) {
+                    acc0 += block[off + i] * q[i];
+                    acc1 += block[off + i + 1] * q[i + 1];
+                }
+                for (; i < dim; i++)
+                    acc0 += block[off + i] * q[i];
+                positions[n] = pos;
+                approx[n++] = (acc0 + acc1) * scales.get(pos) * queryScale;
+            }
+        }
+
+        int[] candidates = ChunkIndex.top(approx, n, k * RERANK);
+        float[] exact = new float[candidates.length];
+        for (int i = 0; i < candidates.length; i++)
+            exact[i] = index.dot(rows.get(positions[candidates[i]]), query);
+        int[] best = ChunkIndex.top(exact, exact.length, k);
+        for (int i = 0; i < best.length; i++) {
+            rowsOut[i] = rows.get(positions[candidates[best[i]]]);
+            scoresOut[i] = exact[best[i]];
+        }
+        return best.length;
+    }
+
+    /**
+     * written to a temporary file first, a crash never leaves a truncated index behind
+     */
+    void save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp); FileChannel channel = out.getChannel()) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(0);
+            while (view.hasRemaining())
+                channel.write(view);
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(file))
+            throw new IOException("rename " + tmp + " failed");
+    }
+
+    /**
+     * @return memory mapped index, null if there is none for this chunk index
+     */
+    static QuantizedIndex load(File file, ChunkIndex index) throws IOException {
+        if (!file.exists())
+            return null;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            long length = channel.size();
+            if (length < HEADER_BYTES)
+                return null;
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getLong(8) != index.key
+                    || buffer.getInt(16) != index.size || buffer.getInt(20) != index.dim)
+                return null;
+            int lists = buffer.getInt(24);
+            if (lists <= 0 || length != bytes(index.size, index.dim, lists))
+                return null;
+            return new QuantizedIndex(buffer);
+        }
+    }
+}
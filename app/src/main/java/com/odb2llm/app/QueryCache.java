@@ -0,0 +1,83 @@
+package com.odb2llm.app;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * least recently used cache of resolved queries, e.g. "read engine rpm" -> "010C"
+ * negative results ("No match found") are cached as well, repeats never reach the embedder
+ */
+final class QueryCache {
+
+    private final LinkedHashMap<String, String> map;
+    private long hits, misses;
+
+    QueryCache(final int capacity) {
+        map = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * lower case, single spaces, no surrounding whitespace or trailing punctuation,
+     * so "Read engine RPM?" and "read  engine rpm" share an entry
+     */
+    static String normalize(String query) {
+        String s = query.toLowerCase(Locale.ROOT);
+        StringBuilder sb = new StringBuilder(s.length());
+        boolean space = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+            } else {
+                if (space)
+                    sb.append(' ');
+                space = false;
+                sb.append(c);
+            }
+        }
+        int end = sb.length();
+        while (end > 0 && ".?!,;:".indexOf(sb.charAt(end - 1)) >= 0)
+            end--;
+        sb.setLength(end);
+        return sb.toString();
+    }
+
+    /**
+     * @param key normalized query
+     * @return cached result, null if unknown
+     */
+    synchronized String get(String key) {
+        String value = map.get(key);
+        if (value != null)
+            hits++;
+        else
+            misses++;
+        return value;
+    }
+
+    synchronized void put(String key, String value) {
+        map.put(key, value);
+    }
+
+    synchronized void clear() {
+        map.clear();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized int size() {
+        return map.size();
+    }
+}
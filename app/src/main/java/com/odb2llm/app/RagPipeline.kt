@@ -2,93 +2,149 @@ package com.odb2llm.app
 
 import android.app.Application
 import android.content.Context
-import com.google.ai.edge.localagents.rag.chains.ChainConfig
-import com.google.ai.edge.localagents.rag.chains.RetrievalAndInferenceChain
+import android.util.Log
 import com.google.ai.edge.localagents.rag.memory.DefaultSemanticTextMemory
-import com.google.ai.edge.localagents.rag.memory.SqliteVectorStore
-import com.google.ai.edge.localagents.rag.models.AsyncProgressListener
+import com.google.ai.edge.localagents.rag.models.EmbedData
 import com.google.ai.edge.localagents.rag.models.Embedder
+import com.google.ai.edge.localagents.rag.models.EmbeddingRequest
 import com.google.ai.edge.localagents.rag.models.GeckoEmbeddingModel
 import com.google.ai.edge.localagents.rag.models.GeminiEmbedder
-import com.google.ai.edge.localagents.rag.models.LanguageModelResponse
-import com.google.ai.edge.localagents.rag.models.MediaPipeLlmBackend
-import com.google.mediapipe.tasks.genai.llminference.LlmInference.LlmInferenceOptions
-import com.google.ai.edge.localagents.rag.prompt.PromptBuilder
 import com.google.ai.edge.localagents.rag.retrieval.RetrievalConfig
 import com.google.ai.edge.localagents.rag.retrieval.RetrievalConfig.TaskType
 import com.google.ai.edge.localagents.rag.retrieval.RetrievalRequest
-import com.google.common.collect.ImmutableList
-import com.google.common.util.concurrent.FutureCallback
-import com.google.common.util.concurrent.Futures
-import com.google.mediapipe.tasks.genai.llminference.LlmInference
 import com.google.mediapipe.tasks.genai.llminference.LlmInferenceSession
 import java.io.BufferedReader
+import java.io.File
+import java.io.IOException
 import java.io.InputStreamReader
-import java.util.concurrent.Executors
-import kotlinx.coroutines.coroutineScope
+import java.text.MessageFormat
+import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.guava.await
 import java.util.Optional
-import kotlin.jvm.optionals.getOrNull
 
 /** The RAG pipeline for LLM generation. */
 class RagPipeline(private val application: Application) {
 
-  private val GEMMA_MODEL_PATH = "${application.filesDir}/model.task"
   private val TOKENIZER_MODEL_PATH = "${application.filesDir}/sentencepiece.model"
   private val GECKO_MODEL_PATH = "${application.filesDir}/gecko.tflite"
 
-  private val mediaPipeLanguageModelOptions: LlmInferenceOptions =
-    LlmInferenceOptions.builder().setModelPath(
-      GEMMA_MODEL_PATH
-    ).setPreferredBackend(LlmInference.Backend.GPU).setMaxTokens(1024).build()
   private val mediaPipeLanguageModelSessionOptions: LlmInferenceSession.LlmInferenceSessionOptions =
     LlmInferenceSession.LlmInferenceSessionOptions.builder().setTemperature(1.0f)
       .setTopP(0.95f).setTopK(64).build()
-  private val mediaPipeLanguageModel: MediaPipeLlmBackend =
-    MediaPipeLlmBackend(
-      application.applicationContext, mediaPipeLanguageModelOptions,
-      mediaPipeLanguageModelSessionOptions
-    )
+  // one session per conversation on the shared engine, the preamble stays prefilled across turns
+  private val conversation =
+    LlmConversation(application.applicationContext, mediaPipeLanguageModelSessionOptions, PREAMBLE)
 
-  private val embedder: Embedder<String> = if (COMPUTE_EMBEDDINGS_LOCALLY) {
-    GeckoEmbeddingModel(
-      GECKO_MODEL_PATH,
-      Optional.of(TOKENIZER_MODEL_PATH),
-      USE_GPU_FOR_EMBEDDINGS,
-    )
-  } else {
-    GeminiEmbedder(
-      GEMINI_EMBEDDING_MODEL,
-      GEMINI_API_KEY
-    )
+  // Gecko and the vector store are created by the first memorize, which runs as a background startup stage
+  private val embedder: Embedder<String> by lazy {
+    if (COMPUTE_EMBEDDINGS_LOCALLY) {
+      GeckoEmbeddingModel(
+        GECKO_MODEL_PATH,
+        Optional.of(TOKENIZER_MODEL_PATH),
+        USE_GPU_FOR_EMBEDDINGS,
+      )
+    } else {
+      GeminiEmbedder(
+        GEMINI_EMBEDDING_MODEL,
+        GEMINI_API_KEY
+      )
+    }
   }
 
-  private val config = ChainConfig.create(
-    mediaPipeLanguageModel, PromptBuilder(PROMPT_TEMPLATE),
-    DefaultSemanticTextMemory(
-      // Gecko embedding model dimension is 768
-      SqliteVectorStore(768), embedder
-    )
-  )
-  private val retrievalAndInferenceChain = RetrievalAndInferenceChain(config)
-
-  init {
-    Futures.addCallback(
-      mediaPipeLanguageModel.initialize(),
-      object : FutureCallback<Boolean> {
-        override fun onSuccess(result: Boolean) {
-          // no-op
-        }
+  // chunk embeddings persisted in filesDir, keyed by knowledge base and Gecko model
+  private val vectorStore = ChunkVectorStore()
+  private val semanticMemory by lazy { DefaultSemanticTextMemory(vectorStore, embedder) }
 
-        override fun onFailure(t: Throwable) {
-          // no-op
-        }
-      },
-      Executors.newSingleThreadExecutor(),
-    )
-  }
+  // completed once the chunks are in the memory, questions asked earlier wait for it
+  private val memorized = CompletableDeferred<Unit>()
+
+  // chunks of the knowledge base and the DTCs they describe, questions naming a code skip the embedder
+  @Volatile private var chunks: List<String> = emptyList()
+  @Volatile private var dtcIndex: DtcIndex? = null
 
   fun memorizeChunks(context: Context, filename: String) {
+    try {
+      readAndMemorizeChunks(context, filename)
+    } finally {
+      memorized.complete(Unit)
+    }
+  }
+
+  /**
+   * Creates Gecko and the semantic memory and embeds a short text, a mapped index doesn't touch them and
+   * the first free-form question would pay for it.
+   */
+  fun warmUpEmbedder() {
+    semanticMemory
+    embed(listOf(EMBEDDER_WARM_UP_TEXT))
+  }
+
+  /** Loads the LLM and runs a tiny inference on it. */
+  fun warmUp(context: Context) {
+    LlmEngine.warmUp(context)
+  }
+
+  private fun readAndMemorizeChunks(context: Context, filename: String) {
+    val texts = readChunks(context, filename)
+    val codes = DtcIndex(texts)
+    chunks = texts
+    dtcIndex = codes
+    Log.d(OBDUtils.TAG, "rag: ${texts.size} chunks, ${codes.size()} codes")
+
+    val indexFile = File(context.filesDir, INDEX_FILE)
+    val modelVersion = ChunkIndex.modelVersion(File(GECKO_MODEL_PATH)) + "|" +
+      ChunkIndex.modelVersion(File(TOKENIZER_MODEL_PATH))
+    val key = context.assets.open(filename).use { ChunkIndex.key(it, modelVersion) }
+    val saved = try {
+      ChunkIndex.load(indexFile, key)
+    } catch (e: IOException) {
+      Log.w(OBDUtils.TAG, "rag index unreadable, rebuilding", e)
+      null
+    }
+    if (saved != null) {
+      vectorStore.attach(saved)
+      Log.d(OBDUtils.TAG, "rag index: ${saved.size} chunks mapped from $indexFile")
+      attachQuantized(context, saved)
+      return
+    }
+    val journal = File(context.filesDir, JOURNAL_FILE)
+    if (texts.isNotEmpty()) {
+      memorize(texts, key, journal)
+    }
+    val index = vectorStore.commit(key)
+    try {
+      index.save(indexFile)
+      journal.delete()
+    } catch (e: IOException) {
+      Log.w(OBDUtils.TAG, "rag index not saved", e)
+    }
+    attachQuantized(context, index)
+  }
+
+  /** Large knowledge bases are searched through an int8 IVF index, built once per chunk index. */
+  private fun attachQuantized(context: Context, index: ChunkIndex) {
+    if (index.size < ChunkVectorStore.IVF_MIN_SIZE)
+      return
+    val file = File(context.filesDir, QUANTIZED_FILE)
+    var quantized = try {
+      QuantizedIndex.load(file, index)
+    } catch (e: IOException) {
+      null
+    }
+    if (quantized == null) {
+      val start = System.nanoTime()
+      quantized = QuantizedIndex.build(index, QuantizedIndex.defaultLists(index.size), index.key)
+      Log.d(OBDUtils.TAG, "rag index: ${quantized.lists} lists built in ${(System.nanoTime() - start) / 1_000_000} ms")
+      try {
+        quantized.save(file)
+      } catch (e: IOException) {
+        Log.w(OBDUtils.TAG, "quantized rag index not saved", e)
+      }
+    }
+    vectorStore.attach(quantized)
+  }
+
+  private fun readChunks(context: Context, filename: String): List<String> {
     // BufferedReader is needed to read the *.txt file
     // Create and Initialize BufferedReader
     val reader = BufferedReader(InputStreamReader(context.assets.open(filename)))
@@ -113,35 +169,93 @@ class RagPipeline(private val application: Application) {
       texts.add(sb.toString())
     }
     reader.close()
-    if (texts.isNotEmpty()) {
-      return memorize(texts)
-    }
+    return texts
+  }
+
+  /**
+   * Embeds the chunks in micro-batches into the vector store. Finished batches are journaled, a run killed
+   * half way continues where it stopped.
+   */
+  private fun memorize(texts: List<String>, key: Long, journal: File) {
+    val ingest = ChunkIngest(ChunkIngest.Embedder { embed(it) }, EMBED_BATCH_SIZE, EMBED_WORKERS)
+    ingest.run(key, texts, journal, object : ChunkIngest.Listener {
+      override fun onBatch(rows: IntArray, vectors: Array<FloatArray>) {
+        rows.forEachIndexed { i, row -> vectorStore.add(row, texts[row], vectors[i]) }
+      }
+
+      override fun onProgress(done: Int, total: Int) {
+        Log.d(OBDUtils.TAG, "rag: embedded $done of $total chunks")
+      }
+    })
   }
 
-  /** Stores input texts in the semantic text memory. */
-  private fun memorize(facts: List<String>) {
-    val future = config.semanticMemory.getOrNull()?.recordBatchedMemoryItems(ImmutableList.copyOf(facts))
-    future?.get()
+  private fun embed(texts: List<String>): List<FloatArray> {
+    val request = EmbeddingRequest.create(
+      texts.map { EmbedData.builder<String>().setData(it).setTask(EmbedData.TaskType.RETRIEVAL_DOCUMENT).build() }
+    )
+    return embedder.getBatchEmbeddings(request).get().map { it.toFloatArray() }
   }
 
-  /** Generates the response from the LLM. */
+  /**
+   * Generates the response from the LLM as the next turn of the conversation. The retrieved chunks
+   * that an earlier turn didn't add are part of the turn, if they don't fit the question is asked
+   * without them.
+   */
   suspend fun generateResponse(
     prompt: String,
-    callback: AsyncProgressListener<LanguageModelResponse>?,
-  ): String =
-    coroutineScope {
-      val retrievalRequest =
-        RetrievalRequest.create(
-          prompt,
-          RetrievalConfig.create(3, 0.0f, TaskType.QUESTION_ANSWERING)
-        )
-      retrievalAndInferenceChain.invoke(retrievalRequest, callback).await().text
+    listener: (String, Boolean) -> Unit,
+  ): String {
+    memorized.await()
+    val context = retrieve(prompt)
+    if (context.isNotEmpty()) {
+      try {
+        return conversation.generate(context, listener) { newChunks ->
+          if (newChunks.isEmpty()) prompt
+          else MessageFormat.format(TURN_TEMPLATE, newChunks.joinToString(" "), prompt)
+        }
+      } catch (e: IllegalArgumentException) {
+        Log.d(OBDUtils.TAG, "rag: ${e.message}, asking without context")
+      }
+    }
+    return conversation.generate(prompt, listener)
+  }
+
+  /** Chunks of the DTCs named in the question, otherwise the nearest chunks by embedding. */
+  private suspend fun retrieve(prompt: String): List<String> {
+    val direct = dtcIndex?.lookup(prompt).orEmpty()
+    if (direct.isNotEmpty()) {
+      val texts = chunks
+      return direct.take(RETRIEVED_CHUNKS).map { texts[it] }
     }
+    val retrievalRequest =
+      RetrievalRequest.create(
+        prompt,
+        RetrievalConfig.create(RETRIEVED_CHUNKS, 0.0f, TaskType.QUESTION_ANSWERING)
+      )
+    return semanticMemory.retrieveResults(retrievalRequest).await().entities.map { it.data }
+  }
+
+  /** Forgets the previous turns, the next question starts a new session. */
+  fun resetConversation() {
+    conversation.reset()
+  }
+
+  /** Closes the conversation session, the engine may unload the model afterwards. */
+  fun close() {
+    conversation.close()
+  }
 
   companion object {
     private const val COMPUTE_EMBEDDINGS_LOCALLY = true
     private const val USE_GPU_FOR_EMBEDDINGS = true
     private const val CHUNK_SEPARATOR = "<chunk_splitter>"
+    private const val INDEX_FILE = "rag_index.bin"
+    private const val QUANTIZED_FILE = "rag_index.ivf"
+    private const val JOURNAL_FILE = "rag_index.journal"
+    private const val EMBED_BATCH_SIZE = 16
+    private const val EMBED_WORKERS = 2
+    private const val RETRIEVED_CHUNKS = 3
+    private const val EMBEDDER_WARM_UP_TEXT = "engine coolant temperature"
 
     /*
     private const val GEMMA_MODEL_PATH = "/data/local/tmp/gemma3-1b-it-int4.task"
@@ -152,8 +266,12 @@ class RagPipeline(private val application: Application) {
     private const val GEMINI_EMBEDDING_MODEL = "models/text-embedding-004"
     private const val GEMINI_API_KEY = "..."
 
-    // The prompt template for the RetrievalAndInferenceChain. It takes two inputs: {0}, which is the retrieved context, and {1}, which is the user's query.
-    private const val PROMPT_TEMPLATE: String =
-      "You are an assistant for question-answering tasks. Here are the things I want to remember: {0} Use the things I want to remember, answer the following question the user has to the point{1}"
+    // Static system prompt, prefilled once per conversation.
+    private const val PREAMBLE: String =
+      "You are an assistant for question-answering tasks about cars and their OBD2 diagnostics. Questions may come with things I want to remember, use them and answer the question the user has to the point.\n"
+
+    // One turn of the conversation. It takes two inputs: {0}, which is the retrieved context, and {1}, which is the user's query.
+    private const val TURN_TEMPLATE: String =
+      "Here are the things I want to remember: {0} Use the things I want to remember, answer the following question the user has to the point: {1}"
   }
 }
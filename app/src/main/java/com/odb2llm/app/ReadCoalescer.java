@@ -0,0 +1,27 @@
+package com.odb2llm.app;
+
+import java.util.ArrayDeque;
+
+/**
+ * frames read on the socket thread, waiting to be delivered on the main thread
+ * only the first frame after a drain has to post a runnable, later frames are picked up by the same one
+ */
+final class ReadCoalescer {
+
+    private ArrayDeque<byte[]> datas = new ArrayDeque<>();
+
+    /**
+     * @return true if datas was empty and the caller has to schedule {@link #drain()}
+     */
+    synchronized boolean add(byte[] data) {
+        boolean first = datas.isEmpty();
+        datas.add(data);
+        return first;
+    }
+
+    synchronized ArrayDeque<byte[]> drain() {
+        ArrayDeque<byte[]> result = datas;
+        datas = new ArrayDeque<>();
+        return result;
+    }
+}
@@ -0,0 +1,209 @@
+package com.odb2llm.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * turns the decoded PID stream into a few events worth commenting on
+ *
+ * threshold rules fire when a value crosses the threshold and re-arm once it is back by the hysteresis.
+ * every value PID also keeps an EWMA mean and variance, a sample more than {@link #Z_FIRE} deviations
+ * away is an anomaly until it is back within {@link #Z_REARM}. work per sample is constant: the rules of
+ * the PID and one update of its statistics. a source fires at most once per cooldown, all sources
+ * together at most once per {@link #GLOBAL_COOLDOWN_NANOS}.
+ *
+ * owned by {@link SerialService}, fed on the socket thread while rules are edited from the UI.
+ */
+final class RuleEngine {
+
+    static final double ALPHA = 0.05;               // EWMA weight of a new sample
+    static final double Z_FIRE = 6;
+    static final double Z_REARM = 3;
+    static final int WARMUP = 30;                   // samples before a PID can be anomalous
+    static final long COOLDOWN_NANOS = 60_000_000_000L;
+    static final long GLOBAL_COOLDOWN_NANOS = 15_000_000_000L;
+    private static final long NEVER = Long.MIN_VALUE / 2; // nanos - NEVER doesn't overflow
+
+    interface Listener {
+        void onEvent(Event event);
+    }
+
+    static final class Event {
+        final int pid;
+        final double value;
+        final boolean anomaly;
+        final String text;      // e.g. "Engine coolant temperature 112 °C, above the limit of 110 °C"
+
+        Event(int pid, double value, boolean anomaly, String text) {
+            this.pid = pid;
+            this.value = value;
+            this.anomaly = anomaly;
+            this.text = text;
+        }
+    }
+
+    static final class Rule {
+        final int pid;
+        final boolean above;
+        final double threshold;
+        final double hysteresis;
+        private boolean active;
+        private long firedAt = NEVER;
+
+        Rule(int pid, boolean above, double threshold, double hysteresis) {
+            this.pid = pid;
+            this.above = above;
+            this.threshold = threshold;
+            this.hysteresis = Math.abs(hysteresis);
+        }
+
+        /**
+         * "05 > 110 5": coolant above 110, re-armed below 105. hysteresis is optional
+         */
+        static Rule parse(String spec) {
+            String[] parts = spec.trim().split("\\s+");
+            if (parts.length < 3 || parts.length > 4 || !(parts[1].equals(">") || parts[1].equals("<")))
+                throw new IllegalArgumentException("expected: <pid hex> > or < <threshold> [hysteresis]");
+            try {
+                int pid = Integer.parseInt(parts[0], 16);
+                if (pid < 0 || pid > 0xff || PidRegistry.mode01(pid) == null)
+                    throw new IllegalArgumentException("unknown pid " + parts[0]);
+                double hysteresis = parts.length == 4 ? Double.parseDouble(parts[3]) : 0;
+                return new Rule(pid, parts[1].equals(">"), Double.parseDouble(parts[2]), hysteresis);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("not a number: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public String toString() {
+            PidRegistry.Pid p = PidRegistry.mode01(pid);
+            return String.format(Locale.US, "%02X %s %s %s (hysteresis %s)", pid, p.name, above ? ">" : "<",
+                    format(p, threshold), format(p, hysteresis));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private final List<Rule>[] rules = (List<Rule>[]) new List<?>[256];
+    private final double[] mean = new double[256];
+    private final double[] variance = new double[256];
+    private final int[] samples = new int[256];
+    private final boolean[] anomalous = new boolean[256];
+    private final long[] anomalyAt = new long[256];
+    private long firedAt = NEVER;
+    private Listener listener;
+
+    RuleEngine() {
+        Arrays.fill(anomalyAt, NEVER);
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * a few limits worth a comment on any car
+     */
+    void addDefaultRules() {
+        add(new Rule(0x05, true, 110, 5));      // coolant
+        add(new Rule(0x0C, true, 6000, 500));   // rpm
+        add(new Rule(0x42, false, 11.8, 0.4));  // control module voltage
+    }
+
+    synchronized void add(Rule rule) {
+        if (rules[rule.pid] == null)
+            rules[rule.pid] = new ArrayList<>(2);
+        rules[rule.pid].add(rule);
+    }
+
+    synchronized void clear() {
+        Arrays.fill(rules, null);
+    }
+
+    synchronized List<Rule> getRules() {
+        List<Rule> all = new ArrayList<>();
+        for (List<Rule> list : rules)
+            if (list != null)
+                all.addAll(list);
+        return all;
+    }
+
+    /**
+     * feed a reading of {@link OBDUtils#decodeAll}, listener is called on this thread
+     */
+    synchronized void onReading(long nanos, ObdReading r) {
+        if (r.mode != 0x41 || Double.isNaN(r.value))
+            return;
+        int pid = r.pid;
+        PidRegistry.Pid p = PidRegistry.mode01(pid);
+        if (p == null)
+            return;
+        double value = r.value;
+
+        List<Rule> list = rules[pid];
+        if (list != null) {
+            for (int i = 0; i < list.size(); i++) {
+                Rule rule = list.get(i);
+                boolean beyond = rule.above ? value > rule.threshold : value < rule.threshold;
+                if (!rule.active && beyond) {
+                    rule.active = true;
+                    if (nanos - rule.firedAt >= COOLDOWN_NANOS && fire(nanos)) {
+                        rule.firedAt = nanos;
+                        emit(new Event(pid, value, false, String.format(Locale.US, "%s %s, %s the limit of %s",
+                                p.name, format(p, value), rule.above ? "above" : "below", format(p, rule.threshold))));
+                    }
+                } else if (rule.active && (rule.above ? value < rule.threshold - rule.hysteresis
+                        : value > rule.threshold + rule.hysteresis)) {
+                    rule.active = false;
+                }
+            }
+        }
+
+        if (p.kind != PidRegistry.KIND_VALUE)
+            return;
+        double diff = value - mean[pid];
+        if (samples[pid] >= WARMUP) {
+            // floor: the resolution of the PID and 5% of the mean, a steady value has no variance
+            double deviation = Math.max(Math.sqrt(variance[pid]), Math.max(2 * p.scale, 0.05 * Math.abs(mean[pid])));
+            double z = diff / deviation;
+            if (!anomalous[pid] && Math.abs(z) > Z_FIRE) {
+                anomalous[pid] = true;
+                if (nanos - anomalyAt[pid] >= COOLDOWN_NANOS && fire(nanos)) {
+                    anomalyAt[pid] = nanos;
+                    emit(new Event(pid, value, true, String.format(Locale.US, "%s %s %s, usually %s",
+                            p.name, z > 0 ? "jumped to" : "dropped to", format(p, value), format(p, mean[pid]))));
+                }
+            } else if (anomalous[pid] && Math.abs(z) < Z_REARM) {
+                anomalous[pid] = false;
+            }
+        }
+        if (samples[pid] == 0) {
+            mean[pid] = value;
+        } else {
+            mean[pid] += ALPHA * diff;
+            variance[pid] = (1 - ALPHA) * (variance[pid] + ALPHA * diff * diff);
+        }
+        if (samples[pid] < WARMUP)
+            samples[pid]++;
+    }
+
+    private boolean fire(long nanos) {
+        if (nanos - firedAt < GLOBAL_COOLDOWN_NANOS)
+            return false;
+        firedAt = nanos;
+        return true;
+    }
+
+    private void emit(Event event) {
+        Listener l = listener;
+        if (l != null)
+            l.onEvent(event);
+    }
+
+    private static String format(PidRegistry.Pid p, double value) {
+        String number = String.format(Locale.US, "%." + p.decimals + "f", value);
+        return p.unit.symbol.isEmpty() ? number : number + " " + p.unit.symbol;
+    }
+}
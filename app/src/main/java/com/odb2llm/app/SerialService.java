@@ -12,12 +12,21 @@ import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
 
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * create notification and queue serial data while activity is not in the foreground
@@ -29,6 +38,13 @@ public class SerialService extends Service implements SerialListener {
         SerialService getService() { return SerialService.this; }
     }
 
+    private static final long RECORDER_WINDOW_NANOS = 30_000_000_000L;
+    private static final int RECORDER_CAPACITY = 512; // 30s at up to 17 Hz per pid
+    private static final int MAX_QUEUED_READS = 1024;  // frames kept for the UI while detached, newest win
+    private static final int MAX_QUEUED_EVENTS = 4;    // rule events kept while no rule listener is set
+    private static final String SNAPSHOT_DIR = "snapshots";
+    private static final int SNAPSHOTS_KEPT = 16;
+
     private enum QueueType {Connect, ConnectError, Read, IoError}
 
     private static class QueueItem {
@@ -47,11 +63,22 @@ public class SerialService extends Service implements SerialListener {
     private final Handler mainLooper;
     private final IBinder binder;
     private final ArrayDeque<QueueItem> queue1, queue2;
-    private final QueueItem lastRead;
+    private final ReadCoalescer lastRead;
+    private final PidPoller poller;
+    private final Elm327Framer framer;
+    private final FlightRecorder recorder;
+    private final RuleEngine rules;
+    private final ArrayDeque<RuleEngine.Event> events; // main thread only
+    private final ObdReading[] readings; // decoded on the socket thread only
+    private final ExecutorService storage; // closes trip log and history, saves snapshots, in order
 
-    private SerialSocket socket;
+    private volatile TripLog tripLog;
+    private volatile HistoryStore history;
+    private SerialTransport socket;
     private SerialListener listener;
+    private RuleEngine.Listener ruleListener; // main thread only
     private boolean connected;
+    private int queuedReads, droppedReads; // frames in queue2, guarded by this
 
     /**
      * Lifecylce
@@ -61,7 +88,25 @@ public class SerialService extends Service implements SerialListener {
         binder = new SerialBinder();
         queue1 = new ArrayDeque<>();
         queue2 = new ArrayDeque<>();
-        lastRead = new QueueItem(QueueType.Read);
+        lastRead = new ReadCoalescer();
+        framer = new Elm327Framer(this::onFrame);
+        poller = new PidPoller(data -> {
+            SerialTransport socket = this.socket;
+            if(!connected || socket == null)
+                throw new IOException("not connected");
+            socket.write(data);
+        });
+        recorder = new FlightRecorder(RECORDER_WINDOW_NANOS, RECORDER_CAPACITY);
+        recorder.setListener(this::onSnapshot);
+        rules = new RuleEngine();
+        rules.addDefaultRules();
+        rules.setListener(event -> mainLooper.post(() -> onRuleEvent(event)));
+        events = new ArrayDeque<>();
+        readings = new ObdReading[ObdRequestBatcher.MAX_PIDS];
+        for (int i = 0; i < readings.length; i++)
+            readings[i] = new ObdReading();
+        storage = new ThreadPoolExecutor(0, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> new Thread(r, "storage"));
     }
 
     @Override
@@ -80,7 +125,8 @@ public class SerialService extends Service implements SerialListener {
     /**
      * Api
      */
-    public void connect(SerialSocket socket) throws IOException {
+    public void connect(SerialTransport socket) throws IOException {
+        framer.clear();
         socket.connect(this);
         this.socket = socket;
         connected = true;
@@ -88,6 +134,9 @@ public class SerialService extends Service implements SerialListener {
 
     public void disconnect() {
         connected = false; // ignore data,errors while disconnecting
+        poller.stop();
+        stopTripLog();
+        closeHistory();
         cancelNotification();
         if(socket != null) {
             socket.disconnect();
@@ -98,7 +147,158 @@ public class SerialService extends Service implements SerialListener {
     public void write(byte[] data) throws IOException {
         if(!connected)
             throw new IOException("not connected");
-        socket.write(data);
+        if(poller.isRunning())
+            poller.command(data); // keep single request in flight
+        else
+            socket.write(data);
+    }
+
+    /**
+     * poll pid in background at hz, also while no UI is attached. hz <= 0 removes the pid
+     */
+    public void setPollRate(int pid, double hz) {
+        poller.setRate(pid, hz);
+    }
+
+    public void startPolling() throws IOException {
+        if(!connected)
+            throw new IOException("not connected");
+        poller.start();
+    }
+
+    public void stopPolling() {
+        poller.stop();
+    }
+
+    public boolean isPolling() {
+        return poller.isRunning();
+    }
+
+    /**
+     * log raw bytes and decoded readings to file until disconnect, replay it with {@link TripReplay}
+     */
+    public void startTripLog(File file) throws IOException {
+        stopTripLog();
+        tripLog = new TripLog(file, System.currentTimeMillis());
+    }
+
+    /**
+     * the log is flushed, forced and truncated in the background
+     */
+    public void stopTripLog() {
+        TripLog tripLog = this.tripLog;
+        if (tripLog == null)
+            return;
+        this.tripLog = null;
+        storage.execute(() -> {
+            try {
+                tripLog.close();
+                if (tripLog.getDropped() > 0)
+                    Log.w(OBDUtils.TAG, "trip log: dropped " + tripLog.getDropped() + " records");
+            } catch (IOException e) {
+                Log.w(OBDUtils.TAG, "trip log " + tripLog.file + " failed", e);
+            }
+        });
+    }
+
+    /**
+     * keep decoded Mode 01 values in the history of a vehicle until disconnect. reads the segment directory,
+     * after the segments of a store closed before are written. not on the main thread
+     */
+    public void openHistory(File dir) throws IOException {
+        try {
+            storage.submit(() -> { }).get();
+        } catch (ExecutionException | InterruptedException e) {
+            throw new IOException("history still closing", e);
+        }
+        HistoryStore history = new HistoryStore(dir, System.currentTimeMillis());
+        closeHistory();
+        this.history = history;
+        if (!connected)
+            closeHistory(); // disconnected while reading the directory
+    }
+
+    /**
+     * the final segment is written in the background
+     */
+    public void closeHistory() {
+        HistoryStore history = this.history;
+        this.history = null;
+        if (history != null)
+            storage.execute(history::close);
+    }
+
+    /**
+     * @return history of the connected vehicle, null if none is open
+     */
+    public HistoryStore getHistory() {
+        return history;
+    }
+
+    /**
+     * scheduler of the periodic PID requests, for its latency and batch size
+     */
+    public PidPoller getPoller() {
+        return poller;
+    }
+
+    /**
+     * last seconds of every decoded value and the snapshots frozen on MIL / new DTC
+     */
+    public FlightRecorder getFlightRecorder() {
+        return recorder;
+    }
+
+    /**
+     * @return directory of the saved snapshots, trip logs named snapshot-<millis>.trip
+     */
+    public File getSnapshotDir() {
+        return new File(getFilesDir(), SNAPSHOT_DIR);
+    }
+
+    /**
+     * saved in the background, the newest {@link #SNAPSHOTS_KEPT} are kept
+     */
+    private void onSnapshot(FlightRecorder.Snapshot snapshot) {
+        Log.i(OBDUtils.TAG, "flight recorder: " + snapshot.reason + ", " + snapshot.series.size() + " pids frozen");
+        File dir = getSnapshotDir();
+        long millis = System.currentTimeMillis();
+        storage.execute(() -> {
+            try {
+                if (!dir.isDirectory() && !dir.mkdirs())
+                    throw new IOException("can't create " + dir);
+                TripLog.prune(dir, SNAPSHOTS_KEPT - 1);
+                FlightRecorder.save(snapshot, new File(dir, "snapshot-" + millis + TripLog.SUFFIX), millis);
+            } catch (IOException e) {
+                Log.w(OBDUtils.TAG, "flight recorder: snapshot not saved", e);
+            }
+        });
+    }
+
+    /**
+     * threshold rules and anomaly detection on every decoded value, also while no UI is attached
+     */
+    public RuleEngine getRuleEngine() {
+        return rules;
+    }
+
+    /**
+     * receive fired rule events on the main thread, the last events fired while none was set are delivered now
+     */
+    public void setRuleListener(RuleEngine.Listener listener) {
+        ruleListener = listener;
+        while(listener != null && !events.isEmpty())
+            listener.onEvent(events.poll());
+    }
+
+    private void onRuleEvent(RuleEngine.Event event) {
+        if(ruleListener != null) {
+            ruleListener.onEvent(event);
+        } else {
+            if(events.size() == MAX_QUEUED_EVENTS)
+                events.poll();
+            events.add(event);
+        }
     }
 
     public void attach(SerialListener listener) {
@@ -129,6 +329,10 @@ public class SerialService extends Service implements SerialListener {
         }
         queue1.clear();
         queue2.clear();
+        if(droppedReads > 0)
+            Log.i(OBDUtils.TAG, "dropped " + droppedReads + " frames while detached");
+        queuedReads = 0;
+        droppedReads = 0;
     }
 
     public void detach() {
@@ -223,20 +427,38 @@ public class SerialService extends Service implements SerialListener {
 
     public void onSerialRead(byte[] data) {
         if(connected) {
+            TripLog tripLog = this.tripLog;
+            if (tripLog != null)
+                tripLog.raw(SystemClock.elapsedRealtimeNanos(), data);
+            framer.feed(data, 0, data.length);
+        }
+    }
+
+    /**
+     * complete response between two '>' prompts, buf is reused by the framer
+     */
+    private void onFrame(byte[] buf, int off, int len) {
+        if(connected) {
+            long now = SystemClock.elapsedRealtimeNanos();
+            int n = OBDUtils.decodeAll(buf, off, len, readings);
+            poller.onFrame(readings, n);
+            TripLog tripLog = this.tripLog;
+            HistoryStore history = this.history;
+            long millis = n > 0 && history != null ? System.currentTimeMillis() : 0;
+            for (int i = 0; i < n; i++) {
+                recorder.record(now, readings[i]);
+                rules.onReading(now, readings[i]);
+                if (tripLog != null)
+                    tripLog.reading(now, readings[i]);
+                if (history != null)
+                    history.add(millis, readings[i]);
+            }
+            byte[] data = Arrays.copyOfRange(buf, off, off + len);
             synchronized (this) {
                 if (listener != null) {
-                    boolean first;
-                    synchronized (lastRead) {
-                        first = lastRead.datas.isEmpty(); // (1)
-                        lastRead.add(data); // (3)
-                    }
-                    if(first) {
+                    if(lastRead.add(data)) {
                         mainLooper.post(() -> {
-                            ArrayDeque<byte[]> datas;
-                            synchronized (lastRead) {
-                                datas = lastRead.datas;
-                                lastRead.init(); // (2)
-                            }
+                            ArrayDeque<byte[]> datas = lastRead.drain();
                             if (listener != null) {
                                 listener.onSerialRead(datas);
                             } else {
@@ -245,14 +467,31 @@ public class SerialService extends Service implements SerialListener {
                         });
                     }
                 } else {
+                    // recorder, trip log and history already have every frame, the UI only needs the latest
+                    if(queuedReads == MAX_QUEUED_READS)
+                        dropOldestRead();
                     if(queue2.isEmpty() || queue2.getLast().type != QueueType.Read)
                         queue2.add(new QueueItem(QueueType.Read));
                     queue2.getLast().add(data);
+                    queuedReads++;
                 }
             }
         }
     }
 
+    private void dropOldestRead() {
+        for(QueueItem item : queue2) {
+            if(item.type == QueueType.Read) {
+                item.datas.poll();
+                if(item.datas.isEmpty())
+                    queue2.remove(item);
+                queuedReads--;
+                droppedReads++;
+                return;
+            }
+        }
+    }
+
     public void onSerialIoError(Exception e) {
         if(connected) {
             synchronized (this) {
@@ -16,7 +16,7 @@ import java.util.Arrays;
 import java.util.UUID;
 import java.util.concurrent.Executors;
 
-class SerialSocket implements Runnable {
+class SerialSocket implements SerialTransport, Runnable {
 
     private static final UUID BLUETOOTH_SPP = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
 
@@ -43,20 +43,20 @@ class SerialSocket implements Runnable {
         };
     }
 
-    String getName() {
+    @Override
+    public String getName() {
         return device.getName() != null ? device.getName() : device.getAddress();
     }
 
-    /**
-     * connect-success and most connect-errors are returned asynchronously to listener
-     */
-    void connect(SerialListener listener) throws IOException {
+    @Override
+    public void connect(SerialListener listener) throws IOException {
         this.listener = listener;
         ContextCompat.registerReceiver(context, disconnectBroadcastReceiver, new IntentFilter(Constants.INTENT_ACTION_DISCONNECT), ContextCompat.RECEIVER_NOT_EXPORTED);
         Executors.newSingleThreadExecutor().submit(this);
     }
 
-    void disconnect() {
+    @Override
+    public void disconnect() {
         listener = null; // ignore remaining data and errors
         // connected = false; // run loop will reset connected
         if(socket != null) {
@@ -72,7 +72,8 @@ class SerialSocket implements Runnable {
         }
     }
 
-    void write(byte[] data) throws IOException {
+    @Override
+    public void write(byte[] data) throws IOException {
         if (!connected)
             throw new IOException("not connected");
         socket.getOutputStream().write(data);
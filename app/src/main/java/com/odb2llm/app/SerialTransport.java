@@ -0,0 +1,16 @@
+package com.odb2llm.app;
+
+import java.io.IOException;
+
+/**
+ * byte stream to an ELM327, implemented by the bluetooth {@link SerialSocket}, the {@link Elm327Simulator} and {@link TripReplay}
+ */
+interface SerialTransport {
+    String getName();
+    /**
+     * connect-success and most connect-errors are returned asynchronously to listener
+     */
+    void connect(SerialListener listener) throws IOException;
+    void disconnect();
+    void write(byte[] data) throws IOException;
+}
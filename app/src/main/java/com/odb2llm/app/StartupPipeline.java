@@ -0,0 +1,146 @@
+package com.odb2llm.app;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * staged model loading at app start
+ *
+ * all models are loaded on one low priority thread, lowest priority value first. the small intent model
+ * and its phrase index are queued by {@link MainActivity} before the download check, so they run first and an
+ * OBD query never waits for the big models (Gecko + RAG memory, Gemma), which don't compete with each other
+ * for memory bandwidth either.
+ */
+final class StartupPipeline {
+
+    static final int PRIORITY_INTENT = 0;
+    static final int PRIORITY_RAG = 1;
+    static final int PRIORITY_LLM = 2;
+
+    interface Stage {
+        void run() throws Exception;
+    }
+
+    private static final StartupPipeline INSTANCE = new StartupPipeline();
+
+    private final long startMillis = SystemClock.elapsedRealtime();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<String, Long> timings = new LinkedHashMap<>();
+    private final Map<String, SettableFuture<Void>> results = new LinkedHashMap<>();
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }, "startup");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    static StartupPipeline get() {
+        return INSTANCE;
+    }
+
+    private StartupPipeline() {
+    }
+
+    /**
+     * queue a background stage, stages with the same name are only run once
+     *
+     * @return completes when the stage is done, with its exception if it failed
+     */
+    synchronized ListenableFuture<Void> submit(String name, int priority, Stage stage) {
+        SettableFuture<Void> result = results.get(name);
+        if (result != null)
+            return result;
+        result = SettableFuture.create();
+        results.put(name, result);
+        timings.put(name, -1L);
+        executor.execute(new Task(name, priority, sequence.getAndIncrement(), stage, result));
+        return result;
+    }
+
+    /**
+     * timing of a stage that ran elsewhere
+     */
+    void record(String name, long millis) {
+        synchronized (this) {
+            timings.put(name, millis);
+        }
+        Log.d(OBDUtils.TAG, String.format(Locale.US, "startup: %s %d ms, %d ms after start",
+                name, millis, SystemClock.elapsedRealtime() - startMillis));
+    }
+
+    /**
+     * stage durations in ms, "pending" for stages not done yet
+     */
+    synchronized String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : timings.entrySet()) {
+            if (sb.length() > 0)
+                sb.append(", ");
+            sb.append(e.getKey()).append(' ');
+            if (e.getValue() < 0)
+                sb.append("pending");
+            else
+                sb.append(e.getValue()).append(" ms");
+        }
+        return sb.toString();
+    }
+
+    private final class Task implements Runnable, Comparable<Task> {
+        final String name;
+        final int priority;
+        final long sequence;
+        final Stage stage;
+        final SettableFuture<Void> result;
+        final long queuedMillis = SystemClock.elapsedRealtime();
+
+        Task(String name, int priority, long sequence, Stage stage, SettableFuture<Void> result) {
+            this.name = name;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.stage = stage;
+            this.result = result;
+        }
+
+        @Override
+        public void run() {
+            long start = SystemClock.elapsedRealtime();
+            Exception failure = null;
+            try {
+                stage.run();
+            } catch (Exception e) {
+                Log.e(OBDUtils.TAG, "startup: " + name + " failed", e);
+                failure = e;
+            }
+            Log.d(OBDUtils.TAG, String.format(Locale.US, "startup: %s queued %d ms", name, start - queuedMillis));
+            record(name, SystemClock.elapsedRealtime() - start);
+            if (failure != null)
+                result.setException(failure);
+            else
+                result.set(null);
+        }
+
+        @Override
+        public int compareTo(@NonNull Task other) {
+            if (priority != other.priority)
+                return Integer.compare(priority, other.priority);
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.odb2llm.app;
+
+import android.view.Gravity;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * renders the {@link TerminalLog}, only visible messages have views, so the cost per message
+ * doesn't grow with the session. follows new messages while scrolled to the bottom
+ */
+class TerminalAdapter extends RecyclerView.Adapter<TerminalAdapter.ViewHolder> implements TerminalLog.Listener {
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView text;
+
+        ViewHolder(TextView text) {
+            super(text);
+            this.text = text;
+        }
+    }
+
+    private final TerminalLog log;
+    private final RecyclerView recyclerView;
+    private final int[] colors = new int[4];
+
+    TerminalAdapter(TerminalLog log, RecyclerView recyclerView) {
+        this.log = log;
+        this.recyclerView = recyclerView;
+        colors[TerminalLog.TYPE_STATUS] = ContextCompat.getColor(recyclerView.getContext(), R.color.colorStatusText);
+        colors[TerminalLog.TYPE_SEND] = ContextCompat.getColor(recyclerView.getContext(), R.color.colorSendText);
+        colors[TerminalLog.TYPE_RECEIVE] = ContextCompat.getColor(recyclerView.getContext(), R.color.colorRecieveText);
+        colors[TerminalLog.TYPE_RESPONSE] = ContextCompat.getColor(recyclerView.getContext(), R.color.colorRecieveText);
+    }
+
+    @Override
+    public int getItemCount() {
+        return log.size();
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return log.type(position);
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        TextView text = (TextView) LayoutInflater.from(parent.getContext()).inflate(R.layout.terminal_item, parent, false);
+        text.setTextColor(colors[viewType]);
+        text.setGravity(viewType == TerminalLog.TYPE_RECEIVE ? Gravity.END : Gravity.START);
+        if (viewType == TerminalLog.TYPE_SEND)
+            text.setPadding(text.getPaddingLeft(), text.getPaddingBottom() * 3, text.getPaddingRight(), text.getPaddingBottom() * 3);
+        return new ViewHolder(text);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        holder.text.setText(log.text(position));
+    }
+
+    private boolean atBottom() {
+        return !recyclerView.canScrollVertically(1);
+    }
+
+    @Override
+    public void onInserted(int position) {
+        boolean follow = atBottom();
+        notifyItemInserted(position);
+        if (follow)
+            recyclerView.scrollToPosition(position);
+    }
+
+    @Override
+    public void onChanged(int position) {
+        boolean follow = atBottom();
+        notifyItemChanged(position);
+        if (follow) // the streamed response grows by less than a screen per frame, scrolling is clamped at the end
+            recyclerView.post(() -> recyclerView.scrollBy(0, recyclerView.getHeight()));
+    }
+
+    @Override
+    public void onRemoved(int position) {
+        notifyItemRemoved(position);
+    }
+}
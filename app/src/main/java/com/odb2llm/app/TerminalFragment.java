@@ -1,5 +1,4 @@
 package com.odb2llm.app;
-import static com.odb2llm.app.OBDUtils.decodeOBDResponse;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.content.ComponentName;
@@ -7,17 +6,12 @@ import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.Bundle;
 import android.os.IBinder;
-import android.text.Editable;
-import android.text.Layout;
-import android.text.Spannable;
-import android.text.SpannableString;
-import android.text.SpannableStringBuilder;
-import android.text.Spanned;
-import android.text.method.ScrollingMovementMethod;
-import android.text.style.AlignmentSpan;
-import android.text.style.ForegroundColorSpan;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
@@ -26,24 +20,46 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
 import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 
 public class TerminalFragment extends Fragment implements ServiceConnection, SerialListener {
 
-    private String previousResponse = "";
+    private FrameAppender responseAppender;
     private enum Connected { False, Pending, True }
     private ExecutorService executorService;
     private String deviceAddress;
     private SerialService service;
-    public  TextView receiveText;
+    private RecyclerView receiveText;
+    private TerminalLog log;
     private TextView sendText;
     private Connected connected = Connected.False;
     private boolean initialStart = true;
-    private boolean pendingNewline = false;
-    private String newline = TextUtil.newline_crlf;
+    private final ObdReading[] readings = new ObdReading[ObdRequestBatcher.MAX_PIDS];
+    private static final byte[] NO_DATA = "NO DATA".getBytes();
+    private final ObdRequestBatcher batcher = new ObdRequestBatcher();
+    private long requestTime; // 0 if no request is waiting for the '>' prompt
+    private static final long REQUEST_TIMEOUT_MS = 2000;
+    // dashboard PIDs polled in background and their rate in Hz: RPM, speed, load, coolant
+    private static final int[] POLL_PIDS = {0x0C, 0x0D, 0x04, 0x05};
+    private static final double[] POLL_HZ = {10, 5, 2, 0.2};
+    private static final String TRIPS_DIR = "trips";
+    private static final String HISTORY_DIR = "history";
+    private static final long HISTORY_QUERY_MILLIS = 7 * 24 * HistoryStore.HOUR;
+    private static final int TRIPS_KEPT = 10;
+    private static final double REPLAY_SPEED = 1;
+    private static final String COMMENT_PROMPT = "As a mechanic, comment in one sentence: ";
     private TextEmbeddingsViewModel textEmbeddingsViewModel;
     private ChatViewModel chatviewModel;
 
@@ -55,14 +71,17 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
                     "- Read DTC error codes\n" +
                     "- What does code P0420 mean?\n" +
                     "- What are Symtomps of p0420?\n" +
-                    "- Why is coolant important?\n";
+                    "- Why is coolant important?\n" +
+                    "- rule 05 > 105 5 (comment when coolant passes 105 °C)\n";
 
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        textEmbeddingsViewModel = new ViewModelProvider(this).get(TextEmbeddingsViewModel.class);
-        textEmbeddingsViewModel.setUpMLModel(requireActivity().getApplicationContext());
+        for (int i = 0; i < readings.length; i++)
+            readings[i] = new ObdReading();
+        textEmbeddingsViewModel = new ViewModelProvider(requireActivity()).get(TextEmbeddingsViewModel.class); // loaded by MainActivity
+        log = new ViewModelProvider(this).get(TerminalLog.class);
         executorService = Executors.newSingleThreadExecutor(); // or cachedThreadPool, depending on your needs
 
         setHasOptionsMenu(true);
@@ -84,39 +103,40 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
         super.onDestroy();
     }
 
+    @Override
+    public void onDestroyView() {
+        responseAppender.cancel();
+        log.setListener(null);
+        super.onDestroyView();
+    }
+
 
     @Override
     public void onStart() {
         super.onStart();
        // new ModelDownloader(requireContext(), executorService, this::status).downloadModels();
-        if(service != null)
+        if(service != null) {
             service.attach(this);
-        else {
+            service.setRuleListener(this::onRuleEvent);
+        } else {
             requireActivity().startService(new Intent(getActivity(), SerialService.class)); // prevents service destroy on unbind from recreated activity caused by orientation change
             requireActivity().bindService(new Intent(getActivity(), SerialService.class), this, 0); // this binds and triggers onServiceConnected
         }
-        chatviewModel.getLastResponseText().observe(getViewLifecycleOwner(), responseText -> {
-            if (responseText != null && !responseText.isEmpty()) {
-                if (responseText.startsWith(previousResponse)) {
-                    // Append only the new part
-                    String newText = responseText.substring(previousResponse.length());
-                    if (!newText.isEmpty()) {
-                        receiveText.append(newText);
-                    }
-                } else {
-                    // If response changed, append full text
-                    receiveText.append("\n" + responseText);
-                }
-                previousResponse = responseText;
-            }
+        chatviewModel.setResponseListener((delta, done) -> {
+            responseAppender.append(delta);
+            if (done)
+                responseAppender.end();
         });
         status(INTRO_MESSAGE);
     }
 
     @Override
     public void onStop() {
-        if(service != null && !getActivity().isChangingConfigurations())
+        chatviewModel.setResponseListener(null);
+        if(service != null && !getActivity().isChangingConfigurations()) {
+            service.setRuleListener(null);
             service.detach();
+        }
         super.onStop();
     }
 
@@ -126,6 +146,45 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
         super.onDetach();
     }
 
+    @Override
+    public void onCreateOptionsMenu(@NonNull Menu menu, @NonNull MenuInflater inflater) {
+        inflater.inflate(R.menu.menu_terminal, menu);
+    }
+
+    @Override
+    public void onPrepareOptionsMenu(@NonNull Menu menu) {
+        menu.findItem(R.id.polling).setChecked(service != null && service.isPolling());
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == R.id.polling) {
+            if (service == null)
+                return true;
+            if (service.isPolling()) {
+                service.stopPolling();
+                status("polling stopped");
+            } else {
+                try {
+                    for (int i = 0; i < POLL_PIDS.length; i++)
+                        service.setPollRate(POLL_PIDS[i], POLL_HZ[i]);
+                    service.startPolling();
+                    status("polling started");
+                } catch (Exception e) {
+                    status("polling failed: " + e.getMessage());
+                }
+            }
+            requireActivity().invalidateOptionsMenu();
+            return true;
+        }
+        if (item.getItemId() == R.id.new_chat) {
+            chatviewModel.resetConversation();
+            status("new conversation");
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
     @Override
     public void onResume() {
         super.onResume();
@@ -139,6 +198,7 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
     public void onServiceConnected(ComponentName name, IBinder binder) {
         service = ((SerialService.SerialBinder) binder).getService();
         service.attach(this);
+        service.setRuleListener(this::onRuleEvent);
         if(initialStart && isResumed()) {
             initialStart = false;
             requireActivity().runOnUiThread(this::connect);
@@ -153,9 +213,15 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.fragment_terminal, container, false);
-        receiveText = view.findViewById(R.id.receive_text);                          // TextView performance decreases with number of spans
-        receiveText.setTextColor(getResources().getColor(R.color.colorRecieveText)); // set as default color to reduce number of spans
-        receiveText.setMovementMethod(ScrollingMovementMethod.getInstance());
+        receiveText = view.findViewById(R.id.receive_text); // only visible messages are laid out, one view per message
+        LinearLayoutManager layoutManager = new LinearLayoutManager(getContext());
+        layoutManager.setStackFromEnd(true);
+        receiveText.setLayoutManager(layoutManager);
+        receiveText.setItemAnimator(null); // streamed responses change every frame
+        TerminalAdapter adapter = new TerminalAdapter(log, receiveText);
+        receiveText.setAdapter(adapter);
+        log.setListener(adapter);
+        responseAppender = new FrameAppender(log::appendResponse);
 
         sendText = view.findViewById(R.id.send_text);
         View sendBtn = view.findViewById(R.id.send_btn);
@@ -165,19 +231,59 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
 
     private void connect() {
         try {
-            BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-            BluetoothDevice device = bluetoothAdapter.getRemoteDevice(deviceAddress);
+            SerialTransport socket;
+            File trips = new File(requireContext().getFilesDir(), TRIPS_DIR);
+            if (TripReplay.ADDRESS.equals(deviceAddress)) {
+                File trip = TripLog.latest(trips);
+                if (trip == null)
+                    throw new IOException("no trip recorded");
+                socket = new TripReplay(trip, REPLAY_SPEED);
+            } else if (Elm327Simulator.ADDRESS.equals(deviceAddress)) {
+                socket = new Elm327Simulator(new Elm327Simulator.ScriptedVehicle(), 50_000, 20_000, 16, System.nanoTime());
+            } else {
+                BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+                BluetoothDevice device = bluetoothAdapter.getRemoteDevice(deviceAddress);
+                socket = new SerialSocket(requireActivity().getApplicationContext(), device);
+            }
 
             // status("Connecting to OBD2 Module ");
             Log.d(OBDUtils.TAG, "connecting to obd2 Module");
             connected = Connected.Pending;
-            SerialSocket socket = new SerialSocket(requireActivity().getApplicationContext(), device);
             service.connect(socket);
+            if (!TripReplay.ADDRESS.equals(deviceAddress)) {
+                startTripLog(trips);
+                openHistory(new File(new File(requireContext().getFilesDir(), HISTORY_DIR), deviceAddress.replace(':', '_')));
+            }
         } catch (Exception e) {
             onSerialConnectError(e);
         }
     }
 
+    private void startTripLog(File trips) {
+        try {
+            if (!trips.isDirectory() && !trips.mkdirs())
+                throw new IOException("can't create " + trips);
+            TripLog.prune(trips, TRIPS_KEPT - 1);
+            service.startTripLog(new File(trips, "trip-" + System.currentTimeMillis() + TripLog.SUFFIX));
+        } catch (IOException e) {
+            Log.w(OBDUtils.TAG, "trip log not started", e); // connection works without it
+        }
+    }
+
+    /**
+     * history is kept per adapter, the adapter stays in one vehicle
+     */
+    private void openHistory(File dir) {
+        SerialService service = this.service;
+        executorService.submit(() -> {
+            try {
+                service.openHistory(dir);
+            } catch (IOException e) {
+                Log.w(OBDUtils.TAG, "history not opened", e);
+            }
+        });
+    }
+
     private void disconnect() {
         connected = Connected.False;
         service.disconnect();
@@ -191,31 +297,8 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
             updatedPrompt = inferenceModel.generateResponse(prompt);  // Get the generated response.
             Log.d("LLMInference", "Generated response: " + updatedPrompt);
             if (getActivity() != null) {
-                SpannableStringBuilder spannablePrompt = new SpannableStringBuilder(updatedPrompt + '\n'); // Combine updatedPrompt and newline
-                int promptLength = updatedPrompt.length(); // Save prompt length for span application
-
-                // Ensure prompt length doesn't exceed the spannable text length
-                if (promptLength > spannablePrompt.length()) {
-                    Log.e("SpanError", "Prompt length exceeds spannable text length. Adjusting.");
-                    promptLength = spannablePrompt.length();
-                    spannablePrompt.setSpan(
-                            new ForegroundColorSpan(getResources().getColor(R.color.colorRecieveText)),
-                            0,
-                            promptLength,
-                            Spannable.SPAN_EXCLUSIVE_EXCLUSIVE
-                    );
-                } else {
-                    spannablePrompt.setSpan(
-                            new ForegroundColorSpan(getResources().getColor(R.color.colorRecieveText)),
-                            0,
-                            promptLength,
-                            Spannable.SPAN_EXCLUSIVE_EXCLUSIVE
-                    );
-                }
-
-                // Apply span with validated range
-                spannablePrompt.setSpan(new AlignmentSpan.Standard(Layout.Alignment.ALIGN_OPPOSITE), 0, promptLength, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                getActivity().runOnUiThread(() -> receiveText.append(spannablePrompt));
+                String response = updatedPrompt;
+                getActivity().runOnUiThread(() -> log.add(TerminalLog.TYPE_RESPONSE, response));
             }
         } catch (Exception e) {
             Log.e(OBDUtils.TAG, "Unexpected error occurred: " + e.getMessage(), e);
@@ -224,15 +307,164 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
 
     private void send(String str) {
         sendText.setText("");
-        SpannableString prompt = new SpannableString("\n" + str + "\n\n");
-        prompt.setSpan(new ForegroundColorSpan(getResources().getColor(R.color.colorSendText)), 0, prompt.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-        prompt.setSpan(new AlignmentSpan.Standard(Layout.Alignment.ALIGN_NORMAL), 0, prompt.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-        receiveText.append(prompt);  // Append the message to receiveText immediately
+        log.add(TerminalLog.TYPE_SEND, str);  // Append the message to the log immediately
+
+        String command = str.trim();
+        if (command.equals("rules") || command.startsWith("rule ")) {
+            rule(command.substring(5).trim());
+            return;
+        }
+        if (command.equals("stats")) {
+            stats();
+            return;
+        }
+        if (command.equals("snapshot") || command.equals("snapshots")) {
+            snapshot(command.equals("snapshot"));
+            return;
+        }
+        if (command.startsWith("history ")) {
+            history(command.substring(8).trim());
+            return;
+        }
+        // the OBD2 command is sent when the match resolves, a newer prompt cancels this one
+        textEmbeddingsViewModel.calculateSimilarity(str, decodedobd2code -> onMatch(str, decodedobd2code));
+    }
+
+    /**
+     * "rule 05 > 110 5" adds a rule, "rules" lists them, "rule clear" removes them
+     * rules live in the service and survive a recreated fragment
+     */
+    private void rule(String spec) {
+        if (service == null) {
+            status("rule: service not bound");
+            return;
+        }
+        RuleEngine ruleEngine = service.getRuleEngine();
+        if (spec.isEmpty()) {
+            for (RuleEngine.Rule rule : ruleEngine.getRules())
+                status("rule " + rule);
+        } else if (spec.equals("clear")) {
+            ruleEngine.clear();
+            status("rules cleared");
+        } else {
+            try {
+                RuleEngine.Rule rule = RuleEngine.Rule.parse(spec);
+                ruleEngine.add(rule);
+                status("rule " + rule);
+            } catch (IllegalArgumentException e) {
+                status("rule: " + e.getMessage());
+            }
+        }
+    }
 
-        String decodedobd2code = textEmbeddingsViewModel.calculateSimilarity(str);
+    /**
+     * "history 05" shows min, average and max of a PID over the last week of the connected vehicle
+     */
+    private void history(String spec) {
+        PidRegistry.Pid p;
+        try {
+            p = PidRegistry.mode01(Integer.parseInt(spec, 16));
+        } catch (NumberFormatException e) {
+            p = null;
+        }
+        HistoryStore history = service != null ? service.getHistory() : null;
+        if (p == null || history == null) {
+            status(p == null ? "history: expected <pid hex>" : "history: not connected");
+            return;
+        }
+        PidRegistry.Pid pid = p;
+        executorService.submit(() -> {
+            String text;
+            try {
+                long now = System.currentTimeMillis();
+                HistoryStore.Aggregate week = history.aggregate(pid.pid, now - HISTORY_QUERY_MILLIS, now);
+                text = week.count == 0 ? "history: no " + pid.name + " in the last 7 days"
+                        : String.format(Locale.US, "history: %s over 7 days, min %s, avg %s, max %s, %d samples",
+                        pid.name, format(pid, week.min), format(pid, week.avg()), format(pid, week.max), week.count);
+            } catch (IOException e) {
+                text = "history: " + e.getMessage();
+            }
+            String result = text;
+            if (getActivity() != null)
+                getActivity().runOnUiThread(() -> status(result));
+        });
+    }
+
+    private static String format(PidRegistry.Pid p, double value) {
+        String number = String.format(Locale.US, "%." + p.decimals + "f", value);
+        return p.unit.symbol.isEmpty() ? number : number + " " + p.unit.symbol;
+    }
+
+    /**
+     * "snapshot" freezes the last seconds now, e.g. right after a stall, "snapshots" lists the saved ones
+     */
+    private void snapshot(boolean freeze) {
+        if (service == null) {
+            status("snapshot: service not bound");
+            return;
+        }
+        if (freeze) {
+            FlightRecorder.Snapshot snapshot = service.getFlightRecorder()
+                    .trigger("manual", SystemClock.elapsedRealtimeNanos());
+            status("snapshot: " + snapshot.series.size() + " pids frozen");
+            return;
+        }
+        File dir = service.getSnapshotDir();
+        executorService.submit(() -> {
+            File[] files = dir.listFiles((d, name) -> name.endsWith(TripLog.SUFFIX));
+            StringBuilder sb = new StringBuilder();
+            if (files != null) {
+                Arrays.sort(files);
+                for (File file : files) {
+                    try {
+                        TripLog.Reader reader = new TripLog.Reader(file);
+                        String reason = reader.next() && reader.type() == TripLog.NOTE
+                                ? new String(reader.data(), StandardCharsets.UTF_8) : "?";
+                        int readings = 0;
+                        while (reader.next())
+                            readings++;
+                        sb.append(sb.length() > 0 ? "\n" : "").append("snapshot ")
+                                .append(DateFormat.getDateTimeInstance().format(new Date(reader.startMillis)))
+                                .append(": ").append(reason).append(", ").append(readings).append(" readings");
+                    } catch (IOException e) {
+                        Log.w(OBDUtils.TAG, "snapshot " + file + " unreadable", e);
+                    }
+                }
+            }
+            String text = sb.length() > 0 ? sb.toString() : "snapshot: none saved";
+            if (getActivity() != null)
+                getActivity().runOnUiThread(() -> status(text));
+        });
+    }
 
+    /**
+     * "stats" shows how long the startup stages took, the query matching, LLM and poller counters
+     */
+    private void stats() {
+        status("startup: " + StartupPipeline.get().report());
+        status("matching: " + textEmbeddingsViewModel.matchMetrics());
+        LlmScheduler.Metrics llm = chatviewModel.schedulerMetrics();
+        status("llm: " + (LlmEngine.INSTANCE.isLoaded() ? "loaded" : "not loaded") + ", " + llm.getQueueDepth() + " queued, "
+                + llm.getCompleted() + " of " + llm.getStarted() + " completed, " + llm.getCancelled() + " cancelled, "
+                + llm.getCoalesced() + " coalesced, wait avg " + llm.getAvgWaitMillis() + " ms max " + llm.getMaxWaitMillis() + " ms");
+        if (service != null) {
+            PidPoller poller = service.getPoller();
+            status("poller: round trip " + poller.getLatencyMillis() + " ms, up to " + poller.getMaxBatch() + " pids per request");
+        }
+    }
+
+    /**
+     * only rule and anomaly events reach the LLM, not every sample. the service evaluates every sample at its
+     * decode time, also while the fragment is detached
+     */
+    private void onRuleEvent(RuleEngine.Event event) {
+        status(event.text);
+        chatviewModel.requestResponse(COMMENT_PROMPT + event.text, LlmScheduler.Priority.COMMENTARY);
+    }
+
+    private void onMatch(String str, String decodedobd2code) {
         /* give a creative answer */
-        if ("No match found".equals(decodedobd2code) || decodedobd2code == null) {
+        if (TextEmbeddingsViewModel.NO_MATCH.equals(decodedobd2code) || decodedobd2code == null) {
             if (str.trim().split("\\s+").length > 0) {
               //  OBD2inference("<start_of_turn>user Respond in not more than 10 words only" + str + "<end_of_turn>model>");
 
@@ -242,74 +474,58 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
         } else {    /* send obd2 code across */
             str = decodedobd2code.substring(0, 4); // Take the first character
             Log.d(OBDUtils.TAG, "sending odb2code:" + str);
+            requestPids(Integer.parseInt(str.substring(2, 4), 16));
+        }
+    }
 
-            if (connected != Connected.True) {
-                Toast.makeText(getActivity(), "not connected", Toast.LENGTH_SHORT).show();
-                return;
-            }
-            try {
-                byte[] data;
-                String newline = TextUtil.newline_crlf;
-                data = (str + newline).getBytes();
-                service.write(data);
-            } catch (Exception e) {
-                onSerialIoError(e);
-            }
+    /**
+     * queue Mode 01 PIDs, PIDs requested while the adapter is busy are packed into one request
+     */
+    void requestPids(int... pids) {
+        if (connected != Connected.True) {
+            Toast.makeText(getActivity(), "not connected", Toast.LENGTH_SHORT).show();
+            return;
         }
+        for (int pid : pids)
+            batcher.add(pid);
+        if (requestTime == 0 || System.currentTimeMillis() - requestTime > REQUEST_TIMEOUT_MS)
+            sendBatch();
     }
 
+    private void sendBatch() {
+        if (batcher.isEmpty()) {
+            requestTime = 0;
+            return;
+        }
+        try {
+            service.write(batcher.next());
+            requestTime = System.currentTimeMillis();
+        } catch (Exception e) {
+            requestTime = 0;
+            onSerialIoError(e);
+        }
+    }
+
+    /**
+     * datas are complete ELM327 responses, framed by SerialService
+     */
     private void receive(ArrayDeque<byte[]> datas) {
-        SpannableStringBuilder spn = new SpannableStringBuilder();
         for (byte[] data : datas) {
-            String msg = new String(data);
-            if (!msg.isEmpty()) {
-                // don't show CR as ^M if directly before LF
-                msg = msg.replace(TextUtil.newline_crlf, TextUtil.newline_lf);
-                // special handling if CR and LF come in separate fragments
-                if (pendingNewline && msg.charAt(0) == '\n') {
-                    if(spn.length() >= 2) {
-                        spn.delete(spn.length() - 2, spn.length());
-                    } else {
-                        Editable edt = receiveText.getEditableText();
-                        if (edt != null && edt.length() >= 2)
-                            edt.delete(edt.length() - 2, edt.length());
-                    }
-                }
-                pendingNewline = msg.charAt(msg.length() - 1) == '\r';
+            if (Elm327Framer.indexOf(data, 0, data.length, NO_DATA) >= 0) {
+                log.add(TerminalLog.TYPE_RECEIVE, "No data from OBD");
             }
-            spn.append(TextUtil.toCaretString(msg, !newline.isEmpty()));
-        }
-        if(String.valueOf(spn).contains("NO DATA")) {
-            SpannableStringBuilder prompt = new SpannableStringBuilder("No data from OBD\n");
-            prompt.setSpan(new ForegroundColorSpan(getResources().getColor(R.color.colorRecieveText)), 0, prompt.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-            prompt.setSpan(new AlignmentSpan.Standard(Layout.Alignment.ALIGN_OPPOSITE), 0, prompt.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-            getActivity().runOnUiThread(() -> receiveText.append(prompt));
-        }
 
-        String comment_on = decodeOBDResponse(String.valueOf(spn));
-        if (!(comment_on.toLowerCase().contains("invalid") ||
-                comment_on.toLowerCase().contains("no pid") ||
-                comment_on.toLowerCase().contains("no message"))) {
-
-            SpannableStringBuilder prompt = new SpannableStringBuilder(comment_on+"\n");
-            prompt.setSpan(new ForegroundColorSpan(getResources().getColor(R.color.colorRecieveText)), 0, prompt.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-            prompt.setSpan(new AlignmentSpan.Standard(Layout.Alignment.ALIGN_OPPOSITE), 0, prompt.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-            requireActivity().runOnUiThread(() -> receiveText.append(prompt));
-
-            Log.d("ODB2llm", "msg from OBD2" + spn + "meaning: " + comment_on);
-            if (comment_on.split("\\s+").length > 3 && getActivity() != null) {
-               //OBD2inference("<start_of_turn>user As an automotive mechanic, provide only a 10-word comment on" + comment_on + "nothing else. " +
-              //        "Do not include 'Sure,' 'Here is,' or any additional text. Respond with exactly 5 words <end_of_turn>");
-               // chatviewModel.requestResponse("describe" + comment_on);
-                requireActivity().runOnUiThread(() -> receiveText.append(comment_on+"\n"));
+            int count = OBDUtils.decodeAll(data, 0, data.length, readings);
+            for (int i = 0; i < count; i++) {
+                log.add(TerminalLog.TYPE_RECEIVE, OBDUtils.format(readings[i]));
             }
+            if (requestTime != 0)
+                sendBatch(); // adapter is idle again
         }
     }
 
     private void status(String str) {
-        SpannableStringBuilder spn = new SpannableStringBuilder(str + '\n');
-        spn.setSpan(new ForegroundColorSpan(getResources().getColor(R.color.colorStatusText)), 0, spn.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-        receiveText.append(spn);
+        log.add(TerminalLog.TYPE_STATUS, str);
     }
 
     @Override
@@ -0,0 +1,95 @@
+package com.odb2llm.app;
+
+import androidx.lifecycle.ViewModel;
+
+/**
+ * the last {@link #CAPACITY} terminal messages in a ring, oldest first. main thread only
+ * kept in a view model, so the log survives configuration changes like the TextView did with freezesText
+ */
+public class TerminalLog extends ViewModel {
+
+    static final int CAPACITY = 500;
+
+    static final int TYPE_STATUS = 0;
+    static final int TYPE_SEND = 1;     // user prompt
+    static final int TYPE_RECEIVE = 2;  // decoded OBD2 value
+    static final int TYPE_RESPONSE = 3; // LLM answer, grows while streaming
+
+    interface Listener {
+        void onInserted(int position);
+        void onChanged(int position);
+        void onRemoved(int position);
+    }
+
+    private final int[] types = new int[CAPACITY];
+    private final CharSequence[] texts = new CharSequence[CAPACITY];
+    private int head, size;
+    private long added;                 // messages ever added, numbers them across evictions
+    private long openResponse = -1;     // number of the streaming response, -1 if none
+    private Listener listener;
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int type(int position) {
+        return types[(head + position) % CAPACITY];
+    }
+
+    CharSequence text(int position) {
+        return texts[(head + position) % CAPACITY];
+    }
+
+    void add(int type, CharSequence text) {
+        if (size == CAPACITY) {
+            texts[head] = null;
+            head = (head + 1) % CAPACITY;
+            size--;
+            if (listener != null)
+                listener.onRemoved(0);
+        }
+        int index = (head + size++) % CAPACITY;
+        types[index] = type;
+        texts[index] = text;
+        added++;
+        if (listener != null)
+            listener.onInserted(size - 1);
+    }
+
+    /**
+     * append streamed text to the open response, or start a new one. status lines and readings added while
+     * streaming go below it, the response keeps growing in its own row
+     *
+     * @param end the response is complete, the next text starts a new one
+     */
+    void appendResponse(CharSequence text, boolean end) {
+        int position = openResponse < 0 ? -1 : (int) (openResponse - (added - size));
+        if (position >= 0) {
+            ((StringBuilder) texts[(head + position) % CAPACITY]).append(text);
+            if (listener != null)
+                listener.onChanged(position);
+        } else if (text.length() > 0) {
+            add(TYPE_RESPONSE, new StringBuilder(text));
+            openResponse = added - 1;
+        }
+        if (end)
+            openResponse = -1;
+    }
+
+    void clear() {
+        int removed = size;
+        while (size > 0) {
+            texts[head] = null;
+            head = (head + 1) % CAPACITY;
+            size--;
+        }
+        openResponse = -1;
+        if (listener != null)
+            for (int i = 0; i < removed; i++)
+                listener.onRemoved(0);
+    }
+}
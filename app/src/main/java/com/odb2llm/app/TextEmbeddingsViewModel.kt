@@ -7,10 +7,12 @@ import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.setValue
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
-import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.guava.await
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withContext
 
 sealed class State {
     data object Loading : State()
@@ -28,172 +30,238 @@ data class TextEmbeddingsUiState(
     val errorMessage: String = String()
 )
 
+fun interface MatchCallback {
+    fun onMatch(code: String)
+}
+
 class TextEmbeddingsViewModel : ViewModel() {
 
+    companion object {
+        const val NO_MATCH = "No match found"
+        private const val QUERY_CACHE_SIZE = 64
+    }
+
     private lateinit var mediaPipeEmbeddings: MediaPipeEmbeddings
+    private var matchJob: Job? = null
+    private val queryCache = QueryCache(QUERY_CACHE_SIZE)
+    private var lexicalMatcher: LexicalMatcher? = null
+
+    // per tier counters, show how often the embedder is avoided
+    var lexicalHits = 0L
+        private set
+    var embeddingQueries = 0L
+        private set
+    private var embeddingNanos = 0L
 
     private var uiStateTextEmbeddings by mutableStateOf(TextEmbeddingsUiState(state = State.Empty))
 
     fun setUpMLModel(context: Context) {
+        if (::mediaPipeEmbeddings.isInitialized)
+            return // activity recreated, the model is loading or loaded
         mediaPipeEmbeddings = MediaPipeEmbeddings()
         uiStateTextEmbeddings = uiStateTextEmbeddings.copy(
             state = State.Loading,
             similaritySentences = emptyList()
         )
-        viewModelScope.launch {
+        val sentencesWithCodes = listOf(
+            SentenceWithCode("0101", "check Engine light on"),
+            SentenceWithCode("0101", "Check if malfunction indicator light is on"),
+            SentenceWithCode("0101", "Get engine warning status"),
+            SentenceWithCode("0101", "Is the check engine light active?"),
+
+            SentenceWithCode("0102", "Read DTC error codes"),
+            SentenceWithCode("0102", "Get diagnostic trouble codes"),
+            SentenceWithCode("0102", "Show vehicle health status"),
+            SentenceWithCode("0102", "Scan for check engine light codes"),
+            SentenceWithCode("0102", "Retrieve fault codes"),
+            SentenceWithCode("0102", "Read engine error codes"),
+
+            SentenceWithCode("0103", "Read fuel system status"),
+            SentenceWithCode("0103", "Get fuel system condition"),
+            SentenceWithCode("0103", "Show fuel system state"),
+
+            SentenceWithCode("0104", "Read engine load"),
+            SentenceWithCode("0104", "Get calculated load value"),
+            SentenceWithCode("0104", "Show engine load percentage"),
+
+            SentenceWithCode("0105", "Read engine coolant temperature"),
+            SentenceWithCode("0105", "Get coolant temp"),
+            SentenceWithCode("0105", "Show engine temperature"),
+            SentenceWithCode("0105", "What is the coolant temperature?"),
+
+            SentenceWithCode("0106", "Read short term fuel trim for Bank 1"),
+            SentenceWithCode("0106", "Get STFT Bank 1"),
+            SentenceWithCode("0106", "Show short term fuel trim bank one"),
+
+            SentenceWithCode("0107", "Read long term fuel trim for Bank 1"),
+            SentenceWithCode("0107", "Get LTFT Bank 1"),
+            SentenceWithCode("0107", "Show long term fuel trim bank one"),
+
+            SentenceWithCode("0108", "Read short term fuel trim for Bank 2"),
+            SentenceWithCode("0108", "Get STFT Bank 2"),
+            SentenceWithCode("0108", "Show short term fuel trim bank two"),
+
+            SentenceWithCode("0109", "Read long term fuel trim for Bank 2"),
+            SentenceWithCode("0109", "Get LTFT Bank 2"),
+            SentenceWithCode("0109", "Show long term fuel trim bank two"),
+
+            SentenceWithCode("010A", "Read fuel pressure"),
+            SentenceWithCode("010A", "Get fuel rail pressure"),
+            SentenceWithCode("010A", "Show fuel system pressure"),
+
+            SentenceWithCode("010B", "Read intake manifold pressure"),
+            SentenceWithCode("010B", "Get manifold absolute pressure"),
+            SentenceWithCode("010B", "Show intake pressure"),
+
+            SentenceWithCode("010C", "Read engine rpm"),
+            SentenceWithCode("010C", "Get revolutions per minute"),
+            SentenceWithCode("010C", "Show current RPM"),
+            SentenceWithCode("010C", "What is the engine speed?"),
+
+            SentenceWithCode("010D", "Read vehicle speed"),
+            SentenceWithCode("010D", "Get car speed"),
+            SentenceWithCode("010D", "Show speedometer value"),
+            SentenceWithCode("010D", "What is the vehicle velocity?"),
+
+            SentenceWithCode("010E", "Read timing advance"),
+            SentenceWithCode("010E", "Get ignition timing advance"),
+            SentenceWithCode("010E", "Show timing advance degrees"),
+
+            SentenceWithCode("010F", "Read intake air temperature"),
+            SentenceWithCode("010F", "Get air intake temp"),
+            SentenceWithCode("010F", "Show intake air temp"),
+
+            SentenceWithCode("0110", "Read MAF air flow rate"),
+            SentenceWithCode("0110", "Get mass air flow"),
+            SentenceWithCode("0110", "Show air flow sensor data"),
+
+            SentenceWithCode("0111", "Read throttle position"),
+            SentenceWithCode("0111", "Get absolute throttle position"),
+            SentenceWithCode("0111", "Show throttle opening percentage"),
+
+            SentenceWithCode("0112", "Read commanded secondary air status"),
+            SentenceWithCode("0112", "Get secondary air injection status"),
+            SentenceWithCode("0112", "Show status of secondary air system"),
+
+            SentenceWithCode("0113", "How many oxygen sensors are present in the 2 banks"),
+            SentenceWithCode("0113", "Number of O2 sensors in banks"),
+            SentenceWithCode("0113", "Count oxygen sensors"),
+
+            SentenceWithCode("0114", "Read status of Oxygen Sensor 1"),
+            SentenceWithCode("0114", "Get oxygen sensor bank 1 sensor 1 status"),
+            SentenceWithCode("0114", "Show O2 sensor 1 data"),
+
+            SentenceWithCode("0115", "Read status of Oxygen Sensor 2"),
+            SentenceWithCode("0115", "Get oxygen sensor bank 1 sensor 2 status"),
+            SentenceWithCode("0115", "Show O2 sensor 2 data")
+        )
+        val sentences = sentencesWithCodes.map { it.sentence }
+        // first startup stages, both queued before the RAG memory and the LLM can take the startup thread
+        val startup = StartupPipeline.get()
+        val model = startup.submit("intent model", StartupPipeline.PRIORITY_INTENT) {
             mediaPipeEmbeddings.setUpMLModel(context)
+        }
+        val index = startup.submit("phrase index", StartupPipeline.PRIORITY_INTENT) {
+            mediaPipeEmbeddings.buildIndex(context.applicationContext, sentences)
+        }
+        viewModelScope.launch {
+            try {
+                model.await()
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                Log.e(OBDUtils.TAG, "Error loading the intent model", e)
+                uiStateTextEmbeddings = uiStateTextEmbeddings.copy(
+                    state = State.Error,
+                    errorMessage = e.message ?: "Error loading the intent model"
+                )
+                return@launch
+            }
             uiStateTextEmbeddings = uiStateTextEmbeddings.copy(
-                sentencesWithCodes = listOf(
-                    SentenceWithCode("0101", "check Engine light on"),
-                    SentenceWithCode("0101", "Check if malfunction indicator light is on"),
-                    SentenceWithCode("0101", "Get engine warning status"),
-                    SentenceWithCode("0101", "Is the check engine light active?"),
-
-                    SentenceWithCode("0102", "Read DTC error codes"),
-                    SentenceWithCode("0102", "Get diagnostic trouble codes"),
-                    SentenceWithCode("0102", "Show vehicle health status"),
-                    SentenceWithCode("0102", "Scan for check engine light codes"),
-                    SentenceWithCode("0102", "Retrieve fault codes"),
-                    SentenceWithCode("0102", "Read engine error codes"),
-
-                    SentenceWithCode("0103", "Read fuel system status"),
-                    SentenceWithCode("0103", "Get fuel system condition"),
-                    SentenceWithCode("0103", "Show fuel system state"),
-
-                    SentenceWithCode("0104", "Read engine load"),
-                    SentenceWithCode("0104", "Get calculated load value"),
-                    SentenceWithCode("0104", "Show engine load percentage"),
-
-                    SentenceWithCode("0105", "Read engine coolant temperature"),
-                    SentenceWithCode("0105", "Get coolant temp"),
-                    SentenceWithCode("0105", "Show engine temperature"),
-                    SentenceWithCode("0105", "What is the coolant temperature?"),
-
-                    SentenceWithCode("0106", "Read short term fuel trim for Bank 1"),
-                    SentenceWithCode("0106", "Get STFT Bank 1"),
-                    SentenceWithCode("0106", "Show short term fuel trim bank one"),
-
-                    SentenceWithCode("0107", "Read long term fuel trim for Bank 1"),
-                    SentenceWithCode("0107", "Get LTFT Bank 1"),
-                    SentenceWithCode("0107", "Show long term fuel trim bank one"),
-
-                    SentenceWithCode("0108", "Read short term fuel trim for Bank 2"),
-                    SentenceWithCode("0108", "Get STFT Bank 2"),
-                    SentenceWithCode("0108", "Show short term fuel trim bank two"),
-
-                    SentenceWithCode("0109", "Read long term fuel trim for Bank 2"),
-                    SentenceWithCode("0109", "Get LTFT Bank 2"),
-                    SentenceWithCode("0109", "Show long term fuel trim bank two"),
-
-                    SentenceWithCode("010A", "Read fuel pressure"),
-                    SentenceWithCode("010A", "Get fuel rail pressure"),
-                    SentenceWithCode("010A", "Show fuel system pressure"),
-
-                    SentenceWithCode("010B", "Read intake manifold pressure"),
-                    SentenceWithCode("010B", "Get manifold absolute pressure"),
-                    SentenceWithCode("010B", "Show intake pressure"),
-
-                    SentenceWithCode("010C", "Read engine rpm"),
-                    SentenceWithCode("010C", "Get revolutions per minute"),
-                    SentenceWithCode("010C", "Show current RPM"),
-                    SentenceWithCode("010C", "What is the engine speed?"),
-
-                    SentenceWithCode("010D", "Read vehicle speed"),
-                    SentenceWithCode("010D", "Get car speed"),
-                    SentenceWithCode("010D", "Show speedometer value"),
-                    SentenceWithCode("010D", "What is the vehicle velocity?"),
-
-                    SentenceWithCode("010E", "Read timing advance"),
-                    SentenceWithCode("010E", "Get ignition timing advance"),
-                    SentenceWithCode("010E", "Show timing advance degrees"),
-
-                    SentenceWithCode("010F", "Read intake air temperature"),
-                    SentenceWithCode("010F", "Get air intake temp"),
-                    SentenceWithCode("010F", "Show intake air temp"),
-
-                    SentenceWithCode("0110", "Read MAF air flow rate"),
-                    SentenceWithCode("0110", "Get mass air flow"),
-                    SentenceWithCode("0110", "Show air flow sensor data"),
-
-                    SentenceWithCode("0111", "Read throttle position"),
-                    SentenceWithCode("0111", "Get absolute throttle position"),
-                    SentenceWithCode("0111", "Show throttle opening percentage"),
-
-                    SentenceWithCode("0112", "Read commanded secondary air status"),
-                    SentenceWithCode("0112", "Get secondary air injection status"),
-                    SentenceWithCode("0112", "Show status of secondary air system"),
-
-                    SentenceWithCode("0113", "How many oxygen sensors are present in the 2 banks"),
-                    SentenceWithCode("0113", "Number of O2 sensors in banks"),
-                    SentenceWithCode("0113", "Count oxygen sensors"),
-
-                    SentenceWithCode("0114", "Read status of Oxygen Sensor 1"),
-                    SentenceWithCode("0114", "Get oxygen sensor bank 1 sensor 1 status"),
-                    SentenceWithCode("0114", "Show O2 sensor 1 data"),
-
-                    SentenceWithCode("0115", "Read status of Oxygen Sensor 2"),
-                    SentenceWithCode("0115", "Get oxygen sensor bank 1 sensor 2 status"),
-                    SentenceWithCode("0115", "Show O2 sensor 2 data")
-                ),
+                sentencesWithCodes = sentencesWithCodes,
                 state = State.Empty
             )
+            lexicalMatcher = LexicalMatcher(sentencesWithCodes.map { it.code }, sentences)
+            try {
+                index.await()
+                queryCache.clear()
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                Log.e(OBDUtils.TAG, "Error building phrase index", e)
+            }
         }
     }
 
-    fun calculateSimilarity(mainSentence: String): String {
-        val deferred = CompletableDeferred<String>()
+    /**
+     * match [mainSentence] against the known phrases off the main thread, [callback] gets the OBD2 code or
+     * "No match found" on the main thread. a newer query cancels the one still running, its callback is dropped
+     */
+    fun calculateSimilarity(mainSentence: String, callback: MatchCallback) {
         val similarityThreshold = 0.95  // Fixed threshold value
 
+        matchJob?.cancel()
+        val key = QueryCache.normalize(mainSentence)
+        val resolved = queryCache.get(key) ?: lexicalMatcher?.match(key)?.also { lexicalHits++ }
+        if (resolved != null) {
+            Log.d(OBDUtils.TAG, "resolved without embeddings: $resolved, ${matchMetrics()}")
+            uiStateTextEmbeddings = uiStateTextEmbeddings.copy(state = State.Success, errorMessage = resolved)
+            callback.onMatch(resolved)
+            return
+        }
         uiStateTextEmbeddings = uiStateTextEmbeddings.copy(
             state = State.Loading,
             similaritySentences = emptyList()
         )
 
-        viewModelScope.launch(Dispatchers.IO) {
-            try {
-                val sentences = uiStateTextEmbeddings.sentencesWithCodes.map { it.sentence }
-                val similarities = mediaPipeEmbeddings.getSimilarities(mainSentence, sentences)
-
-                // Map similarities and filter by threshold
-                val sentencesWithSimilarity = similarities.mapNotNull { similarity ->
-                    if (similarity.resultSimilarity >= similarityThreshold) {
-                        similarity.copy(
-                            mainSentenceEmbeddings = similarity.mainSentenceEmbeddings,
-                            sentenceEmbeddings = similarity.sentenceEmbeddings,
-                            resultSimilarity = similarity.resultSimilarity
-                        )
-                    } else {
-                        null // Ignore if below the threshold
-                    }
+        matchJob = viewModelScope.launch {
+            val codeOfMostSimilarSentence = try {
+                val sentencesWithCodes = uiStateTextEmbeddings.sentencesWithCodes
+                val indexed = mediaPipeEmbeddings.isIndexReady // don't cache misses while the index is built
+                val start = System.nanoTime()
+                val sentencesWithSimilarity = withContext(Dispatchers.Default) {
+                    // Filter by threshold
+                    mediaPipeEmbeddings.getSimilarities(mainSentence)
+                        .filter { it.resultSimilarity >= similarityThreshold }
                 }
 
                 val mostSimilarSentence = sentencesWithSimilarity.maxByOrNull { it.resultSimilarity }
 
-                val codeOfMostSimilarSentence = mostSimilarSentence?.let {
-                    uiStateTextEmbeddings.sentencesWithCodes.find { code -> code.sentence == it.sentence }?.code
-                } ?: "No match found"
+                val code = mostSimilarSentence?.let {
+                    sentencesWithCodes.find { code -> code.sentence == it.sentence }?.code
+                } ?: NO_MATCH
 
                 Log.d(OBDUtils.TAG, "Most Similar Sentence: ${mostSimilarSentence?.sentence}")
-                Log.d(OBDUtils.TAG, "Code of Most Similar Sentence: $codeOfMostSimilarSentence")
+                Log.d(OBDUtils.TAG, "Code of Most Similar Sentence: $code")
 
                 uiStateTextEmbeddings = uiStateTextEmbeddings.copy(
                     state = State.Success,
                     similaritySentences = sentencesWithSimilarity,
-                    errorMessage = codeOfMostSimilarSentence
+                    errorMessage = code
                 )
-
-                deferred.complete(codeOfMostSimilarSentence)
+                if (indexed) {
+                    queryCache.put(key, code)
+                    embeddingQueries++
+                    embeddingNanos += System.nanoTime() - start
+                }
+                Log.d(OBDUtils.TAG, matchMetrics())
+                code
+            } catch (e: CancellationException) {
+                throw e // superseded by a newer query
             } catch (e: Exception) {
+                Log.e(OBDUtils.TAG, "Error getting similarities", e)
                 uiStateTextEmbeddings = uiStateTextEmbeddings.copy(
                     state = State.Error,
                     errorMessage = e.message ?: "Error getting similarities"
                 )
-                deferred.complete("Error: ${e.message}")
+                NO_MATCH
             }
+            callback.onMatch(codeOfMostSimilarSentence)
         }
-
-        return runBlocking { deferred.await() }
     }
 
-
+    fun matchMetrics(): String {
+        val avg = if (embeddingQueries > 0) embeddingNanos / embeddingQueries / 1_000_000 else 0
+        return "cache hits ${queryCache.hits}, misses ${queryCache.misses}, lexical hits $lexicalHits, embedding queries $embeddingQueries (avg $avg ms)"
+    }
 }
@@ -0,0 +1,43 @@
+package com.odb2llm.app;
+
+/**
+ * turns partial LLM results into the text added since the previous one and collects the whole answer
+ *
+ * MediaPipe's generateResponseAsync reports only the new tokens with every partial result, see {@link #MEDIAPIPE}.
+ * backends reporting the text so far are cut down to what is new.
+ */
+final class TokenDeltas {
+
+    /**
+     * partials of LlmInferenceSession.generateResponseAsync are deltas
+     */
+    static final boolean MEDIAPIPE = false;
+
+    private final StringBuilder text = new StringBuilder();
+    private final boolean cumulative;
+
+    /**
+     * @param cumulative partials are the text so far, otherwise only the new tokens
+     */
+    TokenDeltas(boolean cumulative) {
+        this.cumulative = cumulative;
+    }
+
+    String delta(String partial) {
+        if (partial == null)
+            return "";
+        String delta;
+        if (!cumulative)
+            delta = partial;
+        else if (partial.length() > text.length())
+            delta = partial.substring(text.length());
+        else
+            delta = "";
+        text.append(delta);
+        return delta;
+    }
+
+    String text() {
+        return text.toString();
+    }
+}
@@ -0,0 +1,301 @@
+package com.odb2llm.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * append-only binary log of a trip: raw bytes read from the adapter and the readings decoded from them
+ *
+ * callers only offer records to a bounded queue, the socket thread never waits for the disk. if the writer
+ * falls behind records are dropped and counted, unless the log is lossless. the writer appends to a memory mapped file, written pages
+ * survive a killed process. every record has a CRC, the reader stops at the first zero or torn record.
+ *
+ * layout: header, then per record: tag (type << 24 | payload length), nanos, payload, CRC32 of the record
+ */
+final class TripLog {
+
+    static final int RAW = 1;
+    static final int READING = 2;       // payload: mode, pid, float value
+    static final int NOTE = 3;          // payload: UTF-8 text, e.g. why a snapshot was frozen
+
+    private static final int MAGIC = 0x4F424454; // OBDT
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8;
+    private static final int RECORD_BYTES = 4 + 8 + 4;
+    private static final int READING_BYTES = 1 + 1 + 4;
+    private static final int MAX_PAYLOAD = 0xFFFFFF;
+    private static final int SEGMENT = 1 << 20;  // mapped and grown at a time
+    private static final int QUEUE = 4096;
+    static final String SUFFIX = ".trip";
+
+    private static final class Entry {
+        final int type;
+        final long nanos;
+        final byte[] data;
+        final int mode, pid;
+        final float value;
+
+        Entry(int type, long nanos, byte[] data, int mode, int pid, float value) {
+            this.type = type;
+            this.nanos = nanos;
+            this.data = data;
+            this.mode = mode;
+            this.pid = pid;
+            this.value = value;
+        }
+    }
+
+    private static final Entry END = new Entry(0, 0, null, 0, 0, 0);
+
+    final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final ArrayBlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE);
+    private final ExecutorService writer;
+    private final boolean lossless;
+    private final CRC32 crc = new CRC32();
+    private byte[] scratch = new byte[256];
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private long position;
+    private volatile boolean closed;
+    private volatile IOException failure;
+    private volatile long dropped;
+
+    /**
+     * create file, an existing file is overwritten
+     */
+    TripLog(File file, long startMillis) throws IOException {
+        this(file, startMillis, false);
+    }
+
+    /**
+     * @param lossless callers wait for room in the queue instead of dropping records, not for the socket thread
+     */
+    TripLog(File file, long startMillis, boolean lossless) throws IOException {
+        this.file = file;
+        this.lossless = lossless;
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        channel.truncate(0);
+        map(0, SEGMENT);
+        segment.putInt(MAGIC).putInt(VERSION).putLong(startMillis);
+        position = HEADER_BYTES;
+        writer = Executors.newSingleThreadExecutor(r -> new Thread(r, "trip log"));
+        writer.execute(this::drain);
+    }
+
+    /**
+     * data is not copied and must not be modified afterwards
+     */
+    void raw(long nanos, byte[] data) {
+        offer(new Entry(RAW, nanos, data, 0, 0, 0));
+    }
+
+    void reading(long nanos, ObdReading r) {
+        offer(new Entry(READING, nanos, null, r.mode, r.pid, (float) r.value));
+    }
+
+    void note(long nanos, String text) {
+        offer(new Entry(NOTE, nanos, text.getBytes(StandardCharsets.UTF_8), 0, 0, 0));
+    }
+
+    private void offer(Entry entry) {
+        if (lossless && !closed) {
+            try {
+                queue.put(entry);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (closed || !queue.offer(entry))
+            dropped++; // only one thread offers
+    }
+
+    /**
+     * @return records not logged because the writer fell behind
+     */
+    long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return error that stopped the writer, null if there was none
+     */
+    IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * write the queued records, then truncate the file to its content
+     */
+    void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        while (!queue.offer(END))
+            queue.poll(); // writer is stuck or gone, give up on the backlog
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(5, TimeUnit.SECONDS))
+                writer.shutdownNow();
+        } catch (InterruptedException e) {
+            writer.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (segment != null)
+                segment.force();
+            channel.truncate(position);
+        } finally {
+            raf.close();
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    private void drain() {
+        try {
+            for (Entry entry = queue.take(); entry != END; entry = queue.take())
+                write(entry);
+        } catch (InterruptedException ignored) {
+        } catch (IOException e) {
+            failure = e;
+            closed = true;
+            queue.clear();
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        int length = entry.type == READING ? READING_BYTES : Math.min(entry.data.length, MAX_PAYLOAD);
+        int bytes = RECORD_BYTES + length;
+        if (scratch.length < bytes)
+            scratch = new byte[Math.max(bytes, 2 * scratch.length)];
+        ByteBuffer record = ByteBuffer.wrap(scratch).order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt(entry.type << 24 | length).putLong(entry.nanos);
+        if (entry.type == READING)
+            record.put((byte) entry.mode).put((byte) entry.pid).putFloat(entry.value);
+        else
+            record.put(entry.data, 0, length);
+        crc.reset();
+        crc.update(scratch, 0, record.position());
+        record.putInt((int) crc.getValue());
+
+        if (position + bytes > segmentStart + segment.capacity())
+            map(position, Math.max(SEGMENT, bytes));
+        segment.position((int) (position - segmentStart));
+        segment.put(scratch, 0, bytes);
+        position += bytes;
+    }
+
+    /**
+     * map the next segment from start, growing the file. the tail of a killed log stays zero
+     */
+    private void map(long start, int size) throws IOException {
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        segmentStart = start;
+    }
+
+    /**
+     * @return newest log in dir, null if there is none
+     */
+    static File latest(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null || files.length == 0)
+            return null;
+        Arrays.sort(files, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+        return files[0];
+    }
+
+    /**
+     * delete all but the newest keep logs in dir
+     */
+    static void prune(File dir, int keep) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null)
+            return;
+        Arrays.sort(files, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+        for (int i = keep; i < files.length; i++)
+            //noinspection ResultOfMethodCallIgnored
+            files[i].delete();
+    }
+
+    /**
+     * sequential reader of a log, also of one whose writer was killed
+     */
+    static final class Reader {
+        final long startMillis;
+        private final ByteBuffer buffer;
+        private final CRC32 crc = new CRC32();
+        private int type;
+        private long nanos;
+        private int payload;
+        private int length;
+
+        Reader(File file) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                throw new IOException(file + " is no trip log");
+            startMillis = buffer.getLong();
+        }
+
+        /**
+         * @return false at the end of the log or at the first torn record
+         */
+        boolean next() {
+            if (buffer.remaining() < RECORD_BYTES)
+                return false;
+            int start = buffer.position();
+            int tag = buffer.getInt(start);
+            int length = tag & MAX_PAYLOAD;
+            if (tag == 0 || buffer.remaining() < RECORD_BYTES + length)
+                return false;
+            byte[] bytes = new byte[4 + 8 + length];
+            buffer.get(bytes);
+            crc.reset();
+            crc.update(bytes, 0, bytes.length);
+            if (buffer.getInt() != (int) crc.getValue()) {
+                buffer.position(start);
+                return false;
+            }
+            this.type = tag >>> 24;
+            this.nanos = buffer.getLong(start + 4);
+            this.payload = start + 4 + 8;
+            this.length = length;
+            return true;
+        }
+
+        int type() { return type; }
+        long nanos() { return nanos; }
+
+        /**
+         * @return bytes of a RAW record, UTF-8 text of a NOTE
+         */
+        byte[] data() {
+            byte[] data = new byte[length];
+            for (int i = 0; i < length; i++)
+                data[i] = buffer.get(payload + i);
+            return data;
+        }
+
+        int mode() { return buffer.get(payload) & 0xff; }
+        int pid() { return buffer.get(payload + 1) & 0xff; }
+        float value() { return buffer.getFloat(payload + 2); }
+    }
+}
@@ -0,0 +1,91 @@
+package com.odb2llm.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * plays the raw bytes of a {@link TripLog} back to the listener with their recorded timing, sped up by speed.
+ * requests written while replaying are ignored, the answers are in the log already.
+ */
+class TripReplay implements SerialTransport {
+
+    static final String ADDRESS = "replay";
+    static final double MAX_SPEED = 100;
+
+    private final File file;
+    private final double speed;
+    private volatile SerialListener listener;
+    private ExecutorService executor;
+
+    /**
+     * @param speed 1 = recorded timing, clamped to 1..{@link #MAX_SPEED}
+     */
+    TripReplay(File file, double speed) {
+        this.file = file;
+        this.speed = Math.max(1, Math.min(MAX_SPEED, speed));
+    }
+
+    @Override
+    public String getName() {
+        return "replay of " + file.getName();
+    }
+
+    @Override
+    public void connect(SerialListener listener) {
+        this.listener = listener;
+        executor = Executors.newSingleThreadExecutor();
+        executor.submit(this::run);
+    }
+
+    @Override
+    public void disconnect() {
+        listener = null;
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @Override
+    public void write(byte[] data) {
+    }
+
+    private void run() {
+        TripLog.Reader reader;
+        try {
+            reader = new TripLog.Reader(file);
+        } catch (IOException e) {
+            SerialListener l = listener;
+            if (l != null)
+                l.onSerialConnectError(e);
+            return;
+        }
+        SerialListener l = listener;
+        if (l != null)
+            l.onSerialConnect();
+        long first = -1, start = System.nanoTime();
+        try {
+            while (reader.next()) {
+                if (reader.type() != TripLog.RAW)
+                    continue;
+                if (first < 0)
+                    first = reader.nanos();
+                long wait = start + (long) ((reader.nanos() - first) / speed) - System.nanoTime();
+                if (wait > 0)
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                l = listener;
+                if (l == null)
+                    return;
+                l.onSerialRead(reader.data());
+            }
+        } catch (InterruptedException e) {
+            return; // disconnected
+        }
+        l = listener;
+        if (l != null)
+            l.onSerialIoError(new IOException("end of replay"));
+    }
+}
@@ -0,0 +1,139 @@
+package com.odb2llm.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChunkIndexTest {
+
+    private static final long KEY = 0x1234_5678_9ABC_DEF0L;
+    private static final double DELTA = 1e-6;
+
+    private static final List<String> TEXTS = Arrays.asList("coolant temperature", "Zündung: ignition", "", "P0420 catalyst");
+    private static final List<float[]> VECTORS = Arrays.asList(
+            new float[]{3, 4, 0},
+            new float[]{0, 0, 2},
+            new float[]{1, 1, 1},
+            new float[]{0, 1, 0});
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("chunks", ".idx");
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    private static void assertSame(ChunkIndex expected, ChunkIndex actual) {
+        assertEquals(expected.key, actual.key);
+        assertEquals(expected.size, actual.size);
+        assertEquals(expected.dim, actual.dim);
+        for (int row = 0; row < expected.size; row++) {
+            assertEquals(expected.text(row), actual.text(row));
+            assertArrayEquals(expected.vector(row), actual.vector(row), 0);
+        }
+    }
+
+    @Test
+    public void buildNormalizes() {
+        ChunkIndex index = ChunkIndex.build(KEY, TEXTS, VECTORS);
+        assertEquals(4, index.size);
+        assertEquals(3, index.dim);
+        assertArrayEquals(new float[]{0.6f, 0.8f, 0}, index.vector(0), 1e-6f);
+        assertEquals("Zündung: ignition", index.text(1));
+        assertEquals("", index.text(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void buildRejectsMixedDimensions() {
+        ChunkIndex.build(KEY, Arrays.asList("a", "b"), Arrays.asList(new float[2], new float[3]));
+    }
+
+    @Test
+    public void saveLoadRoundTrip() throws IOException {
+        ChunkIndex built = ChunkIndex.build(KEY, TEXTS, VECTORS);
+        built.save(file);
+        ChunkIndex loaded = ChunkIndex.load(file, KEY);
+        assertNotNull(loaded);
+        assertSame(built, loaded);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void loadWithOtherKeyMisses() throws IOException {
+        ChunkIndex.build(KEY, TEXTS, VECTORS).save(file);
+        assertNull(ChunkIndex.load(file, KEY + 1));
+        assertNull(ChunkIndex.load(new File(file.getPath() + ".missing"), KEY));
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        ChunkIndex.build(KEY, TEXTS, VECTORS).save(file);
+        long length = file.length();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length - 1); // text cut off
+        }
+        assertNull(ChunkIndex.load(file, KEY));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(30); // vectors cut off
+        }
+        assertNull(ChunkIndex.load(file, KEY));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(10); // header cut off
+        }
+        assertNull(ChunkIndex.load(file, KEY));
+    }
+
+    @Test
+    public void scanIsCosine() {
+        ChunkIndex index = ChunkIndex.build(KEY, TEXTS, VECTORS);
+        float[] scores = new float[index.size];
+        index.scan(new float[]{0, 10, 0}, scores);
+        assertEquals(0.8, scores[0], DELTA);
+        assertEquals(0, scores[1], DELTA);
+        assertEquals(1 / Math.sqrt(3), scores[2], DELTA);
+        assertEquals(1, scores[3], DELTA);
+    }
+
+    @Test
+    public void topOrdersBestFirst() {
+        float[] scores = {0.1f, 0.9f, -0.5f, 0.9f, 0.4f, 0.95f};
+        assertArrayEquals(new int[]{5, 1, 3}, ChunkIndex.top(scores, scores.length, 3));
+        assertArrayEquals(new int[]{5, 1, 3, 4, 0, 2}, ChunkIndex.top(scores, scores.length, 10));
+        assertArrayEquals(new int[]{1, 0}, ChunkIndex.top(scores, 3, 2)); // only the first count scores
+        assertEquals(0, ChunkIndex.top(scores, 0, 3).length);
+    }
+
+    @Test
+    public void keyTracksContentAndModel() throws IOException {
+        byte[] content = "Code: P0420".getBytes(StandardCharsets.UTF_8);
+        long key = ChunkIndex.key(new ByteArrayInputStream(content), "model:1");
+        assertEquals(key, ChunkIndex.key(new ByteArrayInputStream(content), "model:1"));
+        long otherModel = ChunkIndex.key(new ByteArrayInputStream(content), "model:2");
+        long otherContent = ChunkIndex.key(new ByteArrayInputStream("Code: P0421".getBytes(StandardCharsets.UTF_8)), "model:1");
+        assertNotEquals(key, otherModel);
+        assertEquals(key >>> 32, otherModel >>> 32);
+        assertNotEquals(key >>> 32, otherContent >>> 32);
+        assertEquals((int) key, (int) otherContent);
+    }
+}
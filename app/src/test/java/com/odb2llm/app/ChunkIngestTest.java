@@ -0,0 +1,143 @@
+package com.odb2llm.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChunkIngestTest {
+
+    private static final long KEY = 7;
+    private static final int TEXTS = 10;
+    private static final int BATCH = 4;     // batches of 4, 4 and 2 texts
+
+    private final List<String> texts = new ArrayList<>();
+    private final Set<String> embedded = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private volatile String failOn;
+    private File journal;
+
+    private final ChunkIngest.Listener listener = new ChunkIngest.Listener() {
+        @Override public void onBatch(int[] rows, float[][] vectors) { }
+        @Override public void onProgress(int done, int total) { }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        journal = File.createTempFile("chunks", ".journal");
+        //noinspection ResultOfMethodCallIgnored
+        journal.delete();
+        for (int i = 0; i < TEXTS; i++)
+            texts.add("chunk " + i);
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        journal.delete();
+    }
+
+    private static float[] vector(String text) {
+        return new float[]{text.length(), text.hashCode(), 1};
+    }
+
+    private float[][] run(int workers) throws Exception {
+        return run(KEY, workers);
+    }
+
+    private float[][] run(long key, int workers) throws Exception {
+        ChunkIngest ingest = new ChunkIngest(batch -> {
+            List<float[]> vectors = new ArrayList<>();
+            for (String text : batch) {
+                if (text.equals(failOn))
+                    throw new IOException("embedder failed");
+                embedded.add(text);
+                vectors.add(vector(text));
+            }
+            return vectors;
+        }, BATCH, workers);
+        return ingest.run(key, texts, journal, listener);
+    }
+
+    private void assertComplete(float[][] vectors) {
+        assertEquals(TEXTS, vectors.length);
+        for (int i = 0; i < TEXTS; i++)
+            assertArrayEquals(vector(texts.get(i)), vectors[i], 0);
+    }
+
+    @Test
+    public void embedsEverythingOnce() throws Exception {
+        assertComplete(run(3));
+        assertEquals(TEXTS, embedded.size());
+        embedded.clear();
+        assertComplete(run(3)); // from the journal
+        assertTrue(embedded.isEmpty());
+    }
+
+    @Test
+    public void tornLastBatchIsEmbeddedAgain() throws Exception {
+        run(1);
+        long length = journal.length();
+        try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+            raf.setLength(length - 5); // killed while writing the last batch
+        }
+        embedded.clear();
+        assertComplete(run(1));
+        assertEquals(2, embedded.size());
+        assertEquals(length, journal.length());
+    }
+
+    @Test
+    public void corruptLastBatchIsEmbeddedAgain() throws Exception {
+        run(1);
+        long length = journal.length();
+        try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+            raf.seek(length - 8); // a float of the last vector
+            raf.write(raf.read() ^ 0xFF);
+        }
+        embedded.clear();
+        assertComplete(run(1));
+        assertEquals(2, embedded.size());
+        embedded.clear();
+        assertComplete(run(1)); // the batch was replaced, not appended after the corrupt one
+        assertTrue(embedded.isEmpty());
+    }
+
+    @Test
+    public void failedRunResumesAfterFinishedBatches() throws Exception {
+        failOn = "chunk 5";
+        try {
+            run(1);
+            fail("no failure");
+        } catch (IOException expected) {
+        }
+        assertTrue(embedded.contains("chunk 0"));
+        failOn = null;
+        embedded.clear();
+        assertComplete(run(1));
+        for (int i = 0; i < BATCH; i++)
+            assertFalse(embedded.contains(texts.get(i)));
+        assertTrue(embedded.contains("chunk 5"));
+    }
+
+    @Test
+    public void journalOfOtherKeyIsIgnored() throws Exception {
+        run(2);
+        embedded.clear();
+        assertComplete(run(KEY + 1, 2));
+        assertEquals(TEXTS, embedded.size());
+    }
+}
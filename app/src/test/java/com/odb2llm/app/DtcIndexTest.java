@@ -0,0 +1,64 @@
+package com.odb2llm.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DtcIndexTest {
+
+    private static final List<String> CHUNKS = Arrays.asList(
+            "OBD-II trouble codes overview, see also P0420 in the catalyst section",    // 0, no header
+            "Code: P0420 Catalyst System Efficiency Below Threshold. Symptoms: none",    // 1
+            "Causes: a worn catalytic converter, an exhaust leak",                      // 2, continues P0420
+            "Diagnosis: compare the upstream and downstream O2 sensors",                // 3, continues P0420
+            "Code(s): P0171, P0174 System Too Lean. Causes: vacuum leak",               // 4
+            "* check the MAF sensor",                                                   // 5, continues P0171/P0174
+            "Code: U0100 Lost Communication With ECM");                                 // 6
+
+    private final DtcIndex index = new DtcIndex(CHUNKS);
+
+    @Test
+    public void sectionCarriesOverToFollowingChunks() {
+        assertEquals(Arrays.asList(1, 2, 3), index.lookup("what does P0420 mean"));
+        assertEquals(Arrays.asList(4, 5), index.lookup("p0174?"));
+        assertEquals(Collections.singletonList(6), index.lookup("U0100"));
+    }
+
+    @Test
+    public void chunkWithTailAndNextHeaderBelongsToBoth() {
+        DtcIndex index = new DtcIndex(Arrays.asList(
+                "Code: P0300 Random Misfire. Causes: spark plugs",
+                "ignition coils. Code: P0301 Cylinder 1 Misfire. Causes: coil 1",
+                "injector 1"));
+        assertEquals(Arrays.asList(0, 1), index.lookup("P0300"));
+        assertEquals(Arrays.asList(1, 2), index.lookup("P0301"));
+    }
+
+    @Test
+    public void mentionOutsideHeaderIsNoSection() {
+        assertTrue(index.lookup("P0300").isEmpty());
+        assertTrue(index.lookup("the catalyst").isEmpty());
+        // chunk 0 names P0420 but has no header
+        assertTrue(!index.lookup("P0420").contains(0));
+    }
+
+    @Test
+    public void codesInOrderWithoutDuplicates() {
+        assertEquals(Arrays.asList(4, 5, 1, 2, 3), index.lookup("P0171 and P0174 after P0420"));
+        assertEquals(Arrays.asList("P0171", "P0420"), DtcIndex.codes("p0171, P0420 and again P0171"));
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    public void headerEndsAtSectionText() {
+        DtcIndex index = new DtcIndex(Collections.singletonList(
+                "Code: P0101 MAF Range. Symptoms: stalling, see P0102"));
+        assertEquals(1, index.size());
+        assertTrue(index.lookup("P0102").isEmpty());
+    }
+}
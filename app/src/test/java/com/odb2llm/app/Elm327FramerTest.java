@@ -0,0 +1,90 @@
+package com.odb2llm.app;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class Elm327FramerTest {
+
+    private final List<String> frames = new ArrayList<>();
+    private final Elm327Framer framer = new Elm327Framer((buf, off, len) ->
+            frames.add(new String(buf, off, len, StandardCharsets.US_ASCII)));
+
+    private void feed(String text) {
+        byte[] data = text.getBytes(StandardCharsets.US_ASCII);
+        framer.feed(data, 0, data.length);
+    }
+
+    @Test
+    public void singleLine() {
+        feed("010C\r41 0C 1A F8\r\r>");
+        assertEquals(1, frames.size());
+        assertEquals("010C\r41 0C 1A F8\r", frames.get(0));
+    }
+
+    @Test
+    public void isoTpFramesAreJoinedAndTruncated() {
+        feed("0902\r014\r0: 49 02 01 31 44 34\r1: 47 50 30 30 52 35 35\r2: 42 31 32 33 34 35 36\r\r>");
+        assertEquals(1, frames.size());
+        assertEquals("0902\r49 02 01 31 44 34 47 50 30 30 52 35 35 42 31 32 33 34 35 36\r", frames.get(0));
+
+        // padding after the announced byte count is dropped
+        feed("00A\r0: 43 04 01 33 01 34\r1: 04 20 04 21 AA AA AA\r\r>");
+        assertEquals("43 04 01 33 01 34 04 20 04 21\r", frames.get(1));
+    }
+
+    @Test
+    public void isoTpWithoutSpaces() {
+        feed("00A\r0:430401330134\r1:04200421AAAAAA\r\r>");
+        assertEquals("43 04 01 33 01 34 04 20 04 21\r", frames.get(0));
+    }
+
+    @Test
+    public void nulPaddingAndEmptyLinesAreDropped() {
+        feed("\0\r\n41 0D 32\r\n\r\n\0>");
+        assertEquals("41 0D 32\r", frames.get(0));
+        feed(">");
+        assertEquals(1, frames.size());
+    }
+
+    @Test
+    public void randomFragmentsGiveSameFrames() {
+        String stream = "ATZ\r\rELM327 v1.5\r\r>"
+                + "010C0D05\r41 0C 1F 40 0D 3C 05 82\r\r>"
+                + "03\r00A\r0: 43 04 01 33 01 34\r1: 04 20 04 21 AA AA AA\r\r>"
+                + "0902\r014\r0: 49 02 01 31 47 31\r1: 4A 43 35 34 34 34\r\n2: 52 37 32 35 32 33 36 37\r\r>"
+                + "0120\rNO DATA\r\r>";
+        feed(stream);
+        List<String> whole = new ArrayList<>(frames);
+        assertEquals(5, whole.size());
+
+        byte[] data = stream.getBytes(StandardCharsets.US_ASCII);
+        Random random = new Random(42);
+        for (int round = 0; round < 100; round++) {
+            frames.clear();
+            int maxFragment = 1 + random.nextInt(16);
+            for (int pos = 0; pos < data.length; ) {
+                int len = Math.min(data.length - pos, 1 + random.nextInt(maxFragment));
+                framer.feed(data, pos, len);
+                pos += len;
+            }
+            assertEquals("round " + round, whole, frames);
+        }
+    }
+
+    @Test
+    public void framedResponsesDecode() {
+        ObdReading[] readings = new ObdReading[ObdRequestBatcher.MAX_PIDS];
+        for (int i = 0; i < readings.length; i++)
+            readings[i] = new ObdReading();
+        feed("03\r00A\r0: 43 04 01 33 01 34\r1: 04 20 04 21 AA AA AA\r\r>");
+        byte[] frame = frames.get(0).getBytes(StandardCharsets.US_ASCII);
+        assertEquals(1, OBDUtils.decodeAll(frame, 0, frame.length, readings));
+        assertEquals("Stored DTCs: P0133, P0134, P0420, P0421", OBDUtils.format(readings[0]));
+    }
+}
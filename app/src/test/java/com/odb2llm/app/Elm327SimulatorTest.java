@@ -0,0 +1,107 @@
+package com.odb2llm.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * simulator -> framer -> decodeAll, the path of SerialService without the android parts
+ */
+public class Elm327SimulatorTest {
+
+    private static final double DELTA = 1e-6;
+
+    private final Elm327Simulator.ScriptedVehicle vehicle = new Elm327Simulator.ScriptedVehicle();
+    private final BlockingQueue<List<String>> decoded = new LinkedBlockingQueue<>();
+    private final ObdReading[] readings = new ObdReading[ObdRequestBatcher.MAX_PIDS];
+    private final List<ObdReading> last = new ArrayList<>();
+    private Elm327Simulator simulator;
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < readings.length; i++)
+            readings[i] = new ObdReading();
+        // 1..3 byte fragments, every response is split many times
+        simulator = new Elm327Simulator(vehicle, 100, 50, 3, 7);
+        Elm327Framer framer = new Elm327Framer((buf, off, len) -> {
+            int n = OBDUtils.decodeAll(buf, off, len, readings);
+            List<String> texts = new ArrayList<>();
+            synchronized (last) {
+                last.clear();
+                for (int i = 0; i < n; i++) {
+                    texts.add(OBDUtils.format(readings[i]));
+                    ObdReading copy = new ObdReading();
+                    copy.copyFrom(readings[i]);
+                    last.add(copy);
+                }
+            }
+            decoded.add(texts);
+        });
+        simulator.connect(new SerialListener() {
+            @Override public void onSerialConnect() { }
+            @Override public void onSerialConnectError(Exception e) { }
+            @Override public void onSerialRead(byte[] data) { framer.feed(data, 0, data.length); }
+            @Override public void onSerialRead(ArrayDeque<byte[]> datas) { }
+            @Override public void onSerialIoError(Exception e) { }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        simulator.disconnect();
+    }
+
+    private List<String> request(String command) throws Exception {
+        simulator.write((command + "\r").getBytes(StandardCharsets.US_ASCII));
+        List<String> texts = decoded.poll(5, TimeUnit.SECONDS);
+        assertNotNull(command + " not answered", texts);
+        return texts;
+    }
+
+    @Test
+    public void batchedMode01() throws Exception {
+        vehicle.set(0x0C, 2000);
+        vehicle.set(0x0D, 60);
+        vehicle.set(0x05, 90);
+        assertEquals(3, request("010C0D05").size());
+        synchronized (last) {
+            assertEquals(0x0C, last.get(0).pid);
+            assertEquals(2000, last.get(0).value, DELTA);
+            assertEquals(0x0D, last.get(1).pid);
+            assertEquals(60, last.get(1).value, DELTA);
+            assertEquals(0x05, last.get(2).pid);
+            assertEquals(90, last.get(2).value, DELTA);
+        }
+    }
+
+    @Test
+    public void multiFrameDtcsAndVin() throws Exception {
+        vehicle.setDtcs(0x0133, 0x0134, 0x0420, 0x0421);
+        assertEquals("[Stored DTCs: P0133, P0134, P0420, P0421]", request("03").toString());
+        assertEquals("[VIN: 1G1JC5444R7252367]", request("0902").toString());
+    }
+
+    @Test
+    public void answersInRequestOrder() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            vehicle.set(0x0D, i);
+            assertEquals(1, request("010D").size());
+            synchronized (last) {
+                assertEquals(i, last.get(0).value, DELTA);
+            }
+        }
+        assertEquals(0, request("ATZ").size());
+        assertEquals(1, request("0120").size()); // supported PIDs bitmask
+    }
+}
@@ -0,0 +1,135 @@
+package com.odb2llm.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FlightRecorderTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private final FlightRecorder recorder = new FlightRecorder(5 * SECOND, 64);
+    private final ObdReading[] readings = new ObdReading[8];
+
+    public FlightRecorderTest() {
+        for (int i = 0; i < readings.length; i++)
+            readings[i] = new ObdReading();
+    }
+
+    private void record(long nanos, String response) {
+        byte[] data = response.getBytes(StandardCharsets.US_ASCII);
+        int n = OBDUtils.decodeAll(data, 0, data.length, readings);
+        for (int i = 0; i < n; i++)
+            recorder.record(nanos, readings[i]);
+    }
+
+    private static FlightRecorder.Series series(FlightRecorder.Snapshot snapshot, int channel) {
+        for (FlightRecorder.Series s : snapshot.series)
+            if (s.channel == channel)
+                return s;
+        throw new AssertionError("no series for channel " + channel);
+    }
+
+    @Test
+    public void milOnFreezesWindowBeforeTrigger() {
+        long t = 0;
+        for (int i = 0; i < 100; i++) {
+            t += SECOND / 10;
+            record(t, "41 0C 1A F8\r41 01 00 07 E5 00\r");
+        }
+        assertTrue(recorder.getSnapshots().isEmpty());
+
+        t += SECOND / 10;
+        record(t, "41 0C 1B 00\r41 01 81 07 E5 00\r");
+        List<FlightRecorder.Snapshot> snapshots = recorder.getSnapshots();
+        assertEquals(1, snapshots.size());
+        FlightRecorder.Snapshot snapshot = snapshots.get(0);
+        assertEquals("MIL on", snapshot.reason);
+        assertEquals(t, snapshot.triggerNanos);
+
+        FlightRecorder.Series rpm = series(snapshot, 0x0C);
+        assertEquals(51, rpm.nanos.length); // 5 s at 10 Hz, both ends included
+        assertEquals(t - 5 * SECOND, rpm.nanos[0]);
+        assertEquals(t, rpm.nanos[rpm.nanos.length - 1]);
+        assertEquals(1726, rpm.values[0], 0);
+        assertEquals(1728, rpm.values[rpm.values.length - 1], 0);
+
+        // still on, no second snapshot
+        record(t + SECOND, "41 01 81 07 E5 00\r");
+        assertEquals(1, recorder.getSnapshots().size());
+    }
+
+    @Test
+    public void ringKeepsNewestSamples() {
+        for (int i = 1; i <= 200; i++)
+            record(i * SECOND / 100, "41 0D " + String.format("%02X", i) + "\r");
+        FlightRecorder.Series speed = series(recorder.trigger("stall", 2 * SECOND), 0x0D);
+        assertEquals(64, speed.nanos.length);
+        assertEquals(137, speed.values[0], 0);
+        assertEquals(200, speed.values[63], 0);
+        for (int i = 1; i < speed.nanos.length; i++)
+            assertTrue(speed.nanos[i] > speed.nanos[i - 1]);
+    }
+
+    @Test
+    public void risingDtcCountFreezes() {
+        record(SECOND, "43 01 01 33\r");
+        assertTrue(recorder.getSnapshots().isEmpty()); // first count is the baseline
+
+        record(2 * SECOND, "43 02 01 33 01 34\r");
+        List<FlightRecorder.Snapshot> snapshots = recorder.getSnapshots();
+        assertEquals(1, snapshots.size());
+        assertEquals("new DTC, 2 stored", snapshots.get(0).reason);
+    }
+
+    @Test
+    public void savedSnapshotReadsBackInTimeOrder() throws IOException {
+        for (int i = 1; i <= 20; i++)
+            record(i * SECOND / 10, "41 0C 1A F8\r41 0D " + String.format("%02X", i) + "\r");
+        record(2 * SECOND, "43 01 01 33\r");
+        FlightRecorder.Snapshot snapshot = recorder.trigger("stall", 2 * SECOND);
+
+        File file = File.createTempFile("snapshot", TripLog.SUFFIX);
+        try {
+            FlightRecorder.save(snapshot, file, 1234);
+            TripLog.Reader reader = new TripLog.Reader(file);
+            assertEquals(1234, reader.startMillis);
+            assertTrue(reader.next());
+            assertEquals(TripLog.NOTE, reader.type());
+            assertEquals("stall", new String(reader.data(), StandardCharsets.UTF_8));
+            int speeds = 0, dtcs = 0;
+            long last = 0;
+            while (reader.next()) {
+                assertEquals(TripLog.READING, reader.type());
+                assertTrue(reader.nanos() >= last);
+                last = reader.nanos();
+                if (reader.mode() == 0x41 && reader.pid() == 0x0D)
+                    assertEquals(++speeds, reader.value(), 0);
+                if (reader.mode() == 0x43)
+                    dtcs++;
+            }
+            assertEquals(20, speeds);
+            assertEquals(1, dtcs);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    @Test
+    public void keepsLastSnapshots() {
+        record(SECOND, "41 0D 3C\r");
+        for (int i = 0; i < FlightRecorder.MAX_SNAPSHOTS + 2; i++)
+            recorder.trigger("manual " + i, SECOND + i);
+        List<FlightRecorder.Snapshot> snapshots = recorder.getSnapshots();
+        assertEquals(FlightRecorder.MAX_SNAPSHOTS, snapshots.size());
+        assertEquals("manual 2", snapshots.get(0).reason);
+        assertEquals("manual 5", snapshots.get(FlightRecorder.MAX_SNAPSHOTS - 1).reason);
+    }
+}
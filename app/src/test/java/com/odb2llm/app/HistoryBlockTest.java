@@ -0,0 +1,119 @@
+package com.odb2llm.app;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HistoryBlockTest {
+
+    private static final long PARTITION = 1_700_000_000_000L - 1_700_000_000_000L % (60 * HistoryBlock.MINUTE);
+
+    private final List<Long> times = new ArrayList<>();
+    private final List<Float> values = new ArrayList<>();
+
+    /**
+     * delta-of-deltas in every bucket, repeated, nearby and unrelated values
+     */
+    private HistoryBlock fill() {
+        HistoryBlock block = new HistoryBlock(0x05, PARTITION);
+        Random random = new Random(1);
+        long[] deltas = {500, 500, 501, 440, 700, 2500, 40_000, 500, 1, 0, 1_500_000, 500};
+        float[] samples = {83, 83, 83.5f, -40, 0, -0f, 1e-30f, Float.MAX_VALUE, 12.25f, 12.5f, 12.75f, 83};
+        long t = PARTITION + 1234;
+        for (int i = 0; i < 2000; i++) {
+            t += i < deltas.length ? deltas[i] : 500 + random.nextInt(5);
+            float v = i < samples.length ? samples[i] : Math.round(random.nextGaussian() * 10) / 4f + 80;
+            block.add(t, v);
+            times.add(t);
+            values.add(v);
+        }
+        return block;
+    }
+
+    private void assertScan(HistoryBlock block, long from, long to) {
+        List<Long> t = new ArrayList<>();
+        List<Float> v = new ArrayList<>();
+        block.scan(from, to, (millis, value) -> {
+            t.add(millis);
+            v.add(value);
+        });
+        int expected = 0;
+        for (int i = 0; i < times.size(); i++) {
+            if (times.get(i) < from || times.get(i) >= to)
+                continue;
+            assertEquals(times.get(i), t.get(expected));
+            assertEquals(Float.floatToRawIntBits(values.get(i)), Float.floatToRawIntBits(v.get(expected)));
+            expected++;
+        }
+        assertEquals(expected, t.size());
+    }
+
+    @Test
+    public void decodesWhatWasEncoded() {
+        HistoryBlock block = fill();
+        assertEquals(times.size(), block.count);
+        assertEquals((long) times.get(0), block.first);
+        assertEquals((long) times.get(times.size() - 1), block.last);
+        assertEquals(-40, block.min, 0);
+        assertEquals(Float.MAX_VALUE, block.max, 0);
+        assertScan(block, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertScan(block, times.get(100), times.get(1500));
+        assertScan(block, times.get(100) + 1, times.get(100) + 2);
+    }
+
+    @Test
+    public void summaryAndBodyRoundTrip() {
+        HistoryBlock block = fill();
+        ByteBuffer buffer = ByteBuffer.allocate(HistoryBlock.SUMMARY_BYTES + block.bodyBytes());
+        block.writeSummary(buffer);
+        block.writeBody(buffer);
+        assertEquals(buffer.capacity(), buffer.position());
+        buffer.flip();
+
+        HistoryBlock summary = HistoryBlock.readSummary(buffer, PARTITION);
+        assertEquals(0x05, summary.pid);
+        assertEquals(block.count, summary.count);
+        assertEquals(block.first, summary.first);
+        assertEquals(block.last, summary.last);
+        assertEquals(block.sum, summary.sum, 0);
+
+        HistoryBlock full = summary.withBody(buffer);
+        for (int m = 0; m < HistoryBlock.MINUTES; m++) {
+            assertEquals(block.tierCount[m], full.tierCount[m]);
+            assertEquals(block.tierMin[m], full.tierMin[m], 0);
+            assertEquals(block.tierMax[m], full.tierMax[m], 0);
+            assertEquals(block.tierSum[m], full.tierSum[m], 0);
+        }
+        assertScan(full, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void copyIsNotChangedByLaterPoints() {
+        HistoryBlock block = fill();
+        HistoryBlock copy = block.copy();
+        block.add(block.last + 500, 99);
+        assertEquals(times.size(), copy.count);
+        assertScan(copy, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void minuteTierSumsTheMinute() {
+        HistoryBlock block = fill();
+        int[] count = new int[HistoryBlock.MINUTES];
+        double[] sum = new double[HistoryBlock.MINUTES];
+        for (int i = 0; i < times.size(); i++) {
+            int m = block.minute(times.get(i));
+            count[m]++;
+            sum[m] += values.get(i);
+        }
+        for (int m = 0; m < HistoryBlock.MINUTES; m++) {
+            assertEquals(count[m], block.tierCount[m]);
+            assertEquals(sum[m], block.tierSum[m], 0);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.odb2llm.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HistoryStoreTest {
+
+    private static final long PARTITION = 1_700_000_000_000L - 1_700_000_000_000L % HistoryStore.HOUR;
+    private static final long START = PARTITION + 1234;
+    private static final long END = START + 3 * HistoryStore.HOUR; // 1234 ms into the fourth hour
+
+    private final List<Long> times = new ArrayList<>();
+    private final List<Float> values = new ArrayList<>();
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("history").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File file : files)
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+    }
+
+    /**
+     * three hours of coolant temperature at 2 Hz, whole degrees so sums are exact
+     */
+    private HistoryStore fill() throws IOException {
+        HistoryStore store = new HistoryStore(dir, START);
+        ObdReading r = new ObdReading();
+        r.mode = 0x41;
+        r.pid = 0x05;
+        Random random = new Random(1);
+        float temp = 80;
+        for (long t = START; t < END; t += 500 + random.nextInt(3)) {
+            temp += Math.round(random.nextGaussian());
+            r.value = temp;
+            store.add(t, r);
+            times.add(t);
+            values.add(temp);
+        }
+        return store;
+    }
+
+    private void assertAggregate(HistoryStore store, long from, long to) throws IOException {
+        HistoryStore.Aggregate expected = new HistoryStore.Aggregate(from);
+        for (int i = 0; i < times.size(); i++)
+            if (times.get(i) >= from && times.get(i) < to)
+                expected.add(values.get(i));
+        HistoryStore.Aggregate actual = store.aggregate(0x05, from, to);
+        assertEquals(expected.count, actual.count);
+        assertEquals(expected.min, actual.min, 0);
+        assertEquals(expected.max, actual.max, 0);
+        assertEquals(expected.sum, actual.sum, 0);
+    }
+
+    @Test
+    public void aggregateOverCutMinutes() throws IOException {
+        HistoryStore store = fill(); // three sealed hours, one active
+        assertAggregate(store, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertAggregate(store, START + 777, END - 12_345);
+        assertAggregate(store, START + HistoryStore.HOUR - 30_000, START + HistoryStore.HOUR + 30_000);
+        assertAggregate(store, START + 2 * HistoryStore.HOUR + 1, START + 2 * HistoryStore.HOUR + 2_000);
+        assertEquals(0, store.aggregate(0x0C, START, END).count);
+        store.close();
+    }
+
+    @Test
+    public void downsampleSumsToAggregate() throws IOException {
+        HistoryStore store = fill();
+        long from = START + 5_000;
+        List<HistoryStore.Aggregate> buckets = store.downsample(0x05, from, END, 7 * HistoryBlock.MINUTE + 1);
+        HistoryStore.Aggregate total = store.aggregate(0x05, from, END);
+        int count = 0;
+        double sum = 0;
+        for (HistoryStore.Aggregate bucket : buckets) {
+            assertAggregate(store, bucket.start, Math.min(END, bucket.start + 7 * HistoryBlock.MINUTE + 1));
+            count += bucket.count;
+            sum += bucket.sum;
+        }
+        assertEquals(total.count, count);
+        assertEquals(total.sum, sum, 0);
+        store.close();
+    }
+
+    @Test
+    public void reopenReadsWrittenSegments() throws IOException {
+        fill().close();
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".seg"));
+        assertEquals(4, files.length);
+
+        HistoryStore store = new HistoryStore(dir, END);
+        assertAggregate(store, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertAggregate(store, START + 777, END - 12_345);
+        List<Long> scanned = new ArrayList<>();
+        store.scan(0x05, START + 60_000, END, (millis, value) -> scanned.add(millis));
+        assertEquals(times.subList(times.indexOf(scanned.get(0)), times.size()), scanned);
+        assertTrue(scanned.get(0) >= START + 60_000);
+        store.close();
+    }
+
+    @Test
+    public void segmentsPastRetentionAreDeleted() throws IOException {
+        fill().close();
+        HistoryStore store = new HistoryStore(dir, START + HistoryStore.RETENTION_MILLIS + 2 * HistoryStore.HOUR);
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".seg"));
+        assertEquals(2, files.length); // the hours that ended within the retention
+        int kept = 0;
+        for (long t : times)
+            if (t >= PARTITION + 2 * HistoryStore.HOUR)
+                kept++;
+        assertEquals(kept, store.aggregate(0x05, Long.MIN_VALUE, Long.MAX_VALUE).count);
+        store.close();
+    }
+
+    @Test
+    public void readingsAfterCloseAreIgnored() throws IOException {
+        HistoryStore store = fill();
+        store.close();
+        ObdReading r = new ObdReading();
+        r.mode = 0x41;
+        r.pid = 0x05;
+        r.value = 90;
+        store.add(END + HistoryStore.HOUR, r); // would seal the hour on a shut down writer
+        assertEquals(times.size(), store.aggregate(0x05, Long.MIN_VALUE, Long.MAX_VALUE).count);
+    }
+}
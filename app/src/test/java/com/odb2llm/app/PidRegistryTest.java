@@ -0,0 +1,175 @@
+package com.odb2llm.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class PidRegistryTest {
+
+    private static final double DELTA = 1e-6;
+
+    private final ObdReading[] readings = new ObdReading[8];
+
+    public PidRegistryTest() {
+        for (int i = 0; i < readings.length; i++)
+            readings[i] = new ObdReading();
+    }
+
+    // as on the socket, the framer joins ISO-TP frames before decoding
+    private int decode(String response) {
+        byte[] data = response.getBytes(StandardCharsets.US_ASCII);
+        int[] n = {0};
+        Elm327Framer framer = new Elm327Framer((buf, off, len) -> n[0] = OBDUtils.decodeAll(buf, off, len, readings));
+        framer.feed(data, 0, data.length);
+        return n[0];
+    }
+
+    private void assertReading(String frame, int pid, double value, ObdUnit unit) {
+        assertEquals(frame, 1, decode(frame + "\r\r>"));
+        ObdReading r = readings[0];
+        assertEquals(frame, 0x41, r.mode);
+        assertEquals(frame, pid, r.pid);
+        assertEquals(frame, value, r.value, DELTA);
+        assertEquals(frame, unit, r.unit);
+    }
+
+    @Test
+    public void capturedFrames() {
+        assertReading("41 00 BE 3E B8 11", 0x00, 0xBE3EB811L, ObdUnit.NONE);
+        assertReading("41 03 02 00", 0x03, 2, ObdUnit.NONE);
+        assertReading("41 04 FF", 0x04, 100, ObdUnit.PERCENT);
+        assertReading("41 05 7B", 0x05, 83, ObdUnit.CELSIUS);
+        assertReading("41 06 80", 0x06, 0, ObdUnit.PERCENT);
+        assertReading("41 07 00", 0x07, -100, ObdUnit.PERCENT);
+        assertReading("41 0A 40", 0x0A, 192, ObdUnit.KPA);
+        assertReading("41 0B 21", 0x0B, 33, ObdUnit.KPA);
+        assertReading("41 0C 1A F8", 0x0C, 1726, ObdUnit.RPM);
+        assertReading("41 0D 3C", 0x0D, 60, ObdUnit.KMH);
+        assertReading("41 0E 90", 0x0E, 8, ObdUnit.DEGREES);
+        assertReading("41 0F 45", 0x0F, 29, ObdUnit.CELSIUS);
+        assertReading("41 10 01 F4", 0x10, 5, ObdUnit.GRAMS_PER_SEC);
+        assertReading("41 11 33", 0x11, 20, ObdUnit.PERCENT);
+        assertReading("41 14 5A 80", 0x14, 0.45, ObdUnit.VOLTS);
+        assertReading("41 1C 06", 0x1C, 6, ObdUnit.NONE);
+        assertReading("41 1F 01 2C", 0x1F, 300, ObdUnit.SECONDS);
+        assertReading("41 21 00 0A", 0x21, 10, ObdUnit.KM);
+        assertReading("41 22 01 00", 0x22, 20.224, ObdUnit.KPA);
+        assertReading("41 24 80 00 00 00", 0x24, 1, ObdUnit.RATIO);
+        assertReading("41 2F 80", 0x2F, 128 * 100.0 / 255, ObdUnit.PERCENT);
+        assertReading("41 3C 11 94", 0x3C, 410, ObdUnit.CELSIUS);
+        assertReading("41 42 30 D4", 0x42, 12.5, ObdUnit.VOLTS);
+        assertReading("41 46 3C", 0x46, 20, ObdUnit.CELSIUS);
+        assertReading("41 4D 00 1E", 0x4D, 30, ObdUnit.MINUTES);
+        assertReading("41 51 01", 0x51, 1, ObdUnit.NONE);
+        assertReading("41 5C 6E", 0x5C, 70, ObdUnit.CELSIUS);
+        assertReading("41 5E 00 C8", 0x5E, 10, ObdUnit.LITERS_PER_HOUR);
+        assertReading("41 61 7D", 0x61, 0, ObdUnit.PERCENT);
+        assertReading("41 63 01 2C", 0x63, 300, ObdUnit.NEWTON_METERS);
+        assertReading("41 67 01 64 00", 0x67, 60, ObdUnit.CELSIUS);
+        assertReading("41 74 01 03 E8 00 00", 0x74, 10000, ObdUnit.RPM);
+        assertReading("41 98 01 11 94 00 00 00 00 00 00", 0x98, 410, ObdUnit.CELSIUS);
+        assertReading("41 A4 00 00 0B B8", 0xA4, 3, ObdUnit.RATIO);
+        assertReading("41 A5 01 64 00 00", 0xA5, 50, ObdUnit.PERCENT);
+        assertReading("41 A6 00 01 86 A0", 0xA6, 10000, ObdUnit.KM);
+    }
+
+    @Test
+    public void signedPids() {
+        assertReading("41 32 FF 38", 0x32, -50, ObdUnit.PA);
+        assertReading("41 54 FE 0C", 0x54, -500, ObdUnit.PA);
+    }
+
+    @Test
+    public void monitorStatusBitfield() {
+        assertReading("41 01 83 07 65 04", 0x01, 3, ObdUnit.NONE);
+        String text = OBDUtils.format(readings[0]);
+        assertTrue(text, text.contains("Stored DTCs: 3"));
+        assertTrue(text, text.contains("MIL status: ON"));
+        assertTrue(text, text.contains("Test availability: 0x65"));
+
+        assertReading("41 01 00 07 65 04", 0x01, 0, ObdUnit.NONE);
+        text = OBDUtils.format(readings[0]);
+        assertTrue(text, text.contains("MIL status: OFF"));
+    }
+
+    @Test
+    public void everyRegisteredPid() {
+        for (int pid = 0; pid < 256; pid++) {
+            PidRegistry.Pid p = PidRegistry.mode01(pid);
+            if (p == null)
+                continue;
+            StringBuilder frame = new StringBuilder(String.format(Locale.US, "41 %02X", pid));
+            for (int i = 0; i < p.length; i++)
+                frame.append(" 11");
+            String name = String.format(Locale.US, "pid %02X", pid);
+            assertEquals(name, 1, decode(frame + "\r\r>"));
+            assertEquals(name, 0x41, readings[0].mode);
+            assertEquals(name, pid, readings[0].pid);
+            assertEquals(name, p.unit, readings[0].unit);
+            assertFalse(name, Double.isNaN(readings[0].value));
+            assertFalse(name, OBDUtils.format(readings[0]).isEmpty());
+
+            String truncated = frame.substring(0, frame.length() - 3);
+            assertEquals(name + " truncated", 0, decode(truncated + "\r\r>"));
+        }
+    }
+
+    @Test
+    public void multiPidResponse() {
+        assertEquals(3, decode("41 0C 1A F8 0D 3C 05 7B\r\r>"));
+        assertEquals(0x0C, readings[0].pid);
+        assertEquals(1726, readings[0].value, DELTA);
+        assertEquals(0x0D, readings[1].pid);
+        assertEquals(60, readings[1].value, DELTA);
+        assertEquals(0x05, readings[2].pid);
+        assertEquals(83, readings[2].value, DELTA);
+    }
+
+    @Test
+    public void multiPidResponseSkipsUnknownPid() {
+        // 0x95 is not registered, its data is skipped up to the PIDs that fill the rest of the message
+        assertEquals(3, decode("41 0C 1A F8 95 FF FF 0D 3C 05 7B\r\r>"));
+        assertEquals(0x0C, readings[0].pid);
+        assertEquals(0x0D, readings[1].pid);
+        assertEquals(60, readings[1].value, DELTA);
+        assertEquals(0x05, readings[2].pid);
+        assertEquals(83, readings[2].value, DELTA);
+
+        assertEquals(2, decode("41 95 FF FF 0D 3C 05 7B\r\r>"));
+        assertEquals(0x0D, readings[0].pid);
+        assertEquals(0x05, readings[1].pid);
+    }
+
+    @Test
+    public void multiPidResponseOfSeveralEcus() {
+        assertEquals(2, decode("41 0D 3C\r41 0D 3D\r\r>"));
+        assertEquals(60, readings[0].value, DELTA);
+        assertEquals(61, readings[1].value, DELTA);
+    }
+
+    @Test
+    public void storedDtcsMultiFrame() {
+        assertEquals(1, decode("00A\r0: 43 04 01 33 01 34\r1: 04 20 04 21 00 00 00\r\r>"));
+        ObdReading r = readings[0];
+        assertEquals(0x43, r.mode);
+        assertEquals(0, r.pid);
+        assertEquals(4, r.value, DELTA);
+        assertEquals(ObdUnit.COUNT, r.unit);
+        assertEquals("Stored DTCs: P0133, P0134, P0420, P0421", OBDUtils.format(r));
+    }
+
+    @Test
+    public void vinMultiFrame() {
+        assertEquals(1, decode("014\r0: 49 02 01 31 44 34\r1: 47 50 30 30 52 35 35\r2: 42 31 32 33 34 35 36\r\r>"));
+        ObdReading r = readings[0];
+        assertEquals(0x49, r.mode);
+        assertEquals(0x02, r.pid);
+        assertEquals(17, r.value, DELTA);
+        assertEquals("VIN: 1D4GP00R55B123456", OBDUtils.format(r));
+    }
+}
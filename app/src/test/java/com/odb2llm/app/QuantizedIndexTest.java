@@ -0,0 +1,157 @@
+package com.odb2llm.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QuantizedIndexTest {
+
+    private static final long KEY = 42;
+    private static final int SIZE = 1000;
+    private static final int DIM = 32;
+    private static final int K = 5;
+
+    private File file;
+    private ChunkIndex index;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("chunks", ".ivf");
+        index = index(KEY, SIZE, 1);
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    /**
+     * vectors around 20 random topics, like chunks of a knowledge base
+     */
+    private static ChunkIndex index(long key, int size, long seed) {
+        Random random = new Random(seed);
+        float[][] topics = new float[20][DIM];
+        for (float[] topic : topics)
+            for (int i = 0; i < DIM; i++)
+                topic[i] = (float) random.nextGaussian();
+        List<String> texts = new ArrayList<>();
+        List<float[]> vectors = new ArrayList<>();
+        for (int row = 0; row < size; row++) {
+            float[] topic = topics[random.nextInt(topics.length)];
+            float[] vector = new float[DIM];
+            for (int i = 0; i < DIM; i++)
+                vector[i] = topic[i] + 0.5f * (float) random.nextGaussian();
+            texts.add("chunk " + row);
+            vectors.add(vector);
+        }
+        return ChunkIndex.build(key, texts, vectors);
+    }
+
+    private static float[] query(Random random) {
+        float[] query = new float[DIM];
+        for (int i = 0; i < DIM; i++)
+            query[i] = (float) random.nextGaussian();
+        return query;
+    }
+
+    @Test
+    public void searchFindsExactTopWithAllLists() {
+        QuantizedIndex ivf = QuantizedIndex.build(index, QuantizedIndex.defaultLists(SIZE), 7);
+        int[] rows = new int[K];
+        float[] scores = new float[K];
+        float[] exact = new float[SIZE];
+        Random random = new Random(3);
+        for (int q = 0; q < 20; q++) {
+            float[] query = query(random);
+            assertEquals(K, ivf.search(query, K, ivf.lists, index, rows, scores));
+            index.scan(query, exact);
+            int[] expected = ChunkIndex.top(exact, SIZE, K);
+            assertArrayEquals("query " + q, expected, rows);
+            for (int i = 1; i < K; i++)
+                assertTrue(scores[i - 1] >= scores[i]);
+        }
+    }
+
+    @Test
+    public void fewProbesKeepRecall() {
+        QuantizedIndex ivf = QuantizedIndex.build(index, QuantizedIndex.defaultLists(SIZE), 7);
+        int[] rows = new int[K];
+        float[] scores = new float[K];
+        float[] exact = new float[SIZE];
+        Random random = new Random(5);
+        int hits = 0, queries = 50;
+        for (int q = 0; q < queries; q++) {
+            float[] query = index.vector(random.nextInt(SIZE)); // questions close to some chunk
+            int n = ivf.search(query, K, 4, index, rows, scores);
+            index.scan(query, exact);
+            int[] expected = ChunkIndex.top(exact, SIZE, K);
+            for (int i = 0; i < n; i++)
+                for (int row : expected)
+                    if (rows[i] == row)
+                        hits++;
+        }
+        assertTrue("recall " + hits, hits >= 0.9 * queries * K);
+    }
+
+    @Test
+    public void saveLoadRoundTrip() throws IOException {
+        QuantizedIndex built = QuantizedIndex.build(index, 8, 7);
+        built.save(file);
+        QuantizedIndex loaded = QuantizedIndex.load(file, index);
+        assertNotNull(loaded);
+        assertEquals(built.lists, loaded.lists);
+
+        float[] query = query(new Random(9));
+        int[] builtRows = new int[K], loadedRows = new int[K];
+        float[] builtScores = new float[K], loadedScores = new float[K];
+        built.search(query, K, 2, index, builtRows, builtScores);
+        loaded.search(query, K, 2, index, loadedRows, loadedScores);
+        assertArrayEquals(builtRows, loadedRows);
+        assertArrayEquals(builtScores, loadedScores, 0);
+    }
+
+    @Test
+    public void loadForOtherChunkIndexMisses() throws IOException {
+        QuantizedIndex.build(index, 8, 7).save(file);
+        assertNull(QuantizedIndex.load(file, index(KEY + 1, SIZE, 1)));
+        assertNull(QuantizedIndex.load(file, index(KEY, SIZE - 1, 1)));
+        assertNull(QuantizedIndex.load(new File(file.getPath() + ".missing"), index));
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        QuantizedIndex.build(index, 8, 7).save(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        assertNull(QuantizedIndex.load(file, index));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(12);
+        }
+        assertNull(QuantizedIndex.load(file, index));
+    }
+
+    @Test
+    public void moreListsThanVectors() {
+        ChunkIndex small = index(KEY, 3, 1);
+        QuantizedIndex ivf = QuantizedIndex.build(small, 10, 7);
+        assertEquals(3, ivf.lists);
+        int[] rows = new int[K];
+        float[] scores = new float[K];
+        assertEquals(3, ivf.search(query(new Random(1)), K, 10, small, rows, scores));
+    }
+}
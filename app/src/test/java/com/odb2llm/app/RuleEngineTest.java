@@ -0,0 +1,120 @@
+package com.odb2llm.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RuleEngineTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private final RuleEngine engine = new RuleEngine();
+    private final List<RuleEngine.Event> events = new ArrayList<>();
+    private final ObdReading reading = new ObdReading();
+
+    public RuleEngineTest() {
+        engine.setListener(events::add);
+        reading.mode = 0x41;
+    }
+
+    private void feed(long nanos, int pid, double value) {
+        reading.pid = pid;
+        reading.value = value;
+        engine.onReading(nanos, reading);
+    }
+
+    @Test
+    public void thresholdFiresOnceUntilBackByHysteresis() {
+        engine.add(RuleEngine.Rule.parse("05 > 110 5"));
+        feed(0, 0x05, 100);
+        feed(SECOND, 0x05, 111);
+        assertEquals(1, events.size());
+        RuleEngine.Event event = events.get(0);
+        assertEquals(0x05, event.pid);
+        assertFalse(event.anomaly);
+        assertEquals("Engine coolant temperature 111 °C, above the limit of 110 °C", event.text);
+
+        // oscillating around the limit, still within the hysteresis
+        feed(100 * SECOND, 0x05, 108);
+        feed(101 * SECOND, 0x05, 112);
+        feed(102 * SECOND, 0x05, 106);
+        feed(103 * SECOND, 0x05, 111);
+        assertEquals(1, events.size());
+
+        // back below 105, re-armed
+        feed(104 * SECOND, 0x05, 104);
+        feed(105 * SECOND, 0x05, 111);
+        assertEquals(2, events.size());
+    }
+
+    @Test
+    public void ruleCooldown() {
+        engine.add(RuleEngine.Rule.parse("05 > 110"));
+        feed(0, 0x05, 111);
+        feed(20 * SECOND, 0x05, 100);
+        feed(21 * SECOND, 0x05, 111); // re-armed, but within the cooldown
+        assertEquals(1, events.size());
+        feed(30 * SECOND, 0x05, 100);
+        feed(RuleEngine.COOLDOWN_NANOS, 0x05, 111);
+        assertEquals(2, events.size());
+    }
+
+    @Test
+    public void globalCooldownAcrossRules() {
+        engine.add(RuleEngine.Rule.parse("05 > 110"));
+        engine.add(RuleEngine.Rule.parse("42 < 11.8"));
+        feed(0, 0x05, 111);
+        feed(SECOND, 0x42, 11.5);
+        assertEquals(1, events.size());
+        feed(RuleEngine.GLOBAL_COOLDOWN_NANOS + 2 * SECOND, 0x42, 12.5);
+        feed(RuleEngine.GLOBAL_COOLDOWN_NANOS + 3 * SECOND, 0x42, 11.5);
+        assertEquals(2, events.size());
+        assertEquals(0x42, events.get(1).pid);
+    }
+
+    @Test
+    public void anomalyAfterWarmup() {
+        long t = 0;
+        for (int i = 0; i < RuleEngine.WARMUP - 1; i++)
+            feed(t += SECOND, 0x0C, i % 2 == 0 ? 790 : 810);
+        feed(t += SECOND, 0x0C, 4000); // still warming up
+        assertTrue(events.isEmpty());
+
+        for (int i = 0; i < 200; i++)
+            feed(t += SECOND, 0x0C, i % 2 == 0 ? 790 : 810);
+        assertTrue(events.isEmpty());
+        feed(t += SECOND, 0x0C, 4000);
+        assertEquals(1, events.size());
+        assertTrue(events.get(0).anomaly);
+        assertEquals(0x0C, events.get(0).pid);
+
+        // still anomalous, no second event until back within Z_REARM
+        feed(t += 100 * SECOND, 0x0C, 4000);
+        assertEquals(1, events.size());
+    }
+
+    @Test
+    public void parse() {
+        RuleEngine.Rule rule = RuleEngine.Rule.parse(" 42 < 11.8 0.4 ");
+        assertEquals(0x42, rule.pid);
+        assertFalse(rule.above);
+        assertEquals(11.8, rule.threshold, 0);
+        assertEquals(0.4, rule.hysteresis, 0);
+        assertEquals("42 Control module voltage < 11.80 V (hysteresis 0.40 V)", rule.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseRejectsUnknownPid() {
+        RuleEngine.Rule.parse("95 > 1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseRejectsMissingThreshold() {
+        RuleEngine.Rule.parse("05 >");
+    }
+}
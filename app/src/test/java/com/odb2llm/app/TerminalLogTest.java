@@ -0,0 +1,49 @@
+package com.odb2llm.app;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TerminalLogTest {
+
+    private final TerminalLog log = new TerminalLog();
+
+    @Test
+    public void responseKeepsGrowingWhileLinesAreAdded() {
+        log.add(TerminalLog.TYPE_SEND, "why is coolant important?");
+        log.appendResponse("Coolant ", false);
+        log.add(TerminalLog.TYPE_RECEIVE, "Engine RPM is 800 rpm.");
+        log.appendResponse("keeps the engine ", false);
+        log.add(TerminalLog.TYPE_STATUS, "polling started");
+        log.appendResponse("cool.", true);
+
+        assertEquals(4, log.size());
+        assertEquals(TerminalLog.TYPE_RESPONSE, log.type(1));
+        assertEquals("Coolant keeps the engine cool.", log.text(1).toString());
+        assertEquals("polling started", log.text(3).toString());
+    }
+
+    @Test
+    public void endedResponseIsNotContinued() {
+        log.appendResponse("first", true);
+        log.appendResponse("second", false);
+        log.appendResponse("", true);
+        assertEquals(2, log.size());
+        assertEquals("first", log.text(0).toString());
+        assertEquals("second", log.text(1).toString());
+    }
+
+    @Test
+    public void responseSurvivesEvictionOfOlderLines() {
+        log.appendResponse("streaming", false);
+        for (int i = 0; i < TerminalLog.CAPACITY - 1; i++)
+            log.add(TerminalLog.TYPE_RECEIVE, "reading " + i);
+        log.appendResponse(" still", false);
+        assertEquals("streaming still", log.text(0).toString());
+
+        log.add(TerminalLog.TYPE_RECEIVE, "evicts the response");
+        log.appendResponse("new row", true);
+        assertEquals(TerminalLog.CAPACITY, log.size());
+        assertEquals("new row", log.text(TerminalLog.CAPACITY - 1).toString());
+    }
+}
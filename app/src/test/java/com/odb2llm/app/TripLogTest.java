@@ -0,0 +1,112 @@
+package com.odb2llm.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TripLogTest {
+
+    private static final int RECORDS = 1000;
+    private static final byte[] FRAME = "41 0C 1A F8\r\r>".getBytes(StandardCharsets.US_ASCII);
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("trip", TripLog.SUFFIX);
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    private void write() throws IOException {
+        TripLog log = new TripLog(file, 1234);
+        ObdReading[] readings = {new ObdReading()};
+        OBDUtils.decodeAll(FRAME, 0, FRAME.length, readings);
+        for (int i = 0; i < RECORDS; i++) {
+            log.raw(i * 1_000_000L, FRAME);
+            log.reading(i * 1_000_000L, readings[0]);
+        }
+        log.close();
+        assertEquals(0, log.getDropped());
+    }
+
+    private int count() throws IOException {
+        TripLog.Reader reader = new TripLog.Reader(file);
+        int n = 0;
+        while (reader.next())
+            n++;
+        return n;
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        write();
+        TripLog.Reader reader = new TripLog.Reader(file);
+        assertEquals(1234, reader.startMillis);
+        for (int i = 0; i < RECORDS; i++) {
+            assertTrue(reader.next());
+            assertEquals(TripLog.RAW, reader.type());
+            assertEquals(i * 1_000_000L, reader.nanos());
+            assertArrayEquals(FRAME, reader.data());
+
+            assertTrue(reader.next());
+            assertEquals(TripLog.READING, reader.type());
+            assertEquals(i * 1_000_000L, reader.nanos());
+            assertEquals(0x41, reader.mode());
+            assertEquals(0x0C, reader.pid());
+            assertEquals(1726, reader.value(), 0);
+        }
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void tornTailStopsAtLastWholeRecord() throws IOException {
+        write();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3); // killed in the middle of the last record
+        }
+        assertEquals(2 * RECORDS - 1, count());
+    }
+
+    @Test
+    public void zeroTailOfKilledWriterIsEnd() throws IOException {
+        write();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() + 4096); // mapped but never written
+        }
+        assertEquals(2 * RECORDS, count());
+    }
+
+    @Test
+    public void corruptRecordStopsReader() throws IOException {
+        write();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // header, then 10 raw and reading records, into the payload of the next raw record
+            raf.seek(16 + 10 * ((16 + FRAME.length) + (16 + 6)) + 12 + 2);
+            raf.write('X');
+        }
+        assertEquals(20, count());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(new byte[32]);
+        }
+        new TripLog.Reader(file);
+    }
+}
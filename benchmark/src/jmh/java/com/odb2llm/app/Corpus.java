@@ -0,0 +1,98 @@
+package com.odb2llm.app;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ELM327 output from src/jmh/resources/corpus, one response per line with '\r' escaped.
+ * captures from a car can be added the same way, lines starting with '#' are comments
+ */
+final class Corpus {
+
+    static final String[] NAMES = {"mode01_single", "mode01_multi", "mixed"};
+
+    final byte[][] responses;
+
+    private Corpus(byte[][] responses) {
+        this.responses = responses;
+    }
+
+    static Corpus load(String name) throws IOException {
+        List<byte[]> responses = new ArrayList<>();
+        try (InputStream in = Corpus.class.getResourceAsStream("/corpus/" + name + ".txt")) {
+            if (in == null)
+                throw new IOException("corpus " + name + " not found");
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                responses.add(line.replace("\\r", "\r").getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        return new Corpus(responses.toArray(new byte[0][]));
+    }
+
+    String[] texts() {
+        String[] texts = new String[responses.length];
+        for (int i = 0; i < texts.length; i++)
+            texts[i] = new String(responses[i], StandardCharsets.US_ASCII);
+        return texts;
+    }
+
+    /**
+     * responses as {@link Elm327Framer} hands them to the decoder, ISO-TP frames joined into one line
+     */
+    byte[][] framed() {
+        List<byte[]> frames = new ArrayList<>();
+        Elm327Framer framer = new Elm327Framer((buf, off, len) -> {
+            byte[] frame = new byte[len];
+            System.arraycopy(buf, off, frame, 0, len);
+            frames.add(frame);
+        });
+        for (byte[] response : responses)
+            framer.feed(response, 0, response.length);
+        return frames.toArray(new byte[0][]);
+    }
+
+    /**
+     * hex payload of every response line without spaces and ISO-TP frame index, e.g. "410C1AF8"
+     */
+    String[] hexLines() {
+        List<String> lines = new ArrayList<>();
+        for (String text : texts())
+            for (String line : text.split("\r")) {
+                String hex = line.replaceFirst("^[0-9A-F]:", "").replace(" ", "");
+                if (hex.length() >= 4 && hex.length() % 2 == 0 && hex.matches("[0-9A-F]+"))
+                    lines.add(hex);
+            }
+        return lines.toArray(new String[0]);
+    }
+
+    /**
+     * responses cut into chunks of 1..maxFragment bytes, as delivered by the bluetooth socket
+     */
+    byte[][][] fragments(int maxFragment, long seed) {
+        Random random = new Random(seed);
+        byte[][][] fragments = new byte[responses.length][][];
+        for (int i = 0; i < responses.length; i++) {
+            byte[] response = responses[i];
+            List<byte[]> chunks = new ArrayList<>();
+            for (int pos = 0; pos < response.length; ) {
+                int len = Math.min(response.length - pos, 1 + random.nextInt(maxFragment));
+                byte[] chunk = new byte[len];
+                System.arraycopy(response, pos, chunk, 0, len);
+                chunks.add(chunk);
+                pos += len;
+            }
+            fragments[i] = chunks.toArray(new byte[0][]);
+        }
+        return fragments;
+    }
+}
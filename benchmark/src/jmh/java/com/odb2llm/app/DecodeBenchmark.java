@@ -0,0 +1,69 @@
+package com.odb2llm.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+
+/**
+ * per response cost of decoding, one operation is one response of the corpus
+ */
+@State(Scope.Thread)
+public class DecodeBenchmark {
+
+    @Param({"mode01_single", "mode01_multi", "mixed"})
+    public String corpus;
+
+    private byte[][] responses;     // framed
+    private String[] texts;
+    private String[] hexLines;
+    private final ObdReading reading = new ObdReading();
+    private final ObdReading[] readings = new ObdReading[ObdRequestBatcher.MAX_PIDS];
+    private int next, nextHex;
+
+    @Setup
+    public void setup() throws IOException {
+        Corpus c = Corpus.load(corpus);
+        responses = c.framed();
+        texts = c.texts();
+        hexLines = c.hexLines();
+        for (int i = 0; i < readings.length; i++)
+            readings[i] = new ObdReading();
+    }
+
+    private int next() {
+        int i = next;
+        next = i + 1 == responses.length ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public String decodeOBDResponse() {
+        return OBDUtils.decodeOBDResponse(texts[next()]);
+    }
+
+    @Benchmark
+    public boolean decode() {
+        byte[] response = responses[next()];
+        return OBDUtils.decode(response, 0, response.length, reading);
+    }
+
+    @Benchmark
+    public void decodeAll(Blackhole bh) {
+        byte[] response = responses[next()];
+        int n = OBDUtils.decodeAll(response, 0, response.length, readings);
+        for (int i = 0; i < n; i++)
+            bh.consume(readings[i].value);
+    }
+
+    @Benchmark
+    public byte[] hexStringToByteArray() {
+        int i = nextHex;
+        nextHex = i + 1 == hexLines.length ? 0 : i + 1;
+        return OBDUtils.hexStringToByteArray(hexLines[i]);
+    }
+}
@@ -0,0 +1,116 @@
+package com.odb2llm.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * RAG retrieval of the top 10 chunks: exact scan of {@link ChunkIndex} against the int8 IVF {@link QuantizedIndex}.
+ * one operation is one query. the vectors are clustered like sentence embeddings of a DTC catalog,
+ * recall@10 of the IVF search against the exact scan is printed during setup.
+ */
+@State(Scope.Benchmark)
+public class RetrievalBenchmark {
+
+    private static final int DIM = 768;
+    private static final int CLUSTERS = 200;
+    private static final float NOISE = 1.2f;
+    private static final int QUERIES = 64;
+    private static final int K = 10;
+
+    // building the IVF index takes seconds, shared by all probes of a size
+    private static final Map<Integer, Object[]> INDEXES = new HashMap<>();
+
+    @Param({"2048", "20000"})
+    public int size;
+
+    @Param({"4", "8", "16"})
+    public int probes;
+
+    private ChunkIndex index;
+    private QuantizedIndex quantized;
+    private float[][] queries;
+    private float[] scores;
+    private final int[] rows = new int[K];
+    private final float[] topScores = new float[K];
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        float[][] centers = new float[CLUSTERS][DIM];
+        for (float[] center : centers)
+            for (int i = 0; i < DIM; i++)
+                center[i] = (float) random.nextGaussian();
+
+        Object[] built = INDEXES.get(size);
+        if (built == null) {
+            List<String> texts = new ArrayList<>();
+            List<float[]> vectors = new ArrayList<>();
+            for (int row = 0; row < size; row++) {
+                texts.add("chunk " + row);
+                vectors.add(sample(centers[random.nextInt(CLUSTERS)], random));
+            }
+            ChunkIndex chunks = ChunkIndex.build(1, texts, vectors);
+            built = new Object[]{chunks, QuantizedIndex.build(chunks, QuantizedIndex.defaultLists(size), 1)};
+            INDEXES.put(size, built);
+        }
+        index = (ChunkIndex) built[0];
+        quantized = (QuantizedIndex) built[1];
+        scores = new float[size];
+
+        queries = new float[QUERIES][];
+        double recall = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            queries[q] = sample(centers[random.nextInt(CLUSTERS)], random);
+            Set<Integer> exact = new HashSet<>();
+            for (int row : bruteForce(queries[q]))
+                exact.add(row);
+            int n = quantized.search(queries[q], K, probes, index, rows, topScores);
+            for (int i = 0; i < n; i++)
+                if (exact.contains(rows[i]))
+                    recall++;
+        }
+        System.out.printf(Locale.US, "%nsize %d, %d lists, probes %d: recall@%d %.3f%n",
+                size, quantized.lists, probes, K, recall / (QUERIES * K));
+    }
+
+    private static float[] sample(float[] center, Random random) {
+        float[] vector = new float[DIM];
+        for (int i = 0; i < DIM; i++)
+            vector[i] = center[i] + NOISE * (float) random.nextGaussian();
+        return vector;
+    }
+
+    private int[] bruteForce(float[] query) {
+        index.scan(query, scores);
+        return ChunkIndex.top(scores, size, K);
+    }
+
+    private float[] nextQuery() {
+        int i = next;
+        next = i + 1 == queries.length ? 0 : i + 1;
+        return queries[i];
+    }
+
+    @Benchmark
+    public int[] bruteForce() {
+        return bruteForce(nextQuery());
+    }
+
+    @Benchmark
+    public int ivf() {
+        return quantized.search(nextQuery(), K, probes, index, rows, topScores);
+    }
+}
@@ -0,0 +1,61 @@
+package com.odb2llm.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * the socket thread side of {@link SerialService#onSerialRead(byte[])}: fragments are framed,
+ * each frame is copied and coalesced for the main thread, which drains every drainEvery frames.
+ * one operation is one response, fed in the fragments the bluetooth socket would deliver
+ */
+@State(Scope.Thread)
+public class SerialReadBenchmark {
+
+    @Param({"mode01_single", "mode01_multi", "mixed"})
+    public String corpus;
+
+    @Param({"4", "32"})
+    public int maxFragment;
+
+    @Param({"1", "8"})
+    public int drainEvery;
+
+    private byte[][][] fragments;
+    private Elm327Framer framer;
+    private ReadCoalescer coalescer;
+    private Blackhole bh;
+    private int next, pending;
+
+    @Setup
+    public void setup(Blackhole bh) throws IOException {
+        this.bh = bh;
+        fragments = Corpus.load(corpus).fragments(maxFragment, 42);
+        coalescer = new ReadCoalescer();
+        framer = new Elm327Framer(this::onFrame);
+    }
+
+    private void onFrame(byte[] buf, int off, int len) {
+        coalescer.add(Arrays.copyOfRange(buf, off, off + len));
+        if (++pending == drainEvery) {
+            pending = 0;
+            ArrayDeque<byte[]> datas = coalescer.drain();
+            bh.consume(datas);
+        }
+    }
+
+    @Benchmark
+    public void onSerialRead() {
+        int i = next;
+        next = i + 1 == fragments.length ? 0 : i + 1;
+        for (byte[] fragment : fragments[i])
+            framer.feed(fragment, 0, fragment.length);
+    }
+}
@@ -0,0 +1,51 @@
+package com.odb2llm.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * caret rendering of terminal lines. responses contain '\r', so every call takes the copying path,
+ * decoded text lines have no control characters and return the input
+ *
+ * android.text is replaced by the stand-ins in src/main/java/android, span bookkeeping of the real
+ * SpannableStringBuilder is not included in the numbers
+ */
+@State(Scope.Thread)
+public class TextUtilBenchmark {
+
+    @Param({"mode01_single", "mixed"})
+    public String corpus;
+
+    private String[] texts;
+    private String[] decoded;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        texts = Corpus.load(corpus).texts();
+        decoded = new String[texts.length];
+        for (int i = 0; i < texts.length; i++)
+            decoded[i] = OBDUtils.decodeOBDResponse(texts[i]);
+    }
+
+    private int next() {
+        int i = next;
+        next = i + 1 == texts.length ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public CharSequence toCaretStringResponse() {
+        return TextUtil.toCaretString(texts[next()], true);
+    }
+
+    @Benchmark
+    public CharSequence toCaretStringDecoded() {
+        return TextUtil.toCaretString(decoded[next()], true);
+    }
+}
@@ -0,0 +1,10 @@
+package android.text;
+
+/**
+ * stand-in for the android.jar class, just enough for {@link com.odb2llm.app.TextUtil} on a plain JVM
+ */
+public interface Spannable extends CharSequence {
+    int SPAN_EXCLUSIVE_EXCLUSIVE = 0x21;
+
+    void setSpan(Object what, int start, int end, int flags);
+}
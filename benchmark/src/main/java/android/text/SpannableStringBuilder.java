@@ -0,0 +1,48 @@
+package android.text;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * stand-in for the android.jar class, just enough for {@link com.odb2llm.app.TextUtil} on a plain JVM
+ */
+public class SpannableStringBuilder implements Spannable {
+
+    private final StringBuilder text = new StringBuilder();
+    private final List<Object> spans = new ArrayList<>();
+
+    public SpannableStringBuilder append(char c) {
+        text.append(c);
+        return this;
+    }
+
+    public SpannableStringBuilder append(CharSequence s) {
+        text.append(s);
+        return this;
+    }
+
+    @Override
+    public void setSpan(Object what, int start, int end, int flags) {
+        spans.add(what);
+    }
+
+    @Override
+    public int length() {
+        return text.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return text.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return text.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+}
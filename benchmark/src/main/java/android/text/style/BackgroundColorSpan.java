@@ -0,0 +1,17 @@
+package android.text.style;
+
+/**
+ * stand-in for the android.jar class, just enough for {@link com.odb2llm.app.TextUtil} on a plain JVM
+ */
+public class BackgroundColorSpan {
+
+    private final int color;
+
+    public BackgroundColorSpan(int color) {
+        this.color = color;
+    }
+
+    public int getBackgroundColor() {
+        return color;
+    }
+}